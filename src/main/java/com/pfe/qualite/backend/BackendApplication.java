@@ -1,5 +1,6 @@
 package com.pfe.qualite.backend;
 
+import com.pfe.qualite.backend.service.KpiSnapshotService;
 import com.pfe.qualite.backend.service.NomenclatureService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
@@ -33,4 +34,16 @@ public class BackendApplication {
 		};
 	}
 
+	@Bean
+	CommandLineRunner initKpiSnapshots(KpiSnapshotService kpiSnapshotService) {
+		return args -> {
+			try {
+				kpiSnapshotService.initialiserSiAbsent();
+				log.info("✅ Snapshots KPI initialisés");
+			} catch (Exception e) {
+				log.error("❌ Erreur lors de l'initialisation des snapshots KPI", e);
+			}
+		};
+	}
+
 }
@@ -0,0 +1,133 @@
+package com.pfe.qualite.backend.config;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.AsyncConfigurer;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+import java.time.Duration;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Exécuteurs nommés par type de travail, tous bornés (threads et file) :
+ * - applicationTaskExecutor : @Async par défaut
+ * - mailExecutor : workers du MailDispatcher (un thread par connexion SMTP)
+ * - auditExecutor : écriture par lots de l'historique
+ * - exportExecutor : réponses en flux (StreamingResponseBody) des exports CSV/Excel
+ * - previewExecutor : génération des miniatures des pièces jointes
+ * - migrationExecutor : migration d'un support de stockage à l'autre (parcours des clés + copies)
+ * Un pic de créations d'utilisateurs ou d'envois ne crée jamais plus de threads que la configuration.
+ * Avec spring.threads.virtual.enabled (Java 21+), les requêtes HTTP passent sur des threads virtuels
+ * tandis que ces pools restent des threads plateforme bornés (génération POI, SMTP, écriture par lots).
+ */
+@Configuration
+@Slf4j
+public class AsyncConfig implements AsyncConfigurer, WebMvcConfigurer {
+
+    private final ThreadPoolTaskExecutor applicationTaskExecutor;
+    private final ThreadPoolTaskExecutor exportExecutor;
+
+    // Par défaut aucune limite : un export de plusieurs millions de lignes ne doit pas être coupé en cours de route
+    @Value("${spring.mvc.async.request-timeout:-1}")
+    private Duration delaiReponseAsynchrone;
+
+    public AsyncConfig(@Value("${executors.async.threads:8}") int threadsAsync,
+                       @Value("${executors.async.file:500}") int fileAsync,
+                       @Value("${executors.export.threads:4}") int threadsExport,
+                       @Value("${executors.export.file:20}") int fileExport,
+                       @Value("${spring.threads.virtual.enabled:false}") boolean threadsVirtuels) {
+        if (threadsVirtuels && Runtime.version().feature() < 21) {
+            log.warn("spring.threads.virtual.enabled ignoré : Java {} (threads virtuels disponibles à partir de Java 21)",
+                    Runtime.version().feature());
+        }
+        // Trop de tâches @Async : l'appelant exécute lui-même (ralentit la source plutôt que de perdre la tâche)
+        this.applicationTaskExecutor = creer("async-", threadsAsync, fileAsync, new ThreadPoolExecutor.CallerRunsPolicy());
+        // Trop d'exports simultanés : rejet (la requête échoue au lieu d'occuper un thread de plus)
+        this.exportExecutor = creer("export-", threadsExport, fileExport, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Bean(name = "applicationTaskExecutor")
+    public ThreadPoolTaskExecutor applicationTaskExecutor() {
+        return applicationTaskExecutor;
+    }
+
+    @Bean(name = "exportExecutor")
+    public ThreadPoolTaskExecutor exportExecutor() {
+        return exportExecutor;
+    }
+
+    /**
+     * Workers d'envoi : boucles de longue durée, exactement mail.pool.workers threads
+     */
+    @Bean(name = "mailExecutor")
+    public ThreadPoolTaskExecutor mailExecutor(@Value("${mail.pool.workers:4}") int workers) {
+        return creer("mail-worker-", workers, 0, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Écrivain de l'historique : un seul thread
+     */
+    @Bean(name = "auditExecutor")
+    public ThreadPoolTaskExecutor auditExecutor() {
+        return creer("audit-writer-", 1, 0, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Miniatures : décodage d'images et de PDF gourmand en mémoire, peu de threads ;
+     * file pleine : la miniature n'est pas générée (l'upload n'est jamais ralenti)
+     */
+    @Bean(name = "previewExecutor")
+    public ThreadPoolTaskExecutor previewExecutor(@Value("${executors.preview.threads:2}") int threads,
+                                                  @Value("${executors.preview.file:200}") int file) {
+        return creer("preview-", threads, file, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Migration du stockage : un thread parcourt les clés, les autres copient ;
+     * la file absorbe les copies soumises pendant qu'un thread termine la précédente
+     */
+    @Bean(name = "migrationExecutor")
+    public ThreadPoolTaskExecutor migrationExecutor(@Value("${executors.migration.threads:8}") int threads) {
+        return creer("migration-stockage-", threads + 1, threads, new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @Override
+    public Executor getAsyncExecutor() {
+        return applicationTaskExecutor;
+    }
+
+    @Override
+    public AsyncUncaughtExceptionHandler getAsyncUncaughtExceptionHandler() {
+        return (e, methode, parametres) -> log.error("Erreur dans la tâche asynchrone {}", methode.getName(), e);
+    }
+
+    /**
+     * Les réponses StreamingResponseBody s'exécutent sur l'exécuteur d'export (et non sur un exécuteur non borné),
+     * avec un délai explicite (sinon celui du conteneur, 30 s sous Tomcat, tronque les gros exports)
+     */
+    @Override
+    public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+        configurer.setTaskExecutor(exportExecutor);
+        configurer.setDefaultTimeout(delaiReponseAsynchrone.toMillis());
+    }
+
+    private static ThreadPoolTaskExecutor creer(String prefixe, int threads, int file,
+                                                RejectedExecutionHandler rejet) {
+        ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix(prefixe);
+        executor.setCorePoolSize(threads);
+        executor.setMaxPoolSize(threads);
+        executor.setQueueCapacity(file);
+        executor.setRejectedExecutionHandler(rejet);
+        executor.setDaemon(true);
+        // Initialisé par Spring (afterPropertiesSet) et arrêté à la fermeture du contexte
+        return executor;
+    }
+}
@@ -1,6 +1,7 @@
 package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.service.AiAnalyticsService;
+import com.pfe.qualite.backend.service.AiAnalyticsService.ContexteAnalytique;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
@@ -19,40 +20,25 @@ public class AiAnalyticsController {
     // Analyser les risques
     @GetMapping("/risques")
     public ResponseEntity<Map<String, Object>> analyserRisques() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("predictions", aiAnalyticsService.analyserRisques());
-        response.put("tauxConformite", calculerTauxConformite());
-        response.put("fichesEnRetard", calculerFichesEnRetard());
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(construireRisques(aiAnalyticsService.getContexte()));
     }
 
     // Générer des recommandations
     @GetMapping("/recommandations")
     public ResponseEntity<Map<String, Object>> genererRecommandations() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("recommandations", aiAnalyticsService.genererRecommandations());
-        response.put("totalFiches", calculerTotalFiches());
-        response.put("tauxConformite", calculerTauxConformite());
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(construireRecommandations(aiAnalyticsService.getContexte()));
     }
 
     // Analyser les tendances
     @GetMapping("/tendances")
     public ResponseEntity<Map<String, Object>> analyserTendances() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("tendances", aiAnalyticsService.analyserTendances());
-        response.put("totalFiches", calculerTotalFiches());
-        response.put("tauxConformite", calculerTauxConformite());
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(construireTendances(aiAnalyticsService.getContexte()));
     }
 
     // Optimiser les processus
     @GetMapping("/optimisations")
     public ResponseEntity<Map<String, Object>> optimiserProcessus() {
-        Map<String, Object> response = new HashMap<>();
-        response.put("optimisations", aiAnalyticsService.optimiserProcessus());
-        response.put("efficaciteActuelle", calculerEfficaciteActuelle());
-        return ResponseEntity.ok(response);
+        return ResponseEntity.ok(construireOptimisations(aiAnalyticsService.getContexte()));
     }
 
     // Générer un rapport IA complet
@@ -62,62 +48,49 @@ public class AiAnalyticsController {
     }
 
     // Récupérer toutes les données du dashboard IA
+    // Le contexte analytique est chargé une seule fois et partagé par les quatre analyseurs
     @GetMapping("/dashboard")
     public ResponseEntity<Map<String, Object>> getDashboardData() {
         Map<String, Object> dashboardData = new HashMap<>();
+        ContexteAnalytique contexte = aiAnalyticsService.getContexte();
         
-        // Risques
-        Map<String, Object> risques = new HashMap<>();
-        risques.put("predictions", aiAnalyticsService.analyserRisques());
-        risques.put("tauxConformite", calculerTauxConformite());
-        risques.put("fichesEnRetard", calculerFichesEnRetard());
-        dashboardData.put("risques", risques);
-        
-        // Recommandations
-        Map<String, Object> recommandations = new HashMap<>();
-        recommandations.put("recommandations", aiAnalyticsService.genererRecommandations());
-        recommandations.put("totalFiches", calculerTotalFiches());
-        recommandations.put("tauxConformite", calculerTauxConformite());
-        dashboardData.put("recommandations", recommandations);
-        
-        // Tendances
-        Map<String, Object> tendances = new HashMap<>();
-        tendances.put("tendances", aiAnalyticsService.analyserTendances());
-        tendances.put("totalFiches", calculerTotalFiches());
-        tendances.put("tauxConformite", calculerTauxConformite());
-        dashboardData.put("tendances", tendances);
-        
-        // Optimisations
-        Map<String, Object> optimisations = new HashMap<>();
-        optimisations.put("optimisations", aiAnalyticsService.optimiserProcessus());
-        optimisations.put("efficaciteActuelle", calculerEfficaciteActuelle());
-        dashboardData.put("optimisations", optimisations);
+        dashboardData.put("risques", construireRisques(contexte));
+        dashboardData.put("recommandations", construireRecommandations(contexte));
+        dashboardData.put("tendances", construireTendances(contexte));
+        dashboardData.put("optimisations", construireOptimisations(contexte));
         
         return ResponseEntity.ok(dashboardData);
     }
 
-    // Méthodes utilitaires pour calculer les métriques
-    private double calculerTauxConformite() {
-        // Cette méthode devrait utiliser le repository pour calculer le taux de conformité
-        // Pour l'instant, retournons une valeur par défaut
-        return 75.0;
+    // Construction des réponses à partir d'un même contexte
+    private Map<String, Object> construireRisques(ContexteAnalytique contexte) {
+        Map<String, Object> risques = new HashMap<>();
+        risques.put("predictions", aiAnalyticsService.analyserRisques(contexte));
+        risques.put("tauxConformite", contexte.getTauxConformite());
+        risques.put("fichesEnRetard", (int) contexte.getFichesEnRetard());
+        return risques;
     }
 
-    private int calculerFichesEnRetard() {
-        // Cette méthode devrait utiliser le repository pour calculer les fiches en retard
-        // Pour l'instant, retournons une valeur par défaut
-        return 5;
+    private Map<String, Object> construireRecommandations(ContexteAnalytique contexte) {
+        Map<String, Object> recommandations = new HashMap<>();
+        recommandations.put("recommandations", aiAnalyticsService.genererRecommandations(contexte));
+        recommandations.put("totalFiches", (int) contexte.getTotalFiches());
+        recommandations.put("tauxConformite", contexte.getTauxConformite());
+        return recommandations;
     }
 
-    private int calculerTotalFiches() {
-        // Cette méthode devrait utiliser le repository pour calculer le total des fiches
-        // Pour l'instant, retournons une valeur par défaut
-        return 20;
+    private Map<String, Object> construireTendances(ContexteAnalytique contexte) {
+        Map<String, Object> tendances = new HashMap<>();
+        tendances.put("tendances", aiAnalyticsService.analyserTendances(contexte));
+        tendances.put("totalFiches", (int) contexte.getTotalFiches());
+        tendances.put("tauxConformite", contexte.getTauxConformite());
+        return tendances;
     }
 
-    private double calculerEfficaciteActuelle() {
-        // Cette méthode devrait utiliser le repository pour calculer l'efficacité actuelle
-        // Pour l'instant, retournons une valeur par défaut
-        return 78.0;
+    private Map<String, Object> construireOptimisations(ContexteAnalytique contexte) {
+        Map<String, Object> optimisations = new HashMap<>();
+        optimisations.put("optimisations", aiAnalyticsService.optimiserProcessus(contexte));
+        optimisations.put("efficaciteActuelle", contexte.getTauxConformite());
+        return optimisations;
     }
-} 
\ No newline at end of file
+}
@@ -60,11 +60,15 @@ public class AiChartsController {
     }
 
     // Récupérer les données de tendance réalistes
+    // period : nombre d'intervalles, granularite : mois | semaine | jour
     @GetMapping("/real-trends")
-    public ResponseEntity<Map<String, Object>> getRealTrendData() {
+    public ResponseEntity<Map<String, Object>> getRealTrendData(@RequestParam(defaultValue = "8") int period,
+                                                                @RequestParam(defaultValue = "mois") String granularite) {
         try {
-            Map<String, Object> realTrendData = aiChartsService.getRealTrendData();
+            Map<String, Object> realTrendData = aiChartsService.getRealTrendData(period, granularite);
             return ResponseEntity.ok(realTrendData);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(Map.of("error", e.getMessage()));
         } catch (Exception e) {
             return ResponseEntity.internalServerError().body(Map.of("error", "Erreur lors de la récupération des données de tendance réalistes: " + e.getMessage()));
         }
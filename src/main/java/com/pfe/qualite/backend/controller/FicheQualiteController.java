@@ -1,6 +1,7 @@
 package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.model.FicheQualite;
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.service.FicheQualiteService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -31,6 +32,17 @@ public class FicheQualiteController {
         return ResponseEntity.ok(fiches);
     }
 
+    /**
+     * Récupère une page de fiches qualité (pagination par curseur, champs optionnels)
+     */
+    @GetMapping("/page")
+    public ResponseEntity<PageCurseur<FicheQualite>> getPage(
+            @RequestParam(required = false) String curseur,
+            @RequestParam(required = false) Integer taille,
+            @RequestParam(required = false) String champs) {
+        return ResponseEntity.ok(ficheQualiteService.getFichesPage(curseur, taille, champs));
+    }
+
     /**
      * Récupère une fiche qualité par son ID
      */
@@ -1,6 +1,7 @@
 package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.model.FicheSuivi;
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.service.FicheSuiviService;
 import lombok.RequiredArgsConstructor;
 import org.springframework.http.HttpStatus;
@@ -31,6 +32,17 @@ public class FicheSuiviController {
         return ResponseEntity.ok(fichesSuivi);
     }
 
+    /**
+     * Récupère une page de fiches de suivi (pagination par curseur, champs optionnels)
+     */
+    @GetMapping("/page")
+    public ResponseEntity<PageCurseur<FicheSuivi>> getPage(
+            @RequestParam(required = false) String curseur,
+            @RequestParam(required = false) Integer taille,
+            @RequestParam(required = false) String champs) {
+        return ResponseEntity.ok(ficheSuiviService.getFichesSuiviPage(curseur, taille, champs));
+    }
+
     /**
      * Récupère une fiche de suivi par son ID
      */
@@ -2,19 +2,23 @@ package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.model.Attachment;
 import com.pfe.qualite.backend.repository.AttachmentRepository;
+import com.pfe.qualite.backend.service.FileDownloadService;
 import com.pfe.qualite.backend.service.FileStorageService;
+import com.pfe.qualite.backend.service.PreviewService;
+import com.pfe.qualite.backend.service.storage.OrphanGcService;
+import com.pfe.qualite.backend.service.storage.StorageMigrationService;
 import com.pfe.qualite.backend.util.JwtUtil;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.core.io.Resource;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
-import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -31,6 +35,10 @@ import java.util.Map;
 public class FileUploadController {
 
     private final FileStorageService fileStorageService;
+    private final FileDownloadService fileDownloadService;
+    private final StorageMigrationService storageMigrationService;
+    private final OrphanGcService orphanGcService;
+    private final PreviewService previewService;
     private final AttachmentRepository attachmentRepository;
     private final JwtUtil jwtUtil;
 
@@ -75,14 +83,15 @@ public class FileUploadController {
             }
 
             // Stocker le fichier
-            String storedFileName = fileStorageService.storeFile(file);
+            FileStorageService.StoredFile storedFile = fileStorageService.store(file);
 
             // Créer l'enregistrement dans la base de données
             Attachment attachment = Attachment.builder()
                     .originalFileName(file.getOriginalFilename())
-                    .storedFileName(storedFileName)
+                    .storedFileName(storedFile.fileName())
                     .contentType(file.getContentType())
-                    .fileSize(file.getSize())
+                    .fileSize(storedFile.size())
+                    .contentHash(storedFile.contentHash())
                     .entityType(entityType)
                     .entityId(entityId)
                     .uploadedBy(getUserIdFromRequest(request))
@@ -91,6 +100,7 @@ public class FileUploadController {
                     .build();
 
             Attachment savedAttachment = attachmentRepository.save(attachment);
+            previewService.planifier(savedAttachment);
 
             log.info("Fichier uploadé avec succès: {} pour {}/{}", 
                      file.getOriginalFilename(), entityType, entityId);
@@ -105,33 +115,96 @@ public class FileUploadController {
     }
 
     /**
-     * Télécharge un fichier
+     * Upload en flux : le corps de la requête est le contenu brut du fichier (pas de multipart)
+     * Une seule passe : type vérifié sur les premiers octets, taille contrôlée pendant la lecture,
+     * empreinte calculée à la volée, une seule écriture disque. Le client envoie le fichier avec
+     * Content-Type: application/octet-stream (ou son type réel) et son nom dans le paramètre fileName.
      */
-    @GetMapping("/download/{fileId}")
-    public ResponseEntity<Resource> downloadFile(@PathVariable String fileId, HttpServletRequest request) {
+    @PostMapping("/upload/stream")
+    public ResponseEntity<?> uploadFileStream(
+            @RequestParam("fileName") String fileName,
+            @RequestParam("entityType") String entityType,
+            @RequestParam("entityId") String entityId,
+            @RequestParam(value = "description", required = false) String description,
+            HttpServletRequest request) {
+
+        long maxBytes = MAX_FILE_SIZE_MB * 1024 * 1024;
+        // Refus immédiat quand la taille annoncée dépasse déjà la limite
+        if (request.getContentLengthLong() > maxBytes) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE)
+                    .body(createErrorResponse("Fichier trop volumineux (max " + MAX_FILE_SIZE_MB + " MB)"));
+        }
+
         try {
-            // Récupérer l'attachment depuis la base de données
-            Attachment attachment = attachmentRepository.findById(fileId)
-                    .orElseThrow(() -> new RuntimeException("Fichier non trouvé"));
+            String originalFileName = fileStorageService.cleanFileName(fileName);
+            FileStorageService.StoredFile storedFile = fileStorageService.store(
+                    request.getInputStream(), originalFileName, maxBytes, ALLOWED_TYPES);
 
-            // Charger le fichier
-            Resource resource = fileStorageService.loadFileAsResource(attachment.getStoredFileName());
+            Attachment attachment = Attachment.builder()
+                    .originalFileName(originalFileName)
+                    .storedFileName(storedFile.fileName())
+                    .contentType(storedFile.contentType())
+                    .fileSize(storedFile.size())
+                    .contentHash(storedFile.contentHash())
+                    .entityType(entityType)
+                    .entityId(entityId)
+                    .uploadedBy(getUserIdFromRequest(request))
+                    .uploadedAt(new Date())
+                    .description(description)
+                    .build();
 
-            // Déterminer le type de contenu
-            String contentType = attachment.getContentType();
-            if (contentType == null) {
-                contentType = "application/octet-stream";
-            }
+            Attachment savedAttachment = attachmentRepository.save(attachment);
+            previewService.planifier(savedAttachment);
 
-            return ResponseEntity.ok()
-                    .contentType(MediaType.parseMediaType(contentType))
-                    .header(HttpHeaders.CONTENT_DISPOSITION, 
-                            "attachment; filename=\"" + attachment.getOriginalFileName() + "\"")
-                    .body(resource);
+            log.info("Fichier uploadé en flux: {} ({} bytes) pour {}/{}",
+                     originalFileName, storedFile.size(), entityType, entityId);
 
+            return ResponseEntity.ok(savedAttachment);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().body(createErrorResponse(e.getMessage()));
         } catch (Exception e) {
-            log.error("Erreur lors du téléchargement du fichier: {}", fileId, e);
-            return ResponseEntity.notFound().build();
+            log.error("Erreur lors de l'upload du fichier en flux", e);
+            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR)
+                    .body(createErrorResponse("Erreur lors de l'upload: " + e.getMessage()));
+        }
+    }
+
+    /**
+     * Télécharge un fichier
+     * Gère Range/If-Range (reprise, aperçu partiel) et If-None-Match/If-Modified-Since (304)
+     */
+    @GetMapping("/download/{fileId}")
+    public void downloadFile(@PathVariable String fileId, HttpServletRequest request,
+                             HttpServletResponse response) throws IOException {
+        Attachment attachment = attachmentRepository.findById(fileId).orElse(null);
+        if (attachment == null || !fileStorageService.fileExists(attachment.getStoredFileName())) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        // Pièces jointes antérieures à l'empreinte : calculée une fois au premier téléchargement
+        if (attachment.getContentHash() == null) {
+            attachment.setContentHash(fileStorageService.computeContentHash(attachment.getStoredFileName()));
+            attachmentRepository.save(attachment);
+        }
+
+        // Déterminer le type de contenu
+        String contentType = attachment.getContentType();
+        if (contentType == null) {
+            contentType = "application/octet-stream";
+        }
+
+        try {
+            fileDownloadService.send(fileStorageService.getBlobStore(), attachment.getStoredFileName(),
+                    contentType,
+                    "attachment; filename=\"" + attachment.getOriginalFileName() + "\"",
+                    attachment.getContentHash(),
+                    attachment.getUploadedAt(),
+                    request, response);
+        } catch (IOException e) {
+            // Client déconnecté en cours de transfert (fréquent avec les requêtes Range)
+            log.debug("Téléchargement interrompu: {} ({})", fileId, e.getMessage());
         }
     }
 
@@ -147,6 +220,55 @@ public class FileUploadController {
         return ResponseEntity.ok(attachments);
     }
 
+    /**
+     * Miniature JPEG d'une pièce jointe (images et PDF scannés), générée en arrière-plan après l'upload
+     * 404 tant qu'elle n'est pas disponible. Dérivée du contenu, elle ne change jamais : cache long côté client.
+     */
+    @GetMapping("/{fileId}/preview")
+    public void previewFile(@PathVariable String fileId, HttpServletRequest request,
+                            HttpServletResponse response) throws IOException {
+        Attachment attachment = attachmentRepository.findById(fileId).orElse(null);
+        if (attachment == null || attachment.getPreviewFileName() == null) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        try {
+            fileDownloadService.send(fileStorageService.getBlobStore(), attachment.getPreviewFileName(),
+                    "image/jpeg", "inline", attachment.getContentHash() + "-apercu", null,
+                    "private, max-age=31536000, immutable", request, response);
+        } catch (IOException e) {
+            log.debug("Envoi de la miniature interrompu: {} ({})", fileId, e.getMessage());
+        }
+    }
+
+    /**
+     * Télécharge toutes les pièces jointes d'une entité dans une archive ZIP écrite en flux
+     * (une requête au lieu d'une par fichier, mémoire constante côté serveur).
+     * Écrite sur le thread de la requête, comme les téléchargements unitaires : un client lent n'occupe pas
+     * l'exécuteur des exports (StreamingResponseBody) et n'est pas soumis au délai des réponses asynchrones.
+     */
+    @GetMapping("/entity/{entityType}/{entityId}/zip")
+    public void downloadEntityFilesZip(
+            @PathVariable String entityType,
+            @PathVariable String entityId,
+            HttpServletResponse response) throws IOException {
+
+        List<Attachment> attachments = attachmentRepository.findByEntityTypeAndEntityId(entityType, entityId);
+        if (attachments.isEmpty()) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+
+        String nomArchive = (entityType + "-" + entityId).replaceAll("[^A-Za-z0-9._-]", "_") + ".zip";
+        response.setContentType("application/zip");
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"" + nomArchive + "\"");
+        try {
+            fileDownloadService.writeZip(fileStorageService.getBlobStore(), attachments, response.getOutputStream());
+        } catch (IOException e) {
+            log.debug("Envoi de l'archive interrompu: {}/{} ({})", entityType, entityId, e.getMessage());
+        }
+    }
+
     /**
      * Récupère les informations d'un fichier
      */
@@ -177,12 +299,12 @@ public class FileUploadController {
                         .body(createErrorResponse("Vous n'avez pas la permission de supprimer ce fichier"));
             }
 
-            // Supprimer le fichier physique
-            fileStorageService.deleteFile(attachment.getStoredFileName());
-
             // Supprimer l'enregistrement de la base de données
             attachmentRepository.deleteById(fileId);
 
+            // Supprimer le fichier physique s'il n'est plus référencé par aucune autre pièce jointe
+            fileStorageService.releaseFile(attachment.getStoredFileName());
+
             log.info("Fichier supprimé: {} par {}", attachment.getOriginalFileName(), userId);
 
             return ResponseEntity.ok(createSuccessResponse("Fichier supprimé avec succès"));
@@ -206,14 +328,15 @@ public class FileUploadController {
         try {
             List<Attachment> attachments = attachmentRepository.findByEntityTypeAndEntityId(entityType, entityId);
 
-            // Supprimer les fichiers physiques
-            for (Attachment attachment : attachments) {
-                fileStorageService.deleteFile(attachment.getStoredFileName());
-            }
-
             // Supprimer les enregistrements
             attachmentRepository.deleteByEntityTypeAndEntityId(entityType, entityId);
 
+            // Supprimer les fichiers physiques qui ne sont plus référencés
+            attachments.stream()
+                    .map(Attachment::getStoredFileName)
+                    .distinct()
+                    .forEach(fileStorageService::releaseFile);
+
             log.info("Fichiers supprimés pour {}/{}: {} fichier(s)", 
                      entityType, entityId, attachments.size());
 
@@ -227,6 +350,45 @@ public class FileUploadController {
         }
     }
 
+    /**
+     * Lance la copie des contenus d'un support de stockage vers un autre (ex: local -> gridfs), réservé à l'ADMIN
+     * À lancer avant de changer file.storage.backend ; peut être relancé sans recopier les contenus déjà migrés.
+     * La migration tourne en arrière-plan : la réponse (202) contient l'identifiant à suivre.
+     */
+    @PostMapping("/storage/migration")
+    public ResponseEntity<Map<String, Object>> migrateStorage(
+            @RequestParam("source") String source,
+            @RequestParam("cible") String cible,
+            @RequestParam(value = "parallelisme", defaultValue = "4") int parallelisme) {
+        return ResponseEntity.status(HttpStatus.ACCEPTED).body(storageMigrationService.lancer(source, cible, parallelisme));
+    }
+
+    /**
+     * Avancement ou résultat d'une migration du stockage
+     */
+    @GetMapping("/storage/migration/{id}")
+    public ResponseEntity<Map<String, Object>> getMigrationReport(@PathVariable String id) {
+        return storageMigrationService.getRapport(id)
+                .map(ResponseEntity::ok)
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /**
+     * Rapport du ramasse-miettes : dernière exécution, fichiers en quarantaine et octets récupérés
+     */
+    @GetMapping("/gc/rapport")
+    public ResponseEntity<Map<String, Object>> getGcReport() {
+        return ResponseEntity.ok(orphanGcService.getRapport());
+    }
+
+    /**
+     * Lance immédiatement un tour du ramasse-miettes (réservé à l'ADMIN)
+     */
+    @PostMapping("/gc")
+    public ResponseEntity<Map<String, Object>> runGc() {
+        return ResponseEntity.ok(orphanGcService.lancer());
+    }
+
     // ==================== Méthodes utilitaires ====================
 
     /**
@@ -1,28 +1,50 @@
 package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.model.HistoriqueAction;
+import com.pfe.qualite.backend.model.PageCurseur;
+import com.pfe.qualite.backend.service.AuditBatchWriter;
+import com.pfe.qualite.backend.service.ExportService;
 import com.pfe.qualite.backend.service.HistoriqueService;
+import com.pfe.qualite.backend.util.EncodagesAcceptes;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.format.annotation.DateTimeFormat;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.charset.StandardCharsets;
 import java.time.LocalDate;
 import java.time.ZoneId;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+import java.util.zip.GZIPOutputStream;
 
 @RestController
 @RequestMapping("/api/historique")
 @CrossOrigin(origins = "*")
 public class HistoriqueController {
 
+    private static final int TAMPON_EXPORT = 64 * 1024;
+
     @Autowired
     private HistoriqueService historiqueService;
 
+    @Autowired
+    private ExportService exportService;
+
+    @Autowired
+    private AuditBatchWriter auditBatchWriter;
+
     /**
      * Récupère l'ensemble de l'historique
      */
@@ -31,6 +53,17 @@ public class HistoriqueController {
         return ResponseEntity.ok(historiqueService.getAll());
     }
 
+    /**
+     * Récupère une page de l'historique (pagination par curseur, champs optionnels)
+     */
+    @GetMapping("/page")
+    public ResponseEntity<PageCurseur<HistoriqueAction>> getPage(
+            @RequestParam(required = false) String curseur,
+            @RequestParam(required = false) Integer taille,
+            @RequestParam(required = false) String champs) {
+        return ResponseEntity.ok(historiqueService.getHistoriquePage(curseur, taille, champs));
+    }
+
     /**
      * Récupère l'historique d'un utilisateur
      */
@@ -138,6 +171,14 @@ public class HistoriqueController {
         return ResponseEntity.ok(historiqueService.countBetween(start, end));
     }
 
+    /**
+     * Métriques de l'écriture asynchrone de l'historique (profondeur de file, lots, pertes)
+     */
+    @GetMapping("/audit/metriques")
+    public ResponseEntity<Map<String, Object>> getMetriquesAudit() {
+        return ResponseEntity.ok(auditBatchWriter.getMetriques());
+    }
+
     /**
      * Filtres avancés
      */
@@ -147,27 +188,81 @@ public class HistoriqueController {
     }
 
     /**
-     * Export CSV simple (servi en text/csv)
+     * Filtres avancés paginés (curseur sur dateAction/_id, stable même si de nouvelles actions arrivent)
+     */
+    @PostMapping("/filtres/page")
+    public ResponseEntity<PageCurseur<HistoriqueAction>> getHistoriqueFiltresPage(@RequestBody FiltresHistoriqueRequest filtres) {
+        return ResponseEntity.ok(historiqueService.getHistoriqueFiltresPage(filtres));
+    }
+
+    /**
+     * Export CSV (servi en text/csv) écrit ligne par ligne depuis un curseur MongoDB
+     * Réponse en transfert chunked, compressée en gzip si le client l'accepte
      */
     @PostMapping(value = "/export", produces = "text/csv")
-    public ResponseEntity<byte[]> exportCsv(@RequestBody(required = false) FiltresHistoriqueRequest filtres) {
-        List<HistoriqueAction> data = (filtres != null) ? historiqueService.getHistoriqueFiltres(filtres) : historiqueService.getAll();
-        StringBuilder sb = new StringBuilder();
-        sb.append("date;utilisateur;action;module;entiteId;details\n");
-        for (HistoriqueAction a : data) {
-            sb.append(escape(a.getDateAction()))
-              .append(';').append(escape(a.getUtilisateurNom()))
-              .append(';').append(escape(a.getAction()))
-              .append(';').append(escape(a.getEntite()))
-              .append(';').append(escape(a.getEntiteId()))
-              .append(';').append(escape(a.getDetails()))
-              .append('\n');
+    public ResponseEntity<StreamingResponseBody> exportCsv(
+            @RequestBody(required = false) FiltresHistoriqueRequest filtres,
+            @RequestHeader(value = HttpHeaders.ACCEPT_ENCODING, required = false) String acceptEncoding) {
+        boolean gzip = EncodagesAcceptes.accepte(acceptEncoding, "gzip");
+        StreamingResponseBody corps = out -> {
+            OutputStream sortie = gzip ? new GZIPOutputStream(out, TAMPON_EXPORT) : out;
+            Writer writer = new BufferedWriter(new OutputStreamWriter(sortie, StandardCharsets.UTF_8), TAMPON_EXPORT);
+            try (Stream<HistoriqueAction> actions = historiqueService.streamHistorique(filtres)) {
+                writer.write("date;utilisateur;action;module;entiteId;details\n");
+                Iterator<HistoriqueAction> it = actions.iterator();
+                while (it.hasNext()) {
+                    HistoriqueAction a = it.next();
+                    writer.write(escape(a.getDateAction()));
+                    writer.write(';');
+                    writer.write(escape(a.getUtilisateurNom()));
+                    writer.write(';');
+                    writer.write(escape(a.getAction()));
+                    writer.write(';');
+                    writer.write(escape(a.getEntite()));
+                    writer.write(';');
+                    writer.write(escape(a.getEntiteId()));
+                    writer.write(';');
+                    writer.write(escape(a.getDetails()));
+                    writer.write('\n');
+                }
+            }
+            // Termine le flux gzip sans fermer la sortie du conteneur
+            writer.flush();
+            if (sortie instanceof GZIPOutputStream) {
+                ((GZIPOutputStream) sortie).finish();
+            }
+        };
+        ResponseEntity.BodyBuilder reponse = ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=historique.csv")
+                .header(HttpHeaders.VARY, HttpHeaders.ACCEPT_ENCODING)
+                .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"));
+        if (gzip) {
+            reponse.header(HttpHeaders.CONTENT_ENCODING, "gzip");
         }
-        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        return reponse.body(corps);
+    }
+
+    /**
+     * Export Excel de tout l'historique, écrit en flux depuis un curseur MongoDB (SXSSF)
+     * Au-delà de 1 048 575 actions, la suite est écrite sur les feuilles « Historique (2) », « Historique (3) »...
+     */
+    @GetMapping("/export/excel")
+    public ResponseEntity<StreamingResponseBody> exportExcel() {
+        List<String> entetes = Arrays.asList("Date", "Utilisateur", "Action", "Module", "Entité ID", "Détails", "Adresse IP");
+        StreamingResponseBody corps = out -> {
+            try (Stream<HistoriqueAction> actions = historiqueService.streamHistorique()) {
+                exportService.exportToExcel("Historique", entetes,
+                        actions.map(a -> Arrays.<Object>asList(
+                                a.getDateAction(), a.getUtilisateurNom(), a.getAction(),
+                                a.getEntite(), a.getEntiteId(), a.getDetails(), a.getIpAdresse()
+                        )).iterator(),
+                        out);
+            }
+        };
         return ResponseEntity.ok()
-                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=historique.csv")
-                .contentType(MediaType.parseMediaType("text/csv; charset=UTF-8"))
-                .body(bytes);
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=historique.xlsx")
+                .contentType(MediaType.parseMediaType("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet"))
+                .body(corps);
     }
 
     private String escape(Object value) {
@@ -185,5 +280,9 @@ public class HistoriqueController {
         @DateTimeFormat(pattern = "yyyy-MM-dd")
         public Date dateFin;
         public String periode;
+        public String entiteId;
+        // Pagination par curseur (endpoint /filtres/page)
+        public String curseur;
+        public Integer taille;
     }
 } 
\ No newline at end of file
@@ -0,0 +1,41 @@
+package com.pfe.qualite.backend.controller;
+
+import com.pfe.qualite.backend.model.KpiSnapshot;
+import com.pfe.qualite.backend.service.KpiSnapshotService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+
+/**
+ * Contrôleur REST des snapshots KPI (compteurs matérialisés)
+ * La reconstruction (POST) est réservée à l'ADMIN via SecurityConfig
+ */
+@RestController
+@RequestMapping("/api/kpi-snapshots")
+@CrossOrigin("*")
+@RequiredArgsConstructor
+@Slf4j
+public class KpiSnapshotController {
+
+    private final KpiSnapshotService kpiSnapshotService;
+
+    /**
+     * Récupère les snapshots KPI courants
+     */
+    @GetMapping
+    public ResponseEntity<List<KpiSnapshot>> getSnapshots() {
+        return ResponseEntity.ok(kpiSnapshotService.getSnapshots());
+    }
+
+    /**
+     * Reconstruit tous les snapshots depuis les collections sources (réparation d'une dérive)
+     */
+    @PostMapping("/reconstruire")
+    public ResponseEntity<List<KpiSnapshot>> reconstruire() {
+        log.info("Reconstruction des snapshots KPI demandée");
+        return ResponseEntity.ok(kpiSnapshotService.reconstruireTout());
+    }
+}
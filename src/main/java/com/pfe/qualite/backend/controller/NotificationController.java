@@ -1,15 +1,21 @@
 package com.pfe.qualite.backend.controller;
 
 import com.pfe.qualite.backend.model.Notification;
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.repository.NotificationRepository;
+import com.pfe.qualite.backend.service.MailDispatcher;
+import com.pfe.qualite.backend.service.MailOutboxService;
 import com.pfe.qualite.backend.service.MailService;
+import com.pfe.qualite.backend.service.PaginationService;
 import com.pfe.qualite.backend.repository.UtilisateurRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 
 @RestController
@@ -25,6 +31,15 @@ public class NotificationController {
     @Autowired
     private UtilisateurRepository utilisateurRepository;
 
+    @Autowired
+    private PaginationService paginationService;
+
+    @Autowired
+    private MailDispatcher mailDispatcher;
+
+    @Autowired
+    private MailOutboxService mailOutboxService;
+
     @PostMapping
     public Notification createNotification(@RequestBody Notification notification) {
         notification.setDateCreation(new Date()); // date de création auto
@@ -37,6 +52,28 @@ public class NotificationController {
         return notificationRepository.findAll();
     }
 
+    // 🔹 GET : page de notifications (plus récentes d'abord), filtrable par utilisateur
+    @GetMapping("/page")
+    public PageCurseur<Notification> getPage(@RequestParam(required = false) String utilisateurId,
+                                             @RequestParam(required = false) String curseur,
+                                             @RequestParam(required = false) Integer taille,
+                                             @RequestParam(required = false) String champs) {
+        Criteria filtre = utilisateurId != null ? Criteria.where("utilisateurId").is(utilisateurId) : null;
+        return paginationService.paginer(Notification.class, filtre, "dateCreation", curseur, taille, champs);
+    }
+
+    // 🔹 GET : métriques du moteur d'envoi des emails (file, envois, réessais, échecs)
+    @GetMapping("/mail/metriques")
+    public Map<String, Object> getMetriquesMail() {
+        return mailDispatcher.getMetriques();
+    }
+
+    // 🔹 GET : emails de l'outbox par statut (en attente, en cours, envoyés, en échec)
+    @GetMapping("/mail/outbox")
+    public Map<String, Long> getStatistiquesOutbox() {
+        return mailOutboxService.getStatistiques();
+    }
+
     @GetMapping("/utilisateur/{utilisateurId}")
     public List<Notification> getByUtilisateur(@PathVariable String utilisateurId) {
         return notificationRepository.findByUtilisateurId(utilisateurId);
@@ -9,8 +9,8 @@ import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.IOException;
 import java.util.Date;
 import java.util.Map;
 
@@ -71,39 +71,31 @@ public class RapportKpiController {
      * Exporter le rapport KPI en Excel
      */
     @GetMapping("/export/excel")
-    public ResponseEntity<byte[]> exporterRapportExcel() {
-        try {
-            Map<String, Object> rapport = rapportKpiService.genererRapportKpiComplet();
-            byte[] excelData = exportService.exportRapportKpiToExcel(rapport);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "rapport-kpi.xlsx");
-            
-            return new ResponseEntity<>(excelData, headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+    public ResponseEntity<StreamingResponseBody> exporterRapportExcel() {
+        Map<String, Object> rapport = rapportKpiService.genererRapportKpiComplet();
+        return reponseExcel("rapport-kpi.xlsx", rapport);
     }
 
     /**
      * Exporter le rapport KPI par période en Excel
      */
     @GetMapping("/export/excel/periode")
-    public ResponseEntity<byte[]> exporterRapportExcelParPeriode(
+    public ResponseEntity<StreamingResponseBody> exporterRapportExcelParPeriode(
             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") Date dateDebut,
             @RequestParam @DateTimeFormat(pattern = "yyyy-MM-dd") Date dateFin) {
-        try {
-            Map<String, Object> rapport = rapportKpiService.genererRapportParPeriode(dateDebut, dateFin);
-            byte[] excelData = exportService.exportRapportKpiToExcel(rapport);
-            
-            HttpHeaders headers = new HttpHeaders();
-            headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
-            headers.setContentDispositionFormData("attachment", "rapport-kpi-periode.xlsx");
-            
-            return new ResponseEntity<>(excelData, headers, HttpStatus.OK);
-        } catch (IOException e) {
-            return ResponseEntity.status(HttpStatus.INTERNAL_SERVER_ERROR).build();
-        }
+        Map<String, Object> rapport = rapportKpiService.genererRapportParPeriode(dateDebut, dateFin);
+        return reponseExcel("rapport-kpi-periode.xlsx", rapport);
+    }
+
+    /**
+     * Réponse Excel écrite en flux dans la sortie HTTP
+     */
+    private ResponseEntity<StreamingResponseBody> reponseExcel(String filename, Map<String, Object> rapport) {
+        HttpHeaders headers = new HttpHeaders();
+        headers.setContentType(MediaType.APPLICATION_OCTET_STREAM);
+        headers.setContentDispositionFormData("attachment", filename);
+        
+        StreamingResponseBody corps = out -> exportService.exportRapportKpiToExcel(rapport, out);
+        return new ResponseEntity<>(corps, headers, HttpStatus.OK);
     }
 } 
\ No newline at end of file
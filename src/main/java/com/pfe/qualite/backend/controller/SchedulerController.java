@@ -0,0 +1,59 @@
+package com.pfe.qualite.backend.controller;
+
+import com.pfe.qualite.backend.model.MembreCluster;
+import com.pfe.qualite.backend.model.SchedulerLock;
+import com.pfe.qualite.backend.service.ClusterMembershipService;
+import com.pfe.qualite.backend.service.ExecuteurService;
+import com.pfe.qualite.backend.service.SchedulerLockService;
+import lombok.RequiredArgsConstructor;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Contrôleur REST de supervision des tâches planifiées (verrous distribués)
+ */
+@RestController
+@RequestMapping("/api/scheduler")
+@CrossOrigin("*")
+@RequiredArgsConstructor
+public class SchedulerController {
+
+    private final SchedulerLockService schedulerLockService;
+    private final ClusterMembershipService clusterMembershipService;
+    private final ExecuteurService executeurService;
+
+    /**
+     * État des baux : instance propriétaire, fin de bail, jeton de fencing, dernière exécution
+     */
+    @GetMapping("/verrous")
+    public ResponseEntity<List<SchedulerLock>> getVerrous() {
+        return ResponseEntity.ok(schedulerLockService.getVerrous());
+    }
+
+    /**
+     * Identifiant de l'instance qui répond (pour comparer avec les propriétaires des baux)
+     */
+    @GetMapping("/instance")
+    public ResponseEntity<String> getInstance() {
+        return ResponseEntity.ok(schedulerLockService.getInstance());
+    }
+
+    /**
+     * Répliques actives (battement récent) entre lesquelles les tâches planifiées sont réparties
+     */
+    @GetMapping("/membres")
+    public ResponseEntity<List<MembreCluster>> getMembres() {
+        return ResponseEntity.ok(clusterMembershipService.getMembresActifs());
+    }
+
+    /**
+     * Occupation des exécuteurs nommés : threads actifs, profondeur de file, tâches terminées
+     */
+    @GetMapping("/executeurs")
+    public ResponseEntity<Map<String, Map<String, Object>>> getExecuteurs() {
+        return ResponseEntity.ok(executeurService.getMetriques());
+    }
+}
@@ -1,5 +1,6 @@
 package com.pfe.qualite.backend.controller;
 
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.model.Tache;
 import com.pfe.qualite.backend.model.TacheStats;
 import com.pfe.qualite.backend.service.TacheService;
@@ -31,6 +32,18 @@ public class TacheController {
         return ResponseEntity.ok(taches);
     }
     
+    /**
+     * Récupérer une page de tâches (pagination par curseur, champs optionnels)
+     */
+    @GetMapping("/page")
+    @PreAuthorize("hasAnyRole('ADMIN', 'PILOTE_QUALITE')")
+    public ResponseEntity<PageCurseur<Tache>> getTachesPage(
+            @RequestParam(required = false) String curseur,
+            @RequestParam(required = false) Integer taille,
+            @RequestParam(required = false) String champs) {
+        return ResponseEntity.ok(tacheService.getTachesPage(curseur, taille, champs));
+    }
+    
     /**
      * Récupérer les tâches d'un utilisateur
      */
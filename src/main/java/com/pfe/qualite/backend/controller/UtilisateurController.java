@@ -1,5 +1,6 @@
 package com.pfe.qualite.backend.controller;
 
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.model.Utilisateur;
 import com.pfe.qualite.backend.service.UtilisateurService;
 import com.pfe.qualite.backend.service.HistoriqueService;
@@ -45,6 +46,18 @@ public class UtilisateurController {
         return ResponseEntity.ok(utilisateurs);
     }
 
+    /**
+     * Récupérer une page d'utilisateurs (pagination par curseur, champs optionnels, jamais le mot de passe)
+     */
+    @GetMapping("/page")
+    @PreAuthorize("hasRole('ADMIN')")
+    public ResponseEntity<PageCurseur<Utilisateur>> getUtilisateursPage(
+            @RequestParam(required = false) String curseur,
+            @RequestParam(required = false) Integer taille,
+            @RequestParam(required = false) String champs) {
+        return ResponseEntity.ok(utilisateurService.getUtilisateursPage(curseur, taille, champs));
+    }
+
     /**
      * Récupérer un utilisateur par ID
      */
@@ -1,6 +1,7 @@
 package com.pfe.qualite.backend.exception;
 
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.validation.FieldError;
@@ -11,6 +12,7 @@ import org.springframework.web.bind.annotation.RestControllerAdvice;
 import java.time.LocalDateTime;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 /**
  * Gestionnaire global des exceptions pour l'application
@@ -20,6 +22,9 @@ import java.util.Map;
 @Slf4j
 public class GlobalExceptionHandler {
 
+    // Délai suggéré au client avant de réessayer une requête refusée pour surcharge
+    private static final int RETRY_AFTER_SECONDES = 10;
+
     /**
      * Gère les erreurs de validation Bean Validation
      */
@@ -60,6 +65,24 @@ public class GlobalExceptionHandler {
         return ResponseEntity.badRequest().body(errorResponse);
     }
 
+    /**
+     * Gère les refus pour surcharge (places d'export, files d'envoi pleines) : 503 avec Retry-After
+     */
+    @ExceptionHandler(RejectedExecutionException.class)
+    public ResponseEntity<ErrorResponse> handleRejectedExecutionException(RejectedExecutionException ex) {
+        ErrorResponse errorResponse = ErrorResponse.builder()
+                .timestamp(LocalDateTime.now())
+                .status(HttpStatus.SERVICE_UNAVAILABLE.value())
+                .error("Service surchargé")
+                .message(ex.getMessage())
+                .build();
+
+        log.warn("Requête refusée pour surcharge: {}", ex.getMessage());
+        return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                .header(HttpHeaders.RETRY_AFTER, String.valueOf(RETRY_AFTER_SECONDES))
+                .body(errorResponse);
+    }
+
     /**
      * Gère les RuntimeException génériques
      */
@@ -5,6 +5,7 @@ import lombok.Builder;
 import lombok.Data;
 import lombok.NoArgsConstructor;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
@@ -28,8 +29,9 @@ public class Attachment {
     private String originalFileName;
     
     /**
-     * Nom du fichier stocké (unique)
+     * Nom du fichier stocké : adresse du contenu (ab/cd/empreinte), partagée par les pièces jointes identiques
      */
+    @Indexed
     private String storedFileName;
     
     /**
@@ -42,6 +44,17 @@ public class Attachment {
      */
     private Long fileSize;
     
+    /**
+     * Empreinte SHA-256 (hex) du contenu, sert d'ETag fort au téléchargement
+     */
+    @Indexed
+    private String contentHash;
+    
+    /**
+     * Clé de la miniature (JPEG) dans le stockage, renseignée une fois générée (images et PDF)
+     */
+    private String previewFileName;
+    
     /**
      * Type d'entité associée (FICHE_QUALITE, FICHE_SUIVI, PROJET, etc.)
      */
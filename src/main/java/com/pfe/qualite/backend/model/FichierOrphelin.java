@@ -0,0 +1,38 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Fichier stocké qu'aucune pièce jointe ne référence plus (collection fichiers_orphelins)
+ * Mis en quarantaine à sa découverte, supprimé par le GC après le délai de quarantaine
+ * s'il est toujours orphelin ; l'entrée est retirée si une pièce jointe le référence à nouveau.
+ */
+@Document(collection = "fichiers_orphelins")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class FichierOrphelin {
+
+    public static final String QUARANTAINE = "QUARANTAINE";
+    public static final String SUPPRIME = "SUPPRIME";
+
+    @Id
+    private String id; // Clé du fichier dans le stockage (storedFileName)
+
+    private String support; // local, gridfs
+    private long taille;
+
+    @Indexed
+    private String statut;
+
+    private Date dateQuarantaine;
+
+    @Indexed(name = "suppression_ttl", expireAfter = "90d")
+    private Date dateSuppression; // historique des suppressions conservé 90 jours
+}
@@ -2,11 +2,18 @@ package com.pfe.qualite.backend.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 
 @Document(collection = "formulaires_obligatoires")
+// Passage en retard ensembliste (statut + échéance) et emails des formulaires récemment passés en retard
+@CompoundIndexes({
+    @CompoundIndex(name = "statut_echeance", def = "{'statut': 1, 'dateEcheance': 1}"),
+    @CompoundIndex(name = "statut_miseenretard", def = "{'statut': 1, 'dateMiseEnRetard': 1}")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
@@ -30,4 +37,5 @@ public class FormulaireObligatoire {
     private boolean notifie; // Si une notification a déjà été envoyée
     private Date dateNotification; // Date de la dernière notification
     private int nombreNotifications; // Nombre de notifications envoyées
+    private Date dateMiseEnRetard; // Date du passage au statut EN_RETARD
 } 
\ No newline at end of file
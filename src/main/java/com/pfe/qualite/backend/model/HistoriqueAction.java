@@ -2,11 +2,21 @@ package com.pfe.qualite.backend.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.CompoundIndexes;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 
 @Document(collection = "historique_actions")
+// Index des requêtes filtrées (tri dateAction desc, _id pour la pagination par curseur)
+@CompoundIndexes({
+    @CompoundIndex(name = "date_id", def = "{'dateAction': -1, '_id': -1}"),
+    @CompoundIndex(name = "utilisateur_date", def = "{'utilisateurId': 1, 'dateAction': -1, '_id': -1}"),
+    @CompoundIndex(name = "entite_entiteid_date", def = "{'entite': 1, 'entiteId': 1, 'dateAction': -1, '_id': -1}"),
+    @CompoundIndex(name = "entite_date", def = "{'entite': 1, 'dateAction': -1, '_id': -1}"),
+    @CompoundIndex(name = "action_date", def = "{'action': 1, 'dateAction': -1, '_id': -1}")
+})
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
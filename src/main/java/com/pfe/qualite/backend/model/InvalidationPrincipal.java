@@ -0,0 +1,29 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Invalidation d'un utilisateur du cache des principaux, diffusée aux autres répliques
+ * (chacune relit les invalidations récentes et retire l'utilisateur de son cache local)
+ */
+@Document(collection = "principal_invalidations")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class InvalidationPrincipal {
+
+    @Id
+    private String id;
+
+    private String email;
+    private String instance; // réplique d'origine (déjà invalidée localement)
+
+    @Indexed(name = "invalidation_ttl", expireAfter = "1h")
+    private Date date;
+}
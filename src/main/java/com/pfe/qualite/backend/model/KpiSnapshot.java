@@ -0,0 +1,46 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compteurs KPI maintenus de façon incrémentale (un document par collection suivie)
+ */
+@Document(collection = "kpi_snapshots")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class KpiSnapshot {
+
+    @Id
+    private String id; // Nom de la collection suivie : fiches_qualite, fiches_suivi, formulaires_obligatoires
+
+    private long total;
+
+    /**
+     * Répartitions par dimension : nom de dimension -> valeur -> nombre de documents
+     * (ex: statut -> EN_COURS -> 12)
+     */
+    @Builder.Default
+    private Map<String, Map<String, Long>> dimensions = new HashMap<>();
+
+    private Date dateMiseAJour;
+    private Date dateReconstruction;
+
+    /**
+     * Incrémenté par chaque mise à jour : la reconstruction ne remplace le document que si aucune
+     * mise à jour n'a eu lieu pendant son agrégation
+     */
+    private long version;
+
+    /**
+     * false tant que la première reconstruction n'a pas eu lieu (document créé par une mise à jour incrémentale)
+     */
+    private boolean complet;
+}
@@ -0,0 +1,54 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Email en attente d'envoi (outbox), écrit dans le même flux que la modification métier
+ * et distribué par MailOutboxService avec un bail (livraison au moins une fois)
+ */
+@Document(collection = "mail_outbox")
+// Recherche des emails à distribuer : statut puis échéance (prochain essai ou fin de bail)
+@CompoundIndex(name = "statut_prochainessai", def = "{'statut': 1, 'prochainEssai': 1}")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MailOutbox {
+
+    public static final String EN_ATTENTE = "EN_ATTENTE";
+    public static final String EN_COURS = "EN_COURS";
+    public static final String ENVOYE = "ENVOYE";
+    public static final String ECHEC = "ECHEC";
+
+    @Id
+    private String id;
+
+    @Indexed(unique = true)
+    private String cleIdempotence; // ex: formulaire-retard:<id>:<échéance> ; un même événement n'est planifié qu'une fois
+
+    private String type; // BIENVENUE, RESET_PASSWORD, FORMULAIRE_RETARD, ECHEANCE_PROCHE, DIGEST_NOTIFICATIONS
+    private String destinataire;
+    private String sujet;
+    private String corps; // purgé après envoi (peut contenir un mot de passe temporaire)
+    private boolean html;
+
+    private String statut; // EN_ATTENTE, EN_COURS, ENVOYE, ECHEC
+    private int tentatives;
+    private Date prochainEssai; // EN_ATTENTE : date du prochain essai ; EN_COURS : fin du bail
+    private String proprietaireBail; // instance qui détient le bail
+    private String derniereErreur;
+
+    private Date dateCreation;
+
+    @Indexed(name = "envoye_ttl", expireAfter = "30d")
+    private Date dateEnvoi; // les emails envoyés sont supprimés automatiquement après 30 jours
+
+    @Indexed(name = "abandon_ttl", expireAfter = "90d")
+    private Date dateAbandon; // les emails en échec définitif (corps purgé) sont supprimés après 90 jours
+}
@@ -0,0 +1,29 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.Indexed;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Réplique vivante du backend (battement de cœur périodique)
+ * Sert à répartir les tâches planifiées lourdes entre les répliques
+ */
+@Document(collection = "scheduler_membres")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MembreCluster {
+
+    @Id
+    private String id; // Identifiant de l'instance (InstanceApplication.ID)
+
+    private String hote;
+    private Date dateDemarrage;
+
+    @Indexed(name = "battement_ttl", expireAfter = "10m")
+    private Date dernierBattement; // les membres silencieux sont purgés automatiquement
+}
@@ -0,0 +1,21 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+
+/**
+ * Email sortant remis au MailDispatcher (texte ou HTML, pièce jointe optionnelle)
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class MessageMail {
+
+    private String destinataire;
+    private String sujet;
+    private String corps;
+    private boolean html;
+
+    private byte[] pieceJointe;
+    private String nomPieceJointe;
+}
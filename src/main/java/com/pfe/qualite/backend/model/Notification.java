@@ -2,11 +2,14 @@ package com.pfe.qualite.backend.model;
 
 import lombok.*;
 import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.index.CompoundIndex;
 import org.springframework.data.mongodb.core.mapping.Document;
 
 import java.util.Date;
 
 @Document(collection = "notifications")
+// Notifications non lues par utilisateur (digest du planificateur, findByUtilisateurIdAndLuFalse)
+@CompoundIndex(name = "lu_utilisateur_date", def = "{'lu': 1, 'utilisateurId': 1, 'dateCreation': 1}")
 @Data
 @NoArgsConstructor
 @AllArgsConstructor
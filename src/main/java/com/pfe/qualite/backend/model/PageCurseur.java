@@ -0,0 +1,20 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * Page d'une liste paginée par curseur
+ * curseurSuivant est opaque pour le client : null quand il n'y a plus d'éléments
+ */
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+public class PageCurseur<T> {
+    private List<T> elements;
+    private String curseurSuivant;
+    private int taille;
+}
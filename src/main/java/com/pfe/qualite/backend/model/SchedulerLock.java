@@ -0,0 +1,32 @@
+package com.pfe.qualite.backend.model;
+
+import lombok.*;
+import org.springframework.data.annotation.Id;
+import org.springframework.data.mongodb.core.mapping.Document;
+
+import java.util.Date;
+
+/**
+ * Bail d'exécution d'une tâche planifiée (un document par tâche)
+ * Une seule instance du cluster détient le bail ; le jeton de fencing augmente à chaque acquisition
+ */
+@Document(collection = "scheduler_locks")
+@Data
+@NoArgsConstructor
+@AllArgsConstructor
+@Builder
+public class SchedulerLock {
+
+    @Id
+    private String id; // Nom de la tâche (ex: notifications.digest)
+
+    private String proprietaire; // Instance détentrice du bail
+    private Date jusqua; // Fin du bail ; au-delà, une autre instance peut l'acquérir
+    private long jetonFencing; // Incrémenté à chaque acquisition
+    private Date dateAcquisition;
+
+    private Date derniereExecutionDebut;
+    private Date derniereExecutionFin;
+    private String dernierStatut; // EN_COURS, SUCCES, ECHEC
+    private String derniereErreur;
+}
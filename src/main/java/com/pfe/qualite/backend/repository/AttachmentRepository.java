@@ -17,6 +17,11 @@ public interface AttachmentRepository extends MongoRepository<Attachment, String
      */
     List<Attachment> findByUploadedBy(String uploadedBy);
     
+    /**
+     * Nombre de pièces jointes qui référencent un fichier stocké
+     */
+    long countByStoredFileName(String storedFileName);
+    
     /**
      * Supprime toutes les pièces jointes d'une entité
      */
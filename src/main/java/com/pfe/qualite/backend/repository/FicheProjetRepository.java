@@ -6,4 +6,5 @@ import java.util.List;
 
 public interface FicheProjetRepository extends MongoRepository<FicheProjet, String> {
     List<FicheProjet> findByResponsable(String responsable);
-} 
\ No newline at end of file
+    long countByStatut(String statut);
+}
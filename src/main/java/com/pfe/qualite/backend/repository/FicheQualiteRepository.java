@@ -3,6 +3,7 @@ package com.pfe.qualite.backend.repository;
 import com.pfe.qualite.backend.model.FicheQualite;
 import org.springframework.data.mongodb.repository.MongoRepository;
 
+import java.time.LocalDate;
 import java.util.List;
 
 public interface FicheQualiteRepository extends MongoRepository<FicheQualite, String> {
@@ -11,4 +12,7 @@ public interface FicheQualiteRepository extends MongoRepository<FicheQualite, St
     List<FicheQualite> findByTypeFiche(String typeFiche);
     List<FicheQualite> findByStatut(String statut);
     List<FicheQualite> findByResponsable(String responsable);
+
+    // Fiches échues non terminées (comptage seul, aucun document chargé)
+    long countByDateEcheanceBeforeAndStatutNot(LocalDate date, String statut);
 }
@@ -2,95 +2,138 @@ package com.pfe.qualite.backend.scheduler;
 
 import com.pfe.qualite.backend.model.Notification;
 import com.pfe.qualite.backend.model.FormulaireObligatoire;
-import com.pfe.qualite.backend.repository.NotificationRepository;
+import com.pfe.qualite.backend.model.MessageMail;
+import com.pfe.qualite.backend.model.Utilisateur;
 import com.pfe.qualite.backend.repository.UtilisateurRepository;
-import com.pfe.qualite.backend.repository.FormulaireObligatoireRepository;
+import com.pfe.qualite.backend.service.KpiSnapshotService;
+import com.pfe.qualite.backend.service.MailOutboxService;
 import com.pfe.qualite.backend.service.MailService;
+import com.pfe.qualite.backend.service.SchedulerLockService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.scheduling.annotation.Scheduled;
 import org.springframework.stereotype.Service;
 
-import java.util.Date;
-import java.util.List;
+import java.util.*;
+import java.util.function.BiFunction;
 import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class NotificationScheduler {
 
+    // Noms des tâches ; verrou de chaque compartiment : <tâche>#<caractère hexadécimal> (collection scheduler_locks)
+    public static final String TACHE_DIGEST = "notifications.digest";
+    public static final String TACHE_RETARDS = "formulaires.retards";
+    public static final String TACHE_ECHEANCES = "formulaires.echeances-proches";
+
+    private static final String STATUT_EN_RETARD = "EN_RETARD";
+    private static final long FENETRE_EMAILS_RETARD_MS = 24L * 60 * 60 * 1000;
+    private static final int TAILLE_LOT_EMAILS = 500;
+
     @Autowired
     private UtilisateurRepository utilisateurRepository;
 
     @Autowired
-    private FormulaireObligatoireRepository formulaireObligatoireRepository;
+    private MailService mailService;
 
     @Autowired
-    private MailService mailService;
+    private KpiSnapshotService kpiSnapshotService;
 
-    private final NotificationRepository notificationRepository;
-    private final JavaMailSender mailSender;
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MailOutboxService mailOutboxService;
+
+    @Autowired
+    private SchedulerLockService schedulerLockService;
 
     @Scheduled(cron = "0 */15 * * * *") // toutes les 15 minutes
     public void envoyerEmailsNotifications() {
+        // Chaque compartiment d'utilisateurs est traité par une seule réplique par déclenchement
+        schedulerLockService.executerPartitionne(TACHE_DIGEST, "utilisateurId", this::envoyerEmailsNotifications);
+    }
+
+    private void envoyerEmailsNotifications(String verrou, long jeton, Criteria partition) {
         log.info("⏰ Planificateur exécuté...");
 
-        // ✅ Étape 1 : récupérer les utilisateurs avec des notifications non lues
-        List<String> utilisateursAvecNotif = notificationRepository
-                .findAll()
-                .stream()
-                .filter(notif -> !notif.isLu())
-                .map(Notification::getUtilisateurId)
-                .distinct()
-                .collect(Collectors.toList());
+        // ✅ Étape 1 : une seule agrégation regroupe les notifications non lues par utilisateur
+        Aggregation digest = Aggregation.newAggregation(
+                Aggregation.match(etPartition(Criteria.where("lu").is(false).and("utilisateurId").ne(null), partition)),
+                Aggregation.sort(Sort.Direction.ASC, "dateCreation"),
+                Aggregation.group("utilisateurId")
+                        .push("_id").as("ids")
+                        .push("message").as("messages")
+        );
+        List<Document> groupes = mongoTemplate.aggregate(digest, Notification.class, Document.class)
+                .getMappedResults();
 
-        if (utilisateursAvecNotif.isEmpty()) {
+        if (groupes.isEmpty()) {
             log.info("✅ Aucune notification non lue à envoyer.");
             return;
         }
 
-        // ✅ Étape 2 : REMPLACE ta boucle par ce bloc :
-        for (String userId : utilisateursAvecNotif) {
-            List<Notification> notifsNonLues = notificationRepository.findByUtilisateurIdAndLuFalse(userId);
+        // ✅ Étape 2 : tous les destinataires en une requête
+        Set<String> userIds = groupes.stream()
+                .map(g -> g.getString("_id"))
+                .collect(Collectors.toSet());
+        Map<String, Utilisateur> utilisateurs = new HashMap<>();
+        utilisateurRepository.findAllById(userIds).forEach(u -> utilisateurs.put(u.getId(), u));
 
-            // 🎯 Récupérer l’utilisateur depuis MongoDB
-            utilisateurRepository.findById(userId).ifPresentOrElse(utilisateur -> {
-                String email = utilisateur.getEmail();  // ✅ E-mail réel
+        // ✅ Étape 3 : un email par utilisateur, planifié dans l'outbox (si le bail est toujours détenu) ;
+        // la clé (utilisateur + dernière notification incluse) évite un doublon si le job est rejoué
+        List<Object> idsPlanifies = new ArrayList<>();
+        schedulerLockService.verifierJeton(verrou, jeton);
+        for (Document groupe : groupes) {
+            String userId = groupe.getString("_id");
+            Utilisateur utilisateur = utilisateurs.get(userId);
+            if (utilisateur == null) {
+                log.warn("❌ Aucun utilisateur trouvé avec l’ID {}", userId);
+                continue;
+            }
+            String email = utilisateur.getEmail();
+            if (email == null || email.isBlank()) {
+                log.warn("⚠️ Utilisateur {} n’a pas d’e-mail défini. Notification ignorée.", userId);
+                continue;
+            }
 
-                if (email == null || email.isBlank()) {
-                    log.warn("⚠️ Utilisateur {} n’a pas d’e-mail défini. Notification ignorée.", userId);
-                    return;
-                }
-
-                // 📨 Construire le contenu
-                String contenu = notifsNonLues.stream()
-                        .map(Notification::getMessage)
-                        .collect(Collectors.joining("\n"));
-
-                try {
-                    SimpleMailMessage message = new SimpleMailMessage();
-                    message.setTo(email);
-                    message.setSubject("📢 Notifications non lues");
-                    message.setText("Bonjour,\n\nVous avez des notifications :\n\n" + contenu);
-                    mailSender.send(message);
+            // 📨 Construire le contenu
+            String contenu = groupe.getList("messages", Object.class).stream()
+                    .filter(Objects::nonNull)
+                    .map(Object::toString)
+                    .collect(Collectors.joining("\n"));
 
-                    log.info("📧 Email envoyé à {}", email);
-
-                    // ✅ Marquer comme lues
-                    notifsNonLues.forEach(n -> {
-                        n.setLu(true);
-                        notificationRepository.save(n);
-                    });
-
-                } catch (Exception e) {
-                    log.error("❌ Erreur d'envoi de mail pour utilisateur {}", userId, e);
-                }
+            List<Object> ids = groupe.getList("ids", Object.class);
+            mailService.planifierEmail(
+                    "digest:" + userId + ":" + ids.get(ids.size() - 1),
+                    "DIGEST_NOTIFICATIONS",
+                    email,
+                    "📢 Notifications non lues",
+                    "Bonjour,\n\nVous avez des notifications :\n\n" + contenu);
+            log.info("📧 Email planifié pour {}", email);
+            idsPlanifies.addAll(ids);
+        }
 
-            }, () -> log.warn("❌ Aucun utilisateur trouvé avec l’ID {}", userId));
+        // ✅ Étape 4 : marquer comme lues en une seule mise à jour
+        // (seules les notifications incluses dans un email planifié, pas celles arrivées entre-temps)
+        if (!idsPlanifies.isEmpty()) {
+            long modifiees = mongoTemplate.updateMulti(
+                    Query.query(Criteria.where("_id").in(idsPlanifies)),
+                    Update.update("lu", true),
+                    Notification.class
+            ).getModifiedCount();
+            log.info("✅ {} notifications marquées comme lues", modifiees);
         }
     }
 
@@ -99,38 +142,102 @@ public class NotificationScheduler {
      */
     @Scheduled(cron = "0 0 * * * *") // toutes les heures
     public void verifierFormulairesEnRetard() {
+        schedulerLockService.executerPartitionne(TACHE_RETARDS, "responsableId", this::verifierFormulairesEnRetard);
+    }
+
+    private void verifierFormulairesEnRetard(String verrou, long jeton, Criteria partition) {
         log.info("⏰ Vérification des formulaires en retard...");
         
         Date maintenant = new Date();
-        List<FormulaireObligatoire> formulairesEnRetard = formulaireObligatoireRepository
-                .findByDateEcheanceBeforeAndStatutNotSoumis(maintenant);
+        // Formulaires échus non soumis qui ne sont pas encore marqués en retard
+        Criteria aMarquer = etPartition(Criteria.where("dateEcheance").lt(maintenant)
+                .and("statut").nin("SOUMIS", STATUT_EN_RETARD), partition);
+
+        // ✅ Étape 1 : statuts à quitter (quelques valeurs distinctes), plus les formulaires sans statut
+        List<String> statuts = new ArrayList<>(mongoTemplate.findDistinct(Query.query(aMarquer), "statut",
+                FormulaireObligatoire.class, String.class));
+        if (!statuts.contains(null)) statuts.add(null);
+
+        // ✅ Étape 2 : passage en retard ensembliste, un updateMany par statut quitté (aucun document chargé).
+        // Le nombre modifié par chaque updateMany alimente le snapshot KPI : pas d'écart possible entre
+        // un comptage préalable et la mise à jour si un formulaire change de statut entre les deux.
+        schedulerLockService.verifierJeton(verrou, jeton);
+        long marques = 0;
+        for (String statut : statuts) {
+            long modifies = mongoTemplate.updateMulti(
+                    Query.query(new Criteria().andOperator(aMarquer, Criteria.where("statut").is(statut))),
+                    new Update().set("statut", STATUT_EN_RETARD).set("dateMiseEnRetard", maintenant),
+                    FormulaireObligatoire.class
+            ).getModifiedCount();
+            kpiSnapshotService.enregistrerTransitions(KpiSnapshotService.FORMULAIRES_OBLIGATOIRES,
+                    KpiSnapshotService.DIM_STATUT, Collections.singletonMap(statut, modifies), STATUT_EN_RETARD, modifies);
+            marques += modifies;
+        }
+
+        // ✅ Étape 3 : emails des formulaires passés en retard récemment, planifiés dans l'outbox par lots.
+        // La fenêtre couvre les exécutions précédentes interrompues ; les clés d'idempotence évitent les doublons.
+        Query recents = Query.query(etPartition(Criteria.where("statut").is(STATUT_EN_RETARD)
+                .and("dateMiseEnRetard").gte(new Date(maintenant.getTime() - FENETRE_EMAILS_RETARD_MS)), partition));
+        int planifies = planifierEmailsFormulaires(recents, "FORMULAIRE_RETARD",
+                (formulaire, email) -> mailService.messageRetard(email, formulaire.getNom(), formulaire.getDateEcheance()));
         
-        for (FormulaireObligatoire formulaire : formulairesEnRetard) {
-            // Marquer comme en retard
-            formulaire.setStatut("EN_RETARD");
-            formulaireObligatoireRepository.save(formulaire);
-            
-            // Envoyer email de notification
-            utilisateurRepository.findById(formulaire.getResponsableId()).ifPresent(utilisateur -> {
-                if (utilisateur.getEmail() != null && !utilisateur.getEmail().isBlank()) {
-                    try {
-                        mailService.envoyerEmailRetard(
-                            utilisateur.getEmail(),
-                            formulaire.getNom(),
-                            formulaire.getDateEcheance()
-                        );
-                        log.info("📧 Email de retard envoyé à {} pour le formulaire {}", 
-                                utilisateur.getEmail(), formulaire.getNom());
-                    } catch (Exception e) {
-                        log.error("❌ Erreur d'envoi d'email de retard pour {}", utilisateur.getEmail(), e);
-                    }
+        if (marques > 0 || planifies > 0) {
+            log.info("⚠️ {} formulaires marqués comme en retard, {} emails planifiés", marques, planifies);
+        }
+    }
+
+    /**
+     * Planifie un email par formulaire retourné par la requête (projetée, lue en flux) :
+     * par lot de TAILLE_LOT_EMAILS, responsables chargés en une requête et emails insérés en une fois.
+     * Clé d'idempotence : type (ex: formulaire-retard) + formulaire + échéance.
+     */
+    private int planifierEmailsFormulaires(Query query, String type,
+                                           BiFunction<FormulaireObligatoire, String, MessageMail> message) {
+        query.fields().include("nom", "responsableId", "dateEcheance");
+        query.cursorBatchSize(TAILLE_LOT_EMAILS);
+
+        int planifies = 0;
+        List<FormulaireObligatoire> lot = new ArrayList<>(TAILLE_LOT_EMAILS);
+        try (Stream<FormulaireObligatoire> flux = mongoTemplate.stream(query, FormulaireObligatoire.class)) {
+            Iterator<FormulaireObligatoire> it = flux.iterator();
+            while (it.hasNext()) {
+                lot.add(it.next());
+                if (lot.size() == TAILLE_LOT_EMAILS || !it.hasNext()) {
+                    planifies += planifierLot(lot, type, message);
+                    lot.clear();
                 }
-            });
+            }
         }
-        
-        if (!formulairesEnRetard.isEmpty()) {
-            log.info("⚠️ {} formulaires marqués comme en retard", formulairesEnRetard.size());
+        return planifies;
+    }
+
+    private int planifierLot(List<FormulaireObligatoire> lot, String type,
+                             BiFunction<FormulaireObligatoire, String, MessageMail> message) {
+        Set<String> responsableIds = lot.stream()
+                .map(FormulaireObligatoire::getResponsableId)
+                .filter(Objects::nonNull)
+                .collect(Collectors.toSet());
+        Map<String, Utilisateur> responsables = new HashMap<>();
+        utilisateurRepository.findAllById(responsableIds).forEach(u -> responsables.put(u.getId(), u));
+
+        Map<String, MessageMail> messages = new LinkedHashMap<>();
+        for (FormulaireObligatoire formulaire : lot) {
+            Utilisateur responsable = responsables.get(formulaire.getResponsableId());
+            if (responsable == null || responsable.getEmail() == null || responsable.getEmail().isBlank()) {
+                continue;
+            }
+            long echeance = formulaire.getDateEcheance() != null ? formulaire.getDateEcheance().getTime() : 0;
+            messages.put(type.toLowerCase().replace('_', '-') + ":" + formulaire.getId() + ":" + echeance,
+                    message.apply(formulaire, responsable.getEmail()));
         }
+        return mailOutboxService.planifierLot(type, messages);
+    }
+
+    /**
+     * Restreint un critère au compartiment en cours de traitement
+     */
+    private Criteria etPartition(Criteria critere, Criteria partition) {
+        return partition.getCriteriaObject().isEmpty() ? critere : new Criteria().andOperator(critere, partition);
     }
 
     /**
@@ -138,43 +245,24 @@ public class NotificationScheduler {
      */
     @Scheduled(cron = "0 0 */6 * * *") // toutes les 6 heures
     public void verifierEcheancesProches() {
+        schedulerLockService.executerPartitionne(TACHE_ECHEANCES, "responsableId", this::verifierEcheancesProches);
+    }
+
+    private void verifierEcheancesProches(String verrou, long jeton, Criteria partition) {
         log.info("⏰ Vérification des échéances proches...");
         
         Date maintenant = new Date();
         Date dans24h = new Date(maintenant.getTime() + 24 * 60 * 60 * 1000); // +24h
         
-        List<FormulaireObligatoire> formulairesEcheanceProche = formulaireObligatoireRepository
-                .findByDateEcheanceBetweenAndStatutEnAttente(maintenant, dans24h);
-        
-        for (FormulaireObligatoire formulaire : formulairesEcheanceProche) {
-            utilisateurRepository.findById(formulaire.getResponsableId()).ifPresent(utilisateur -> {
-                if (utilisateur.getEmail() != null && !utilisateur.getEmail().isBlank()) {
-                    try {
-                        SimpleMailMessage message = new SimpleMailMessage();
-                        message.setTo(utilisateur.getEmail());
-                        message.setSubject("⚠️ Échéance proche - " + formulaire.getNom());
-                        message.setText(String.format(
-                            "Bonjour,\n\n" +
-                            "Le formulaire obligatoire '%s' arrive à échéance le %s.\n" +
-                            "Veuillez le compléter dans les plus brefs délais.\n\n" +
-                            "Cordialement,\n" +
-                            "Système de Suivi Qualité",
-                            formulaire.getNom(),
-                            formulaire.getDateEcheance().toString()
-                        ));
-                        mailSender.send(message);
-                        
-                        log.info("📧 Email d'échéance proche envoyé à {} pour le formulaire {}", 
-                                utilisateur.getEmail(), formulaire.getNom());
-                    } catch (Exception e) {
-                        log.error("❌ Erreur d'envoi d'email d'échéance pour {}", utilisateur.getEmail(), e);
-                    }
-                }
-            });
-        }
+        // Même prédicat que findByDateEcheanceBetweenAndStatutEnAttente, restreint à la partition
+        Query echeancesProches = Query.query(etPartition(Criteria.where("dateEcheance").gte(maintenant).lte(dans24h)
+                .and("statut").is("EN_ATTENTE"), partition));
+        schedulerLockService.verifierJeton(verrou, jeton);
+        int planifies = planifierEmailsFormulaires(echeancesProches, "ECHEANCE_PROCHE",
+                (formulaire, email) -> mailService.messageEcheanceProche(email, formulaire.getNom(), formulaire.getDateEcheance()));
         
-        if (!formulairesEcheanceProche.isEmpty()) {
-            log.info("⚠️ {} formulaires avec échéance proche notifiés", formulairesEcheanceProche.size());
+        if (planifies > 0) {
+            log.info("⚠️ {} emails d'échéance proche planifiés", planifies);
         }
     }
 }
@@ -60,6 +60,8 @@ public class SecurityConfig {
                         .requestMatchers(org.springframework.http.HttpMethod.POST, "/api/nomenclatures", "/api/nomenclatures/**").hasRole("ADMIN")
                         .requestMatchers(org.springframework.http.HttpMethod.PUT, "/api/nomenclatures/**").hasRole("ADMIN")
                         .requestMatchers(org.springframework.http.HttpMethod.DELETE, "/api/nomenclatures/**").hasRole("ADMIN")
+                        // Migration du stockage et ramasse-miettes des fichiers réservés à l'ADMIN
+                        .requestMatchers(org.springframework.http.HttpMethod.POST, "/api/files/storage/**", "/api/files/gc").hasRole("ADMIN")
                         // CRUD Utilisateurs réservé à l'ADMIN
                         .requestMatchers(org.springframework.http.HttpMethod.POST, "/api/utilisateurs", "/api/admin/create-user").hasRole("ADMIN")
                         .requestMatchers(org.springframework.http.HttpMethod.PUT, "/api/utilisateurs/**").hasRole("ADMIN")
@@ -1,7 +1,7 @@
 package com.pfe.qualite.backend.security.jwt;
 
 import com.pfe.qualite.backend.model.Utilisateur;
-import com.pfe.qualite.backend.repository.UtilisateurRepository;
+import io.jsonwebtoken.Claims;
 import jakarta.servlet.FilterChain;
 import jakarta.servlet.ServletException;
 import jakarta.servlet.http.HttpServletRequest;
@@ -23,7 +23,7 @@ import java.util.List;
 public class JwtFilter extends OncePerRequestFilter {
 
     private final JwtUtils jwtUtils;
-    private final UtilisateurRepository utilisateurRepository;
+    private final PrincipalCache principalCache;
 
     @Override
     protected void doFilterInternal(HttpServletRequest request, HttpServletResponse response,
@@ -43,13 +43,14 @@ public class JwtFilter extends OncePerRequestFilter {
         }
 
         String token = authHeader.substring(7);
-        if (!jwtUtils.validateToken(token)) {
+        // Un seul parsing : validation de la signature et lecture du sujet
+        Claims claims = jwtUtils.parseClaims(token);
+        if (claims == null || claims.getSubject() == null) {
             filterChain.doFilter(request, response);
             return;
         }
 
-        String email = jwtUtils.getEmailFromToken(token);
-        Utilisateur user = utilisateurRepository.findByEmail(email).orElse(null);
+        Utilisateur user = principalCache.getUtilisateur(claims.getSubject());
         if (user != null && SecurityContextHolder.getContext().getAuthentication() == null) {
             var auth = new UsernamePasswordAuthenticationToken(
                     user, null, List.of(new SimpleGrantedAuthority("ROLE_" + user.getRole())));
@@ -0,0 +1,113 @@
+package com.pfe.qualite.backend.security.jwt;
+
+import com.pfe.qualite.backend.model.InvalidationPrincipal;
+import com.pfe.qualite.backend.model.Utilisateur;
+import com.pfe.qualite.backend.repository.UtilisateurRepository;
+import com.pfe.qualite.backend.util.InstanceApplication;
+import com.pfe.qualite.backend.util.TtlCache;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+
+/**
+ * Cache des utilisateurs authentifiés, par email (sujet du JWT)
+ * Évite une lecture MongoDB à chaque requête ; invalidé par UtilisateurService
+ * lors d'une modification, d'une activation/désactivation ou d'une suppression.
+ * L'invalidation est diffusée aux autres répliques par la collection principal_invalidations,
+ * relue toutes les jwt.principal-cache.sync-ms : un utilisateur désactivé perd l'accès partout
+ * en quelques secondes (au pire le TTL si la base est injoignable).
+ */
+@Component
+@Slf4j
+public class PrincipalCache {
+
+    // Tolérance au décalage d'horloge entre répliques (une invalidation relue deux fois est sans effet)
+    private static final long MARGE_HORLOGE_MS = 5_000;
+
+    private final UtilisateurRepository utilisateurRepository;
+    private final MongoTemplate mongoTemplate;
+    private final TtlCache<String, Utilisateur> cache;
+    private final String instance = InstanceApplication.ID;
+    private volatile long derniereSynchronisation = System.currentTimeMillis();
+
+    public PrincipalCache(UtilisateurRepository utilisateurRepository,
+                          MongoTemplate mongoTemplate,
+                          @Value("${jwt.principal-cache.ttl-ms:60000}") long ttlMillis,
+                          @Value("${jwt.principal-cache.taille-max:10000}") int tailleMax) {
+        this.utilisateurRepository = utilisateurRepository;
+        this.mongoTemplate = mongoTemplate;
+        this.cache = new TtlCache<>(ttlMillis, tailleMax);
+    }
+
+    /**
+     * Utilisateur correspondant à l'email (null s'il n'existe pas ; l'absence est aussi mise en cache)
+     */
+    public Utilisateur getUtilisateur(String email) {
+        return cache.get(email, () -> utilisateurRepository.findByEmail(email)
+                .map(this::sansMotDePasse)
+                .orElse(null));
+    }
+
+    /**
+     * Invalide l'utilisateur ici et le publie pour les autres répliques
+     */
+    public void invalider(String email) {
+        if (email == null) return;
+        cache.invalider(email);
+        try {
+            mongoTemplate.insert(InvalidationPrincipal.builder()
+                    .email(email)
+                    .instance(instance)
+                    .date(new Date())
+                    .build());
+        } catch (Exception e) {
+            // Les autres répliques verront le changement à l'expiration du TTL
+            log.warn("Diffusion de l'invalidation de {} impossible: {}", email, e.getMessage());
+        }
+    }
+
+    /**
+     * Applique les invalidations publiées par les autres répliques depuis la dernière lecture
+     */
+    @Scheduled(fixedDelayString = "${jwt.principal-cache.sync-ms:2000}")
+    public void synchroniser() {
+        long debut = System.currentTimeMillis();
+        Query recentes = Query.query(Criteria.where("date").gte(new Date(derniereSynchronisation - MARGE_HORLOGE_MS))
+                .and("instance").ne(instance));
+        recentes.fields().include("email");
+        try {
+            mongoTemplate.find(recentes, InvalidationPrincipal.class)
+                    .forEach(invalidation -> cache.invalider(invalidation.getEmail()));
+            derniereSynchronisation = debut;
+        } catch (Exception e) {
+            log.debug("Lecture des invalidations du cache des principaux impossible: {}", e.getMessage());
+        }
+    }
+
+    public void vider() {
+        cache.vider();
+    }
+
+    /**
+     * Copie sans le hash du mot de passe : le principal reste en mémoire le temps du TTL
+     */
+    private Utilisateur sansMotDePasse(Utilisateur utilisateur) {
+        return Utilisateur.builder()
+                .id(utilisateur.getId())
+                .nom(utilisateur.getNom())
+                .email(utilisateur.getEmail())
+                .role(utilisateur.getRole())
+                .actif(utilisateur.getActif())
+                .telephone(utilisateur.getTelephone())
+                .dateCreation(utilisateur.getDateCreation())
+                .dateModification(utilisateur.getDateModification())
+                .creePar(utilisateur.getCreePar())
+                .build();
+    }
+}
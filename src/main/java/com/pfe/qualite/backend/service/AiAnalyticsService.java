@@ -1,28 +1,81 @@
 package com.pfe.qualite.backend.service;
 
-import com.pfe.qualite.backend.model.FicheQualite;
-import com.pfe.qualite.backend.model.FicheSuivi;
-import com.pfe.qualite.backend.model.FicheProjet;
-import com.pfe.qualite.backend.repository.FicheQualiteRepository;
-import com.pfe.qualite.backend.repository.FicheSuiviRepository;
+import com.pfe.qualite.backend.model.KpiSnapshot;
 import com.pfe.qualite.backend.repository.FicheProjetRepository;
+import com.pfe.qualite.backend.repository.FicheQualiteRepository;
+import com.pfe.qualite.backend.util.TtlCache;
+import lombok.extern.slf4j.Slf4j;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 
+import java.time.LocalDate;
 import java.util.*;
 import java.util.stream.Collectors;
 
 @Service
+@Slf4j
 public class AiAnalyticsService {
 
+    // Durée de vie du contexte partagé entre les analyseurs (un tableau de bord = une seule lecture)
+    private static final long TTL_CONTEXTE_MS = 30_000;
+    private static final String CLE_CONTEXTE = "global";
+
     @Autowired
-    private FicheQualiteRepository ficheQualiteRepository;
+    private FicheProjetRepository ficheProjetRepository;
 
     @Autowired
-    private FicheSuiviRepository ficheSuiviRepository;
+    private FicheQualiteRepository ficheQualiteRepository;
 
     @Autowired
-    private FicheProjetRepository ficheProjetRepository;
+    private KpiSnapshotService kpiSnapshotService;
+
+    private final TtlCache<String, ContexteAnalytique> cacheContexte = new TtlCache<>(TTL_CONTEXTE_MS, 1);
+
+    /**
+     * Données partagées par tous les analyseurs : uniquement des compteurs,
+     * chargés une fois (snapshots KPI + 2 comptages de projets + 1 comptage des fiches échues)
+     * au lieu de relire les collections
+     */
+    public static class ContexteAnalytique {
+        private final long totalFiches;
+        private final long fichesTerminees;
+        private final long fichesEnCours;
+        private final long fichesEnRetard;
+        private final long totalSuivis;
+        private final long totalProjets;
+        private final long projetsEnCours;
+        private final Map<String, Long> fichesParType;
+        private final Map<String, Long> fichesTermineesParType;
+
+        public ContexteAnalytique(long totalFiches, long fichesTerminees, long fichesEnCours, long fichesEnRetard,
+                                  long totalSuivis, long totalProjets, long projetsEnCours,
+                                  Map<String, Long> fichesParType, Map<String, Long> fichesTermineesParType) {
+            this.totalFiches = totalFiches;
+            this.fichesTerminees = fichesTerminees;
+            this.fichesEnCours = fichesEnCours;
+            this.fichesEnRetard = fichesEnRetard;
+            this.totalSuivis = totalSuivis;
+            this.totalProjets = totalProjets;
+            this.projetsEnCours = projetsEnCours;
+            this.fichesParType = fichesParType;
+            this.fichesTermineesParType = fichesTermineesParType;
+        }
+
+        // Getters
+        public long getTotalFiches() { return totalFiches; }
+        public long getFichesTerminees() { return fichesTerminees; }
+        public long getFichesEnCours() { return fichesEnCours; }
+        public long getFichesEnRetard() { return fichesEnRetard; }
+        public long getTotalSuivis() { return totalSuivis; }
+        public long getTotalProjets() { return totalProjets; }
+        public long getProjetsEnCours() { return projetsEnCours; }
+        public Map<String, Long> getFichesParType() { return fichesParType; }
+        public Map<String, Long> getFichesTermineesParType() { return fichesTermineesParType; }
+
+        public double getTauxConformite() {
+            return totalFiches > 0 ? (double) fichesTerminees / totalFiches * 100 : 0.0;
+        }
+    }
 
     // Interface pour les prédictions de risques
     public static class PredictionRisque {
@@ -129,18 +182,57 @@ public class AiAnalyticsService {
         public String getDelaiImplementation() { return delaiImplementation; }
     }
 
+    // Récupérer le contexte analytique (mis en cache quelques secondes)
+    public ContexteAnalytique getContexte() {
+        return cacheContexte.get(CLE_CONTEXTE, this::chargerContexte);
+    }
+
+    private ContexteAnalytique chargerContexte() {
+        long debut = System.currentTimeMillis();
+
+        KpiSnapshot fiches = kpiSnapshotService.getSnapshot(KpiSnapshotService.FICHES_QUALITE);
+        Map<String, Long> parStatut = fiches.getDimensions().getOrDefault(KpiSnapshotService.DIM_STATUT, Collections.emptyMap());
+        Map<String, Long> parType = new HashMap<>(fiches.getDimensions().getOrDefault(KpiSnapshotService.DIM_TYPE, Collections.emptyMap()));
+        parType.values().removeIf(v -> v == null || v <= 0);
+
+        // Fiches terminées par type, à partir des clés composées "type|statut"
+        Map<String, Long> termineesParType = new HashMap<>();
+        fiches.getDimensions().getOrDefault(KpiSnapshotService.DIM_TYPE_STATUT, Collections.emptyMap())
+            .forEach((cle, nombre) -> {
+                if (cle.endsWith("|TERMINE") && nombre != null && nombre > 0) {
+                    termineesParType.put(cle.substring(0, cle.length() - "|TERMINE".length()), nombre);
+                }
+            });
+
+        ContexteAnalytique contexte = new ContexteAnalytique(
+            fiches.getTotal(),
+            parStatut.getOrDefault("TERMINE", 0L),
+            parStatut.getOrDefault("EN_COURS", 0L),
+            ficheQualiteRepository.countByDateEcheanceBeforeAndStatutNot(LocalDate.now(), "TERMINE"),
+            kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_SUIVI),
+            ficheProjetRepository.count(),
+            ficheProjetRepository.countByStatut("EN_COURS"),
+            parType,
+            termineesParType
+        );
+        log.debug("Contexte analytique chargé en {} ms", System.currentTimeMillis() - debut);
+        return contexte;
+    }
+
     // Analyser les risques
     public List<PredictionRisque> analyserRisques() {
+        return analyserRisques(getContexte());
+    }
+
+    public List<PredictionRisque> analyserRisques(ContexteAnalytique contexte) {
         List<PredictionRisque> predictions = new ArrayList<>();
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
 
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return predictions;
         }
 
         // Calculer le taux de conformité
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / fichesQualite.size() * 100;
+        double tauxConformite = contexte.getTauxConformite();
 
         // Prédiction basée sur le taux de conformité
         if (tauxConformite < 70) {
@@ -170,8 +262,8 @@ public class AiAnalyticsService {
         }
 
         // Analyser les fiches en retard
-        long fichesEnRetard = fichesQualite.stream().filter(f -> "EN_COURS".equals(f.getStatut())).count();
-        if (fichesEnRetard > fichesQualite.size() * 0.3) {
+        long fichesEnRetard = contexte.getFichesEnCours();
+        if (fichesEnRetard > contexte.getTotalFiches() * 0.3) {
             predictions.add(new PredictionRisque(
                 "ÉLEVÉ",
                 0.75,
@@ -186,7 +278,7 @@ public class AiAnalyticsService {
         }
 
         // Analyser les types de fiches problématiques
-        Map<String, Long> typesProblematiques = analyserTypesProblematiques(fichesQualite);
+        Map<String, Long> typesProblematiques = analyserTypesProblematiques(contexte);
         if (!typesProblematiques.isEmpty()) {
             predictions.add(new PredictionRisque(
                 "MOYEN",
@@ -206,19 +298,19 @@ public class AiAnalyticsService {
 
     // Générer des recommandations IA
     public List<RecommandationIA> genererRecommandations() {
+        return genererRecommandations(getContexte());
+    }
+
+    public List<RecommandationIA> genererRecommandations(ContexteAnalytique contexte) {
         List<RecommandationIA> recommandations = new ArrayList<>();
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        List<FicheProjet> fichesProjet = ficheProjetRepository.findAll();
 
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return recommandations;
         }
 
         // Calculer les métriques
-        long totalFiches = fichesQualite.size();
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / totalFiches * 100;
+        long totalFiches = contexte.getTotalFiches();
+        double tauxConformite = contexte.getTauxConformite();
 
         // Recommandations basées sur le taux de conformité
         if (tauxConformite < 70) {
@@ -239,7 +331,7 @@ public class AiAnalyticsService {
         }
 
         // Recommandations basées sur les fiches de suivi
-        if (fichesSuivi.isEmpty()) {
+        if (contexte.getTotalSuivis() == 0) {
             recommandations.add(new RecommandationIA(
                 "IMPORTANT",
                 "Mise en place du suivi qualité",
@@ -273,9 +365,9 @@ public class AiAnalyticsService {
         }
 
         // Recommandations basées sur les projets
-        if (!fichesProjet.isEmpty()) {
-            long projetsEnCours = fichesProjet.stream().filter(p -> "EN_COURS".equals(p.getStatut())).count();
-            if (projetsEnCours > fichesProjet.size() * 0.5) {
+        if (contexte.getTotalProjets() > 0) {
+            long projetsEnCours = contexte.getProjetsEnCours();
+            if (projetsEnCours > contexte.getTotalProjets() * 0.5) {
                 recommandations.add(new RecommandationIA(
                     "IMPORTANT",
                     "Gestion de la charge de travail",
@@ -299,17 +391,19 @@ public class AiAnalyticsService {
 
     // Analyser les tendances
     public List<AnalyseTendance> analyserTendances() {
+        return analyserTendances(getContexte());
+    }
+
+    public List<AnalyseTendance> analyserTendances(ContexteAnalytique contexte) {
         List<AnalyseTendance> tendances = new ArrayList<>();
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
 
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return tendances;
         }
 
         // Calculer les métriques
-        long totalFiches = fichesQualite.size();
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / totalFiches * 100;
+        long totalFiches = contexte.getTotalFiches();
+        double tauxConformite = contexte.getTauxConformite();
 
         // Tendance du taux de conformité
         if (tauxConformite > 85) {
@@ -354,18 +448,18 @@ public class AiAnalyticsService {
 
     // Optimiser les processus
     public List<OptimisationProcessus> optimiserProcessus() {
+        return optimiserProcessus(getContexte());
+    }
+
+    public List<OptimisationProcessus> optimiserProcessus(ContexteAnalytique contexte) {
         List<OptimisationProcessus> optimisations = new ArrayList<>();
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
 
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return optimisations;
         }
 
         // Calculer l'efficacité
-        long totalFiches = fichesQualite.size();
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double efficaciteActuelle = (double) fichesTerminees / totalFiches * 100;
+        double efficaciteActuelle = contexte.getTauxConformite();
 
         // Optimisation du processus de validation
         optimisations.add(new OptimisationProcessus(
@@ -387,7 +481,7 @@ public class AiAnalyticsService {
         ));
 
         // Optimisation du suivi qualité
-        if (!fichesSuivi.isEmpty()) {
+        if (contexte.getTotalSuivis() > 0) {
             optimisations.add(new OptimisationProcessus(
                 "Suivi qualité",
                 75.0,
@@ -411,22 +505,19 @@ public class AiAnalyticsService {
     }
 
     // Méthodes utilitaires
-    private Map<String, Long> analyserTypesProblematiques(List<FicheQualite> fichesQualite) {
+    private Map<String, Long> analyserTypesProblematiques(ContexteAnalytique contexte) {
         Map<String, Long> typesProblematiques = new HashMap<>();
         
-        // Grouper par type et calculer le taux de réussite
-        Map<String, List<FicheQualite>> fichesParType = fichesQualite.stream()
-            .collect(Collectors.groupingBy(f -> f.getTypeFiche() != null ? f.getTypeFiche() : "Non défini"));
-
-        for (Map.Entry<String, List<FicheQualite>> entry : fichesParType.entrySet()) {
+        // Taux de réussite par type à partir des compteurs type / type|TERMINE
+        for (Map.Entry<String, Long> entry : contexte.getFichesParType().entrySet()) {
             String type = entry.getKey();
-            List<FicheQualite> fiches = entry.getValue();
+            long nbFiches = entry.getValue();
             
-            long fichesTerminees = fiches.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-            double tauxReussite = (double) fichesTerminees / fiches.size() * 100;
+            long fichesTerminees = contexte.getFichesTermineesParType().getOrDefault(type, 0L);
+            double tauxReussite = (double) fichesTerminees / nbFiches * 100;
             
             if (tauxReussite < 60) {
-                typesProblematiques.put(type, (long) fiches.size());
+                typesProblematiques.put(type, nbFiches);
             }
         }
         
@@ -437,42 +528,32 @@ public class AiAnalyticsService {
     public Map<String, Object> genererRapportIA() {
         Map<String, Object> rapport = new HashMap<>();
         
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        List<FicheProjet> fichesProjet = ficheProjetRepository.findAll();
+        ContexteAnalytique contexte = getContexte();
 
         // Résumé
         Map<String, Object> resume = new HashMap<>();
-        resume.put("totalFiches", fichesQualite.size());
-        resume.put("totalSuivis", fichesSuivi.size());
-        resume.put("totalProjets", fichesProjet.size());
-        
-        if (!fichesQualite.isEmpty()) {
-            long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-            double tauxConformite = (double) fichesTerminees / fichesQualite.size() * 100;
-            resume.put("tauxConformite", tauxConformite);
-        } else {
-            resume.put("tauxConformite", 0.0);
-        }
+        resume.put("totalFiches", (int) contexte.getTotalFiches());
+        resume.put("totalSuivis", (int) contexte.getTotalSuivis());
+        resume.put("totalProjets", (int) contexte.getTotalProjets());
+        resume.put("tauxConformite", contexte.getTauxConformite());
         
         rapport.put("resume", resume);
-        rapport.put("alertes", genererAlertes(fichesQualite, fichesSuivi));
-        rapport.put("predictions", genererPredictions(fichesQualite));
-        rapport.put("recommandations", genererRecommandationsRapides(fichesQualite, fichesSuivi));
+        rapport.put("alertes", genererAlertes(contexte));
+        rapport.put("predictions", genererPredictions(contexte));
+        rapport.put("recommandations", genererRecommandationsRapides(contexte));
         rapport.put("dateGeneration", new Date());
         
         return rapport;
     }
 
-    private List<Map<String, Object>> genererAlertes(List<FicheQualite> fichesQualite, List<FicheSuivi> fichesSuivi) {
+    private List<Map<String, Object>> genererAlertes(ContexteAnalytique contexte) {
         List<Map<String, Object>> alertes = new ArrayList<>();
         
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return alertes;
         }
 
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / fichesQualite.size() * 100;
+        double tauxConformite = contexte.getTauxConformite();
         
         if (tauxConformite < 70) {
             Map<String, Object> alerte = new HashMap<>();
@@ -482,8 +563,8 @@ public class AiAnalyticsService {
             alertes.add(alerte);
         }
 
-        long fichesEnRetard = fichesQualite.stream().filter(f -> "EN_COURS".equals(f.getStatut())).count();
-        if (fichesEnRetard > fichesQualite.size() * 0.3) {
+        long fichesEnRetard = contexte.getFichesEnCours();
+        if (fichesEnRetard > contexte.getTotalFiches() * 0.3) {
             Map<String, Object> alerte = new HashMap<>();
             alerte.put("niveau", "ATTENTION");
             alerte.put("message", "Trop de fiches en cours");
@@ -494,15 +575,14 @@ public class AiAnalyticsService {
         return alertes;
     }
 
-    private List<Map<String, Object>> genererPredictions(List<FicheQualite> fichesQualite) {
+    private List<Map<String, Object>> genererPredictions(ContexteAnalytique contexte) {
         List<Map<String, Object>> predictions = new ArrayList<>();
         
-        if (fichesQualite.isEmpty()) {
+        if (contexte.getTotalFiches() == 0) {
             return predictions;
         }
 
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / fichesQualite.size() * 100;
+        double tauxConformite = contexte.getTauxConformite();
         
         if (tauxConformite < 80) {
             Map<String, Object> prediction = new HashMap<>();
@@ -516,10 +596,10 @@ public class AiAnalyticsService {
         return predictions;
     }
 
-    private List<Map<String, Object>> genererRecommandationsRapides(List<FicheQualite> fichesQualite, List<FicheSuivi> fichesSuivi) {
+    private List<Map<String, Object>> genererRecommandationsRapides(ContexteAnalytique contexte) {
         List<Map<String, Object>> recommandations = new ArrayList<>();
         
-        if (fichesSuivi.isEmpty()) {
+        if (contexte.getTotalSuivis() == 0) {
             Map<String, Object> rec = new HashMap<>();
             rec.put("priorite", "HAUTE");
             rec.put("action", "Créer des fiches de suivi");
@@ -527,7 +607,7 @@ public class AiAnalyticsService {
             recommandations.add(rec);
         }
 
-        long fichesEnCours = fichesQualite.stream().filter(f -> "EN_COURS".equals(f.getStatut())).count();
+        long fichesEnCours = contexte.getFichesEnCours();
         if (fichesEnCours > 5) {
             Map<String, Object> rec = new HashMap<>();
             rec.put("priorite", "MOYENNE");
@@ -1,27 +1,45 @@
 package com.pfe.qualite.backend.service;
 
-import com.pfe.qualite.backend.model.FicheQualite;
-import com.pfe.qualite.backend.model.FicheSuivi;
-import com.pfe.qualite.backend.model.FicheProjet;
-import com.pfe.qualite.backend.repository.FicheQualiteRepository;
-import com.pfe.qualite.backend.repository.FicheSuiviRepository;
 import com.pfe.qualite.backend.repository.FicheProjetRepository;
+import com.pfe.qualite.backend.util.TtlCache;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.aggregation.GroupOperation;
+import org.springframework.data.mongodb.core.query.Criteria;
 import org.springframework.stereotype.Service;
 
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.TemporalAdjusters;
+import java.time.temporal.WeekFields;
 import java.util.*;
 
 @Service
 public class AiChartsService {
 
     @Autowired
-    private FicheQualiteRepository ficheQualiteRepository;
+    private FicheProjetRepository ficheProjetRepository;
 
     @Autowired
-    private FicheSuiviRepository ficheSuiviRepository;
+    private KpiSnapshotService kpiSnapshotService;
 
     @Autowired
-    private FicheProjetRepository ficheProjetRepository;
+    private MongoTemplate mongoTemplate;
+
+    // Granularités acceptées par $dateTrunc
+    private static final String GRANULARITE_MOIS = "month";
+    private static final String GRANULARITE_SEMAINE = "week";
+    private static final String GRANULARITE_JOUR = "day";
+    private static final int MAX_INTERVALLES = 366;
+    private static final List<String> MOIS = Arrays.asList("Jan", "Fév", "Mar", "Avr", "Mai", "Juin", "Juil", "Août", "Sep", "Oct", "Nov", "Déc");
+
+    // Séries de tendance par (granularité, période), recalculées au plus une fois par minute
+    private final TtlCache<String, Map<String, Object>> cacheTendances = new TtlCache<>(60_000, 32);
 
     // Générer les données de tendance
     public Map<String, Object> getTrendData(int period) {
@@ -137,27 +155,47 @@ public class AiChartsService {
         return dashboardData;
     }
 
-    // Générer des données de tendance réalistes
+    // Générer des données de tendance réelles (8 derniers mois)
     public Map<String, Object> getRealTrendData() {
-        Map<String, Object> trendData = new HashMap<>();
-        
-        // Utiliser les vraies données de la base
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        
-        if (fichesQualite.isEmpty()) {
-            return getTrendData(8); // Retourner des données mock si pas de données
+        return getRealTrendData(8, GRANULARITE_MOIS);
+    }
+
+    /**
+     * Tendance réelle par intervalle de temps (mois, semaine ou jour)
+     * Le découpage est fait par MongoDB ($dateTrunc) : conformité moyenne des suivis (dateSuivi)
+     * et volume de fiches qualité créées (dateCreation). Résultat déterministe, mis en cache.
+     */
+    public Map<String, Object> getRealTrendData(int period, String granularite) {
+        int nbIntervalles = Math.max(1, Math.min(period, MAX_INTERVALLES));
+        String unite = uniteTemporelle(granularite);
+        return cacheTendances.get(unite + ":" + nbIntervalles, () -> calculerTendance(nbIntervalles, unite));
+    }
+
+    private Map<String, Object> calculerTendance(int nbIntervalles, String unite) {
+        ZoneId zone = ZoneId.systemDefault();
+        List<LocalDate> intervalles = genererIntervalles(LocalDate.now(zone), nbIntervalles, unite);
+        Date debut = Date.from(intervalles.get(0).atStartOfDay(zone).toInstant());
+
+        // Conformité moyenne par intervalle
+        Map<LocalDate, Document> suivis = agregerParIntervalle("fiches_suivi", "dateSuivi",
+            Criteria.where("dateSuivi").gte(debut).and("tauxConformite").ne(null), unite, zone, true);
+        // Fiches qualité créées par intervalle
+        Map<LocalDate, Document> fiches = agregerParIntervalle("fiches_qualite", "dateCreation",
+            Criteria.where("dateCreation").gte(debut), unite, zone, false);
+
+        List<String> labels = new ArrayList<>();
+        List<Double> conformityData = new ArrayList<>();
+        List<Long> volumeData = new ArrayList<>();
+        for (LocalDate intervalle : intervalles) {
+            labels.add(formaterIntervalle(intervalle, unite));
+            Document suivi = suivis.get(intervalle);
+            Object moyenne = suivi != null ? suivi.get("moyenne") : null;
+            // null : aucun suivi évalué sur l'intervalle (trou dans la courbe plutôt qu'un faux 0%)
+            conformityData.add(moyenne instanceof Number ? Math.round(((Number) moyenne).doubleValue() * 10.0) / 10.0 : null);
+            Document fiche = fiches.get(intervalle);
+            volumeData.add(fiche != null ? ((Number) fiche.get("nombre")).longValue() : 0L);
         }
-        
-        // Calculer les vraies métriques
-        long totalFiches = fichesQualite.size();
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / totalFiches * 100;
-        
-        // Générer des données basées sur le taux réel
-        List<String> labels = Arrays.asList("Jan", "Fév", "Mar", "Avr", "Mai", "Juin", "Juil", "Août");
-        List<Double> conformityData = generateRealisticConformityData(tauxConformite);
-        List<Double> targetData = generateTargetData(8);
-        
+
         Map<String, Object> dataset1 = new HashMap<>();
         dataset1.put("label", "Taux de Conformité (%)");
         dataset1.put("data", conformityData);
@@ -165,34 +203,131 @@ public class AiChartsService {
         dataset1.put("backgroundColor", "rgba(255, 99, 132, 0.1)");
         dataset1.put("tension", 0.4);
         dataset1.put("fill", true);
+        dataset1.put("spanGaps", true);
         
         Map<String, Object> dataset2 = new HashMap<>();
         dataset2.put("label", "Objectif (%)");
-        dataset2.put("data", targetData);
+        dataset2.put("data", generateTargetData(nbIntervalles));
         dataset2.put("borderColor", "#36a2eb");
         dataset2.put("backgroundColor", "rgba(54, 162, 235, 0.1)");
         dataset2.put("borderDash", Arrays.asList(5, 5));
         dataset2.put("tension", 0.4);
+
+        Map<String, Object> dataset3 = new HashMap<>();
+        dataset3.put("label", "Fiches qualité créées");
+        dataset3.put("data", volumeData);
+        dataset3.put("borderColor", "#4bc0c0");
+        dataset3.put("backgroundColor", "rgba(75, 192, 192, 0.1)");
+        dataset3.put("tension", 0.4);
         
+        Map<String, Object> trendData = new HashMap<>();
         trendData.put("labels", labels);
-        trendData.put("datasets", Arrays.asList(dataset1, dataset2));
+        trendData.put("datasets", Arrays.asList(dataset1, dataset2, dataset3));
+        trendData.put("granularite", unite);
         
         return trendData;
     }
 
+    /**
+     * Groupe les documents par intervalle ($dateTrunc) : nombre et, si demandé, moyenne de tauxConformite
+     */
+    private Map<LocalDate, Document> agregerParIntervalle(String collection, String champDate, Criteria filtre,
+                                                          String unite, ZoneId zone, boolean avecMoyenne) {
+        DateOperators.DateTrunc troncature = DateOperators.dateOf(champDate)
+            .truncate(unite)
+            .withTimezone(DateOperators.Timezone.valueOf(zone.getId()));
+        if (GRANULARITE_SEMAINE.equals(unite)) {
+            troncature = troncature.startOfWeek(DayOfWeek.MONDAY);
+        }
+
+        GroupOperation groupe = Aggregation.group("intervalle").count().as("nombre");
+        if (avecMoyenne) {
+            groupe = groupe.avg("tauxConformite").as("moyenne");
+        }
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.match(filtre),
+            Aggregation.project("tauxConformite").and(troncature).as("intervalle"),
+            groupe
+        );
+
+        Map<LocalDate, Document> resultats = new HashMap<>();
+        for (Document doc : mongoTemplate.aggregate(aggregation, collection, Document.class)) {
+            Object intervalle = doc.get("_id");
+            if (intervalle instanceof Date) {
+                resultats.put(((Date) intervalle).toInstant().atZone(zone).toLocalDate(), doc);
+            }
+        }
+        return resultats;
+    }
+
+    private String uniteTemporelle(String granularite) {
+        if (granularite == null) return GRANULARITE_MOIS;
+        switch (granularite.toLowerCase()) {
+            case "jour":
+            case GRANULARITE_JOUR:
+                return GRANULARITE_JOUR;
+            case "semaine":
+            case GRANULARITE_SEMAINE:
+                return GRANULARITE_SEMAINE;
+            case "mois":
+            case GRANULARITE_MOIS:
+                return GRANULARITE_MOIS;
+            default:
+                throw new IllegalArgumentException("Granularité inconnue: " + granularite + " (mois, semaine ou jour)");
+        }
+    }
+
+    // Début de chaque intervalle, du plus ancien au courant (mêmes bornes que $dateTrunc)
+    private List<LocalDate> genererIntervalles(LocalDate aujourdHui, int nbIntervalles, String unite) {
+        LocalDate courant;
+        switch (unite) {
+            case GRANULARITE_JOUR:
+                courant = aujourdHui;
+                break;
+            case GRANULARITE_SEMAINE:
+                courant = aujourdHui.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+                break;
+            default:
+                courant = aujourdHui.withDayOfMonth(1);
+        }
+        List<LocalDate> intervalles = new ArrayList<>();
+        for (int i = nbIntervalles - 1; i >= 0; i--) {
+            switch (unite) {
+                case GRANULARITE_JOUR:
+                    intervalles.add(courant.minusDays(i));
+                    break;
+                case GRANULARITE_SEMAINE:
+                    intervalles.add(courant.minusWeeks(i));
+                    break;
+                default:
+                    intervalles.add(courant.minusMonths(i));
+            }
+        }
+        return intervalles;
+    }
+
+    private String formaterIntervalle(LocalDate debut, String unite) {
+        switch (unite) {
+            case GRANULARITE_JOUR:
+                return debut.format(DateTimeFormatter.ofPattern("dd/MM"));
+            case GRANULARITE_SEMAINE:
+                return "S" + debut.get(WeekFields.ISO.weekOfWeekBasedYear());
+            default:
+                return MOIS.get(debut.getMonthValue() - 1);
+        }
+    }
+
     // Générer des prédictions réalistes
     public Map<String, Object> getRealPredictionData() {
         Map<String, Object> predictionData = new HashMap<>();
         
         // Analyser les vraies données pour générer des prédictions
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        
-        if (fichesQualite.isEmpty()) {
+        if (kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE) == 0) {
             return getPredictionData(); // Retourner des données mock si pas de données
         }
         
         // Calculer les risques basés sur les vraies données
-        Map<String, Double> riskLevels = calculateRealRiskLevels(fichesQualite);
+        Map<String, Double> riskLevels = calculateRealRiskLevels();
         
         List<String> labels = new ArrayList<>(riskLevels.keySet());
         List<Double> data = new ArrayList<>(riskLevels.values());
@@ -231,20 +366,6 @@ public class AiChartsService {
         return data;
     }
 
-    private List<Double> generateRealisticConformityData(double currentRate) {
-        List<Double> data = new ArrayList<>();
-        Random random = new Random();
-        
-        // Générer des données basées sur le taux actuel avec une variation réaliste
-        for (int i = 0; i < 8; i++) {
-            double variation = (random.nextDouble() * 20 - 10); // Variation de ±10%
-            double value = currentRate + variation;
-            data.add(Math.max(50.0, Math.min(100.0, value)));
-        }
-        
-        return data;
-    }
-
     private List<Double> generateTargetData(int period) {
         List<Double> data = new ArrayList<>();
         for (int i = 0; i < period; i++) {
@@ -253,28 +374,19 @@ public class AiChartsService {
         return data;
     }
 
-    private Map<String, Double> calculateRealRiskLevels(List<FicheQualite> fichesQualite) {
+    private Map<String, Double> calculateRealRiskLevels() {
         Map<String, Double> riskLevels = new HashMap<>();
         
-        // Analyser les types de fiches
-        Map<String, Long> typesCount = fichesQualite.stream()
-            .collect(java.util.stream.Collectors.groupingBy(
-                f -> f.getTypeFiche() != null ? f.getTypeFiche() : "Non défini",
-                java.util.stream.Collectors.counting()
-            ));
-        
-        // Calculer les risques basés sur les statuts
-        Map<String, Long> statusCount = fichesQualite.stream()
-            .collect(java.util.stream.Collectors.groupingBy(
-                f -> f.getStatut() != null ? f.getStatut() : "Non défini",
-                java.util.stream.Collectors.counting()
-            ));
+        // Répartitions par type et par statut lues dans le snapshot KPI
+        Map<String, Long> typesCount = kpiSnapshotService.getRepartition(KpiSnapshotService.FICHES_QUALITE, KpiSnapshotService.DIM_TYPE);
+        Map<String, Long> statusCount = kpiSnapshotService.getRepartition(KpiSnapshotService.FICHES_QUALITE, KpiSnapshotService.DIM_STATUT);
         
         // Ajouter les types avec le plus de risques
         for (Map.Entry<String, Long> entry : typesCount.entrySet()) {
             if (entry.getValue() > 2) { // Seulement les types avec plus de 2 fiches
                 double risk = Math.min(100.0, entry.getValue() * 15.0); // Risque basé sur le nombre
-                riskLevels.put(entry.getKey(), risk);
+                String label = "NON_DEFINI".equals(entry.getKey()) ? "Non défini" : entry.getKey();
+                riskLevels.put(label, risk);
             }
         }
         
@@ -327,57 +439,54 @@ public class AiChartsService {
 
     // Calculer le score IA basé sur les vraies données
     private double calculateIAScore() {
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
+        long totalFiches = kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE);
+        long totalSuivis = kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_SUIVI);
         
-        if (fichesQualite.isEmpty()) {
+        if (totalFiches == 0) {
             return 75.0; // Score par défaut
         }
         
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
-        double tauxConformite = (double) fichesTerminees / fichesQualite.size() * 100;
+        long fichesTerminees = compterStatut("TERMINE");
+        double tauxConformite = (double) fichesTerminees / totalFiches * 100;
         
         // Score basé sur le taux de conformité et le nombre de fiches de suivi
-        double score = tauxConformite + (fichesSuivi.size() * 2);
+        double score = tauxConformite + (totalSuivis * 2);
         return Math.min(100.0, Math.max(0.0, score));
     }
 
     // Calculer le niveau de confiance
     private double calculateConfidence() {
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        List<FicheProjet> fichesProjet = ficheProjetRepository.findAll();
+        long totalFiches = kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE);
+        long totalSuivis = kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_SUIVI);
+        long totalProjets = ficheProjetRepository.count();
         
         // Confiance basée sur la quantité de données
-        double confidence = (fichesQualite.size() * 10) + (fichesSuivi.size() * 15) + (fichesProjet.size() * 10);
+        double confidence = (totalFiches * 10) + (totalSuivis * 15) + (totalProjets * 10);
         return Math.min(100.0, Math.max(0.0, confidence));
     }
 
     // Calculer le nombre d'alertes
     private int calculateAlerts() {
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        
-        if (fichesQualite.isEmpty()) {
+        if (kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE) == 0) {
             return 1; // Alerte par défaut
         }
         
-        long fichesEnCours = fichesQualite.stream().filter(f -> "EN_COURS".equals(f.getStatut())).count();
-        long fichesBloquees = fichesQualite.stream().filter(f -> "BLOQUE".equals(f.getStatut())).count();
+        long fichesEnCours = compterStatut("EN_COURS");
+        long fichesBloquees = compterStatut("BLOQUE");
         
         return (int) (fichesEnCours + fichesBloquees);
     }
 
     // Calculer le nombre d'optimisations
     private int calculateOptimizations() {
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
+        long totalFiches = kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE);
         
-        if (fichesQualite.isEmpty()) {
+        if (totalFiches == 0) {
             return 2; // Optimisations par défaut
         }
         
         // Basé sur le nombre de fiches et leur statut
-        long totalFiches = fichesQualite.size();
-        long fichesTerminees = fichesQualite.stream().filter(f -> "TERMINE".equals(f.getStatut())).count();
+        long fichesTerminees = compterStatut("TERMINE");
         double tauxConformite = (double) fichesTerminees / totalFiches * 100;
         
         if (tauxConformite < 70) {
@@ -388,4 +497,10 @@ public class AiChartsService {
             return 1;
         }
     }
-} 
\ No newline at end of file
+
+    // Nombre de fiches qualité ayant un statut donné (snapshot KPI)
+    private long compterStatut(String statut) {
+        return kpiSnapshotService.getRepartition(KpiSnapshotService.FICHES_QUALITE, KpiSnapshotService.DIM_STATUT)
+            .getOrDefault(statut, 0L);
+    }
+}
@@ -0,0 +1,423 @@
+package com.pfe.qualite.backend.service;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.pfe.qualite.backend.model.HistoriqueAction;
+import com.pfe.qualite.backend.model.Utilisateur;
+import com.pfe.qualite.backend.repository.UtilisateurRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.types.ObjectId;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Écriture asynchrone de l'historique : file bornée en mémoire vidée par lots (insertMany)
+ * dès que le lot est plein ou que le délai est écoulé.
+ * Les noms d'utilisateurs sont résolus en une requête par lot, sur le thread d'écriture.
+ */
+@Service
+@Slf4j
+public class AuditBatchWriter {
+
+    /**
+     * Comportement quand la file est pleine
+     */
+    public enum PolitiqueDebordement {
+        BLOCK,          // le thread appelant attend (au plus audit.block-timeout-ms)
+        DROP_OLDEST,    // l'événement le plus ancien de la file est abandonné
+        SPILL_TO_DISK   // l'événement est écrit dans un fichier et réinjecté plus tard
+    }
+
+    private static final String SUFFIXE_DEVERSEMENT = ".jsonl";
+    private static final String SUFFIXE_REINJECTION = ".reinjection";
+    private static final String SUFFIXE_POSITION = ".position";
+    private static final int CODE_CLE_DUPLIQUEE = 11000;
+    // Attente de la fin du lot en cours à l'arrêt, avant interruption de l'écrivain
+    private static final long ATTENTE_ARRET_MS = 10_000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private UtilisateurRepository utilisateurRepository;
+
+    @Autowired
+    @Qualifier("auditExecutor")
+    private ThreadPoolTaskExecutor auditExecutor;
+
+    @Value("${audit.queue.capacite:10000}")
+    private int capacite;
+
+    @Value("${audit.batch.taille:500}")
+    private int tailleLot;
+
+    @Value("${audit.batch.delai-ms:1000}")
+    private long delaiLotMs;
+
+    @Value("${audit.overflow:BLOCK}")
+    private PolitiqueDebordement politique;
+
+    @Value("${audit.block-timeout-ms:2000}")
+    private long blocageMaxMs;
+
+    @Value("${audit.spill-dir:audit-spill}")
+    private String repertoireDeversement;
+
+    @Value("${audit.spill.reessai-ms:30000}")
+    private long reessaiReinjectionMs;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private final Object verrouDeversement = new Object();
+
+    private BlockingQueue<HistoriqueAction> file;
+    private Path dossierDeversement;
+    private Future<?> ecrivain;
+    private final CountDownLatch ecrivainTermine = new CountDownLatch(1);
+    private volatile boolean actif;
+
+    // Métriques
+    private final AtomicLong soumis = new AtomicLong();
+    private final AtomicLong inseres = new AtomicLong();
+    private final AtomicLong lots = new AtomicLong();
+    private final AtomicLong abandonnes = new AtomicLong();
+    private final AtomicLong deverses = new AtomicLong();
+    private final AtomicLong reinjectes = new AtomicLong();
+    private final AtomicLong echecsInsertion = new AtomicLong();
+    private volatile Date dernierFlush;
+
+    // Après un échec de réinjection (base indisponible), pas de nouvel essai avant cette date
+    private long prochaineReinjection;
+
+    @PostConstruct
+    public void demarrer() {
+        file = new ArrayBlockingQueue<>(capacite);
+        dossierDeversement = Paths.get(repertoireDeversement).toAbsolutePath().normalize();
+        actif = true;
+        ecrivain = auditExecutor.submit(this::boucleEcriture);
+        log.info("Écriture asynchrone de l'historique démarrée (capacité {}, lot {}, délai {} ms, débordement {})",
+                capacite, tailleLot, delaiLotMs, politique);
+    }
+
+    /**
+     * Arrêt propre : la boucle d'écriture termine son lot en cours puis sort au prochain délai d'attente.
+     * Elle n'est interrompue qu'au-delà de ATTENTE_ARRET_MS (une insertion interrompue perdrait le lot).
+     */
+    @PreDestroy
+    public void arreter() {
+        actif = false;
+        try {
+            if (!ecrivainTermine.await(ATTENTE_ARRET_MS, TimeUnit.MILLISECONDS)) {
+                log.warn("Écriture de l'historique toujours active après {} ms : interruption", ATTENTE_ARRET_MS);
+                ecrivain.cancel(true);
+                ecrivainTermine.await(ATTENTE_ARRET_MS, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        // Vidage final de ce qui reste en file
+        List<HistoriqueAction> restants = new ArrayList<>();
+        file.drainTo(restants);
+        if (!restants.isEmpty()) {
+            ecrireLot(restants);
+        }
+        log.info("Écriture asynchrone de l'historique arrêtée ({} actions insérées)", inseres.get());
+    }
+
+    /**
+     * Place une action dans la file (appelé sur le thread de la requête, ne fait aucune E/S en cas normal)
+     */
+    public void soumettre(HistoriqueAction action) {
+        soumis.incrementAndGet();
+        if (file.offer(action)) return;
+
+        switch (politique) {
+            case BLOCK:
+                try {
+                    if (file.offer(action, blocageMaxMs, TimeUnit.MILLISECONDS)) return;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                abandonnes.incrementAndGet();
+                log.warn("File d'historique pleine : action {} {} abandonnée", action.getAction(), action.getEntite());
+                break;
+            case DROP_OLDEST:
+                while (!file.offer(action)) {
+                    if (file.poll() != null) {
+                        abandonnes.incrementAndGet();
+                    }
+                }
+                break;
+            case SPILL_TO_DISK:
+                deverser(Collections.singletonList(action));
+                break;
+        }
+    }
+
+    /**
+     * Métriques de la file d'écriture
+     */
+    public Map<String, Object> getMetriques() {
+        Map<String, Object> metriques = new LinkedHashMap<>();
+        metriques.put("profondeur", file.size());
+        metriques.put("capacite", capacite);
+        metriques.put("politiqueDebordement", politique.name());
+        metriques.put("soumis", soumis.get());
+        metriques.put("inseres", inseres.get());
+        metriques.put("lots", lots.get());
+        metriques.put("abandonnes", abandonnes.get());
+        metriques.put("deverses", deverses.get());
+        metriques.put("reinjectes", reinjectes.get());
+        metriques.put("echecsInsertion", echecsInsertion.get());
+        metriques.put("dernierFlush", dernierFlush);
+        return metriques;
+    }
+
+    private void boucleEcriture() {
+        try {
+            ecrire();
+        } finally {
+            ecrivainTermine.countDown();
+        }
+    }
+
+    private void ecrire() {
+        List<HistoriqueAction> lot = new ArrayList<>(tailleLot);
+        while (actif) {
+            try {
+                HistoriqueAction premiere = file.poll(delaiLotMs, TimeUnit.MILLISECONDS);
+                if (premiere == null) {
+                    // File vide : moment opportun pour réinjecter les actions déversées sur disque
+                    reinjecterDeversements();
+                    continue;
+                }
+                lot.add(premiere);
+                long echeance = System.currentTimeMillis() + delaiLotMs;
+                while (lot.size() < tailleLot) {
+                    file.drainTo(lot, tailleLot - lot.size());
+                    long reste = echeance - System.currentTimeMillis();
+                    if (lot.size() >= tailleLot || reste <= 0) break;
+                    HistoriqueAction suivante = file.poll(reste, TimeUnit.MILLISECONDS);
+                    if (suivante == null) break;
+                    lot.add(suivante);
+                }
+                ecrireLot(lot);
+            } catch (InterruptedException e) {
+                if (!lot.isEmpty()) ecrireLot(lot);
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception e) {
+                log.error("Erreur inattendue dans l'écriture de l'historique", e);
+            } finally {
+                lot.clear();
+            }
+        }
+    }
+
+    private void ecrireLot(List<HistoriqueAction> lot) {
+        try {
+            attribuerIds(lot);
+            resoudreNomsUtilisateurs(lot);
+            mongoTemplate.insert(new ArrayList<>(lot), HistoriqueAction.class);
+            inseres.addAndGet(lot.size());
+            lots.incrementAndGet();
+            dernierFlush = new Date();
+        } catch (Exception e) {
+            echecsInsertion.incrementAndGet();
+            log.error("Échec de l'insertion d'un lot de {} actions d'historique: {}", lot.size(), e.getMessage());
+            if (politique == PolitiqueDebordement.SPILL_TO_DISK) {
+                deverser(lot);
+            } else {
+                abandonnes.addAndGet(lot.size());
+            }
+        }
+    }
+
+    /**
+     * Identifiants attribués avant l'insertion : une action déjà insérée par un lot partiellement écrit
+     * puis déversée est reconnue (clé dupliquée) à la réinjection au lieu d'être dupliquée
+     */
+    private void attribuerIds(List<HistoriqueAction> lot) {
+        for (HistoriqueAction action : lot) {
+            if (action.getId() == null) {
+                action.setId(new ObjectId().toHexString());
+            }
+        }
+    }
+
+    /**
+     * Résout les noms manquants en une seule requête (findAllById) pour tout le lot
+     */
+    private void resoudreNomsUtilisateurs(List<HistoriqueAction> lot) {
+        Set<String> ids = lot.stream()
+                .filter(a -> a.getUtilisateurNom() == null && a.getUtilisateurId() != null)
+                .map(HistoriqueAction::getUtilisateurId)
+                .collect(Collectors.toSet());
+        Map<String, String> noms = new HashMap<>();
+        if (!ids.isEmpty()) {
+            for (Utilisateur utilisateur : utilisateurRepository.findAllById(ids)) {
+                noms.put(utilisateur.getId(), utilisateur.getNom());
+            }
+        }
+        for (HistoriqueAction action : lot) {
+            if (action.getUtilisateurNom() != null) continue;
+            action.setUtilisateurNom(action.getUtilisateurId() == null
+                    ? "Système"
+                    : noms.getOrDefault(action.getUtilisateurId(), "Utilisateur inconnu"));
+        }
+    }
+
+    // ===== Déversement sur disque (politique SPILL_TO_DISK) =====
+
+    private void deverser(List<HistoriqueAction> actions) {
+        synchronized (verrouDeversement) {
+            try {
+                Files.createDirectories(dossierDeversement);
+                Path fichier = dossierDeversement.resolve("audit-" + System.currentTimeMillis() / 60_000 + SUFFIXE_DEVERSEMENT);
+                attribuerIds(actions);
+                try (BufferedWriter writer = Files.newBufferedWriter(fichier, StandardCharsets.UTF_8,
+                        StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+                    for (HistoriqueAction action : actions) {
+                        writer.write(objectMapper.writeValueAsString(action));
+                        writer.newLine();
+                    }
+                }
+                deverses.addAndGet(actions.size());
+            } catch (IOException e) {
+                abandonnes.addAndGet(actions.size());
+                log.error("Impossible de déverser {} actions d'historique sur disque: {}", actions.size(), e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Réinsère les fichiers déversés, un fichier à la fois (le fichier est supprimé après insertion)
+     * Un fichier en cours est renommé en .reinjection et sa position (lignes déjà insérées) est gardée
+     * dans un fichier .position : après un échec, il est repris au même endroit au tour suivant.
+     */
+    private void reinjecterDeversements() {
+        if (!Files.isDirectory(dossierDeversement) || System.currentTimeMillis() < prochaineReinjection) return;
+        List<Path> fichiers;
+        synchronized (verrouDeversement) {
+            try (Stream<Path> contenu = Files.list(dossierDeversement)) {
+                fichiers = contenu.filter(p -> p.toString().endsWith(SUFFIXE_DEVERSEMENT)
+                                || p.toString().endsWith(SUFFIXE_DEVERSEMENT + SUFFIXE_REINJECTION))
+                        .sorted().collect(Collectors.toList());
+            } catch (IOException e) {
+                log.warn("Lecture du répertoire de déversement impossible: {}", e.getMessage());
+                return;
+            }
+        }
+        for (Path fichier : fichiers) {
+            if (!file.isEmpty()) return; // priorité au flux courant
+            Path enCours = fichier;
+            if (!fichier.toString().endsWith(SUFFIXE_REINJECTION)) {
+                enCours = fichier.resolveSibling(fichier.getFileName() + SUFFIXE_REINJECTION);
+                synchronized (verrouDeversement) {
+                    try {
+                        Files.move(fichier, enCours, StandardCopyOption.ATOMIC_MOVE);
+                    } catch (IOException e) {
+                        continue;
+                    }
+                }
+            }
+            if (!reinjecter(enCours)) {
+                prochaineReinjection = System.currentTimeMillis() + reessaiReinjectionMs;
+                return;
+            }
+        }
+    }
+
+    private boolean reinjecter(Path enCours) {
+        Path position = enCours.resolveSibling(enCours.getFileName() + SUFFIXE_POSITION);
+        long dejaInserees = lirePosition(position);
+        long lues = 0;
+        List<HistoriqueAction> lot = new ArrayList<>(tailleLot);
+        try (BufferedReader reader = Files.newBufferedReader(enCours, StandardCharsets.UTF_8)) {
+            String ligne;
+            while ((ligne = reader.readLine()) != null) {
+                lues++;
+                if (lues <= dejaInserees || ligne.isBlank()) continue;
+                try {
+                    lot.add(objectMapper.readValue(ligne, HistoriqueAction.class));
+                } catch (JsonProcessingException e) {
+                    // Ligne illisible (écriture interrompue) : ignorée pour ne pas bloquer le fichier
+                    abandonnes.incrementAndGet();
+                    log.warn("Ligne {} de {} illisible ignorée", lues, enCours.getFileName());
+                    continue;
+                }
+                if (lot.size() >= tailleLot) {
+                    insererReinjection(lot);
+                    ecrirePosition(position, lues);
+                }
+            }
+            if (!lot.isEmpty()) insererReinjection(lot);
+            Files.delete(enCours);
+            Files.deleteIfExists(position);
+            return true;
+        } catch (Exception e) {
+            // Fichier et position conservés : reprise au prochain essai
+            log.error("Réinjection de {} interrompue (reprise après la ligne {}): {}",
+                    enCours.getFileName(), lirePosition(position), e.getMessage());
+            return false;
+        }
+    }
+
+    private long lirePosition(Path position) {
+        try {
+            return Files.exists(position) ? Long.parseLong(Files.readString(position).trim()) : 0;
+        } catch (IOException | NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private void ecrirePosition(Path position, long lignes) throws IOException {
+        Path temp = position.resolveSibling(position.getFileName() + ".tmp");
+        Files.writeString(temp, Long.toString(lignes));
+        Files.move(temp, position, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Insertion non ordonnée ; les actions déjà présentes (clé dupliquée) sont ignorées
+     */
+    private void insererReinjection(List<HistoriqueAction> lot) {
+        attribuerIds(lot);
+        resoudreNomsUtilisateurs(lot);
+        int inserees;
+        try {
+            inserees = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, HistoriqueAction.class)
+                    .insert(new ArrayList<>(lot))
+                    .execute()
+                    .getInsertedCount();
+        } catch (BulkOperationException e) {
+            boolean seulementDoublons = e.getErrors().stream().allMatch(err -> err.getCode() == CODE_CLE_DUPLIQUEE);
+            if (!seulementDoublons) throw e;
+            inserees = e.getResult().getInsertedCount();
+        }
+        inseres.addAndGet(inserees);
+        reinjectes.addAndGet(inserees);
+        lot.clear();
+    }
+}
@@ -0,0 +1,120 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.MembreCluster;
+import com.pfe.qualite.backend.util.InstanceApplication;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * Appartenance au cluster : chaque réplique publie un battement dans scheduler_membres.
+ * Les membres actifs (battement récent), triés par identifiant, répartissent la charge des tâches :
+ * la réplique de rang i sur n commence par les compartiments c tels que c % n == i.
+ */
+@Service
+@Slf4j
+public class ClusterMembershipService {
+
+    /**
+     * Compartiments fixes : dernier caractère hexadécimal d'un ObjectId
+     */
+    public static final String CARACTERES_PARTITION = "0123456789abcdef";
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${cluster.membre-expiration-ms:30000}")
+    private long expirationMs;
+
+    private final String instance = InstanceApplication.ID;
+    private final Date dateDemarrage = new Date();
+
+    /**
+     * Position de cette réplique parmi les membres actifs
+     */
+    public record Partition(int index, int total) {
+    }
+
+    @Scheduled(fixedRateString = "${cluster.heartbeat-ms:10000}")
+    public void battement() {
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(instance)),
+                new Update()
+                        .set("dernierBattement", new Date())
+                        .setOnInsert("hote", hote())
+                        .setOnInsert("dateDemarrage", dateDemarrage),
+                MembreCluster.class);
+    }
+
+    @PreDestroy
+    public void quitter() {
+        try {
+            mongoTemplate.remove(Query.query(Criteria.where("_id").is(instance)), MembreCluster.class);
+        } catch (Exception e) {
+            log.warn("Impossible de retirer l'instance {} du cluster: {}", instance, e.getMessage());
+        }
+    }
+
+    public List<MembreCluster> getMembresActifs() {
+        return mongoTemplate.find(Query.query(Criteria.where("dernierBattement")
+                        .gte(new Date(System.currentTimeMillis() - expirationMs)))
+                        .with(Sort.by("_id")),
+                MembreCluster.class);
+    }
+
+    /**
+     * Partition de cette réplique (le battement est publié d'abord pour se compter parmi les actifs)
+     */
+    public Partition getPartition() {
+        battement();
+        List<String> membres = getMembresActifs().stream().map(MembreCluster::getId).collect(Collectors.toList());
+        int index = membres.indexOf(instance);
+        return index < 0 ? new Partition(0, 1) : new Partition(index, membres.size());
+    }
+
+    /**
+     * Ordre dans lequel la réplique tente les 16 compartiments : d'abord les siens (c % n == i),
+     * puis les autres, pour reprendre ceux d'un membre absent ou pas encore passé
+     */
+    public static List<Integer> ordreCompartiments(Partition partition) {
+        List<Integer> siens = new ArrayList<>();
+        List<Integer> autres = new ArrayList<>();
+        for (int c = 0; c < CARACTERES_PARTITION.length(); c++) {
+            (c % partition.total() == partition.index() ? siens : autres).add(c);
+        }
+        siens.addAll(autres);
+        return siens;
+    }
+
+    /**
+     * Critère limitant un champ contenant un ObjectId (hexadécimal) à un compartiment (dernier caractère).
+     * Les documents sans valeur (ou dont la valeur ne finit pas par un caractère hexadécimal) reviennent au compartiment 0.
+     */
+    public static Criteria filtreCompartiment(String champ, int compartiment) {
+        Criteria suffixe = Criteria.where(champ).regex(CARACTERES_PARTITION.charAt(compartiment) + "$", "i");
+        return compartiment == 0
+                ? new Criteria().orOperator(suffixe, Criteria.where(champ).not().regex("[0-9a-f]$", "i"))
+                : suffixe;
+    }
+
+    private static String hote() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            return "inconnu";
+        }
+    }
+}
@@ -1,14 +1,11 @@
 package com.pfe.qualite.backend.service;
 
+import com.pfe.qualite.backend.model.MessageMail;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.mail.javamail.JavaMailSender;
-import org.springframework.mail.javamail.MimeMessageHelper;
 import org.springframework.stereotype.Service;
-import org.springframework.core.io.ByteArrayResource;
 
-import jakarta.mail.MessagingException;
-import jakarta.mail.internet.MimeMessage;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * Service d'envoi d'emails avec templates HTML
@@ -18,116 +15,90 @@ import jakarta.mail.internet.MimeMessage;
 @Slf4j
 public class EmailService {
 
-    private final JavaMailSender mailSender;
+    private final MailDispatcher mailDispatcher;
 
     /**
      * Envoie un email simple (alias pour compatibilité)
      */
-    public void envoyerEmail(String to, String subject, String text) {
-        sendSimpleEmail(to, subject, text);
+    public CompletableFuture<Void> envoyerEmail(String to, String subject, String text) {
+        return sendSimpleEmail(to, subject, text);
     }
 
     /**
-     * Envoie un email simple
+     * Envoie un email simple (placé dans la file d'envoi)
      */
-    public void sendSimpleEmail(String to, String subject, String text) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            helper.setTo(to);
-            helper.setSubject(subject);
-            helper.setText(text, false);
-            helper.setFrom("noreply@qualite-app.com");
-            
-            mailSender.send(message);
-            log.info("Email simple envoyé à: {}", to);
-        } catch (MessagingException e) {
-            log.error("Erreur lors de l'envoi de l'email à {}: {}", to, e.getMessage());
-            throw new RuntimeException("Erreur d'envoi d'email", e);
-        }
+    public CompletableFuture<Void> sendSimpleEmail(String to, String subject, String text) {
+        log.info("Email simple mis en file pour: {}", to);
+        return mailDispatcher.envoyer(MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(text)
+                .build());
     }
 
     /**
-     * Envoie un email HTML
+     * Envoie un email HTML (placé dans la file d'envoi)
      */
-    public void sendHtmlEmail(String to, String subject, String htmlContent) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            helper.setTo(to);
-            helper.setSubject(subject);
-            helper.setText(htmlContent, true);
-            helper.setFrom("noreply@qualite-app.com");
-            
-            mailSender.send(message);
-            log.info("Email HTML envoyé à: {}", to);
-        } catch (MessagingException e) {
-            log.error("Erreur lors de l'envoi de l'email HTML à {}: {}", to, e.getMessage());
-            throw new RuntimeException("Erreur d'envoi d'email HTML", e);
-        }
+    public CompletableFuture<Void> sendHtmlEmail(String to, String subject, String htmlContent) {
+        log.info("Email HTML mis en file pour: {}", to);
+        return mailDispatcher.envoyer(MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(htmlContent)
+                .html(true)
+                .build());
     }
 
     /**
-     * Envoie un email avec pièce jointe
+     * Envoie un email avec pièce jointe (placé dans la file d'envoi)
      */
-    public void sendEmailWithAttachment(String to, String subject, String htmlContent, 
+    public CompletableFuture<Void> sendEmailWithAttachment(String to, String subject, String htmlContent, 
                                        byte[] attachment, String attachmentName) {
-        try {
-            MimeMessage message = mailSender.createMimeMessage();
-            MimeMessageHelper helper = new MimeMessageHelper(message, true, "UTF-8");
-            
-            helper.setTo(to);
-            helper.setSubject(subject);
-            helper.setText(htmlContent, true);
-            helper.setFrom("noreply@qualite-app.com");
-            
-            // Ajouter la pièce jointe
-            helper.addAttachment(attachmentName, new ByteArrayResource(attachment));
-            
-            mailSender.send(message);
-            log.info("Email avec pièce jointe envoyé à: {}", to);
-        } catch (MessagingException e) {
-            log.error("Erreur lors de l'envoi de l'email avec pièce jointe à {}: {}", to, e.getMessage());
-            throw new RuntimeException("Erreur d'envoi d'email avec pièce jointe", e);
-        }
+        log.info("Email avec pièce jointe mis en file pour: {}", to);
+        return mailDispatcher.envoyer(MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(htmlContent)
+                .html(true)
+                .pieceJointe(attachment)
+                .nomPieceJointe(attachmentName)
+                .build());
     }
 
     /**
      * Envoie une notification de nouvelle fiche qualité
      */
-    public void sendNewFicheQualiteNotification(String to, String userName, String ficheTitle, String ficheId) {
+    public CompletableFuture<Void> sendNewFicheQualiteNotification(String to, String userName, String ficheTitle, String ficheId) {
         String subject = "Nouvelle Fiche Qualité Assignée";
         String htmlContent = buildNewFicheQualiteTemplate(userName, ficheTitle, ficheId);
-        sendHtmlEmail(to, subject, htmlContent);
+        return sendHtmlEmail(to, subject, htmlContent);
     }
 
     /**
      * Envoie une relance pour une fiche en retard
      */
-    public void sendFicheRelanceNotification(String to, String userName, String ficheTitle, String ficheId, int joursRetard) {
+    public CompletableFuture<Void> sendFicheRelanceNotification(String to, String userName, String ficheTitle, String ficheId, int joursRetard) {
         String subject = "⚠️ Relance: Fiche Qualité en Retard";
         String htmlContent = buildRelanceTemplate(userName, ficheTitle, ficheId, joursRetard);
-        sendHtmlEmail(to, subject, htmlContent);
+        return sendHtmlEmail(to, subject, htmlContent);
     }
 
     /**
      * Envoie un rapport KPI par email
      */
-    public void sendRapportKpi(String to, String userName, byte[] rapportPdf) {
+    public CompletableFuture<Void> sendRapportKpi(String to, String userName, byte[] rapportPdf) {
         String subject = "📊 Rapport KPI Qualité";
         String htmlContent = buildRapportKpiTemplate(userName);
-        sendEmailWithAttachment(to, subject, htmlContent, rapportPdf, "rapport-kpi.pdf");
+        return sendEmailWithAttachment(to, subject, htmlContent, rapportPdf, "rapport-kpi.pdf");
     }
 
     /**
      * Envoie une notification de validation de fiche
      */
-    public void sendFicheValidationNotification(String to, String userName, String ficheTitle, boolean isApproved) {
+    public CompletableFuture<Void> sendFicheValidationNotification(String to, String userName, String ficheTitle, boolean isApproved) {
         String subject = isApproved ? "✅ Fiche Qualité Validée" : "❌ Fiche Qualité Rejetée";
         String htmlContent = buildValidationTemplate(userName, ficheTitle, isApproved);
-        sendHtmlEmail(to, subject, htmlContent);
+        return sendHtmlEmail(to, subject, htmlContent);
     }
 
     // ==================== TEMPLATES HTML ====================
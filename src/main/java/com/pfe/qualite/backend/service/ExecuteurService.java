@@ -0,0 +1,37 @@
+package com.pfe.qualite.backend.service;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Métriques des exécuteurs nommés (threads actifs, file d'attente, tâches terminées)
+ */
+@Service
+@RequiredArgsConstructor
+public class ExecuteurService {
+
+    // Tous les ThreadPoolTaskExecutor du contexte, par nom de bean
+    private final Map<String, ThreadPoolTaskExecutor> executeurs;
+
+    public Map<String, Map<String, Object>> getMetriques() {
+        Map<String, Map<String, Object>> metriques = new TreeMap<>();
+        executeurs.forEach((nom, executeur) -> {
+            ThreadPoolExecutor pool = executeur.getThreadPoolExecutor();
+            Map<String, Object> m = new LinkedHashMap<>();
+            m.put("threadsActifs", pool.getActiveCount());
+            m.put("threads", pool.getPoolSize());
+            m.put("threadsMax", pool.getMaximumPoolSize());
+            m.put("profondeurFile", pool.getQueue().size());
+            m.put("capaciteRestanteFile", pool.getQueue().remainingCapacity());
+            m.put("tachesTerminees", pool.getCompletedTaskCount());
+            metriques.put(nom, m);
+        });
+        return metriques;
+    }
+}
@@ -2,75 +2,162 @@ package com.pfe.qualite.backend.service;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.apache.poi.ss.SpreadsheetVersion;
 import org.apache.poi.ss.usermodel.*;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 
+import jakarta.annotation.PostConstruct;
+
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Service d'export de données en Excel et PDF
+ * La génération (POI) est gourmande en CPU : le nombre de générations simultanées est borné
+ * quel que soit le thread appelant (thread Tomcat, thread virtuel ou exécuteur d'export).
  */
 @Service
 @RequiredArgsConstructor
 @Slf4j
 public class ExportService {
 
+    // Nombre de lignes gardées en mémoire par feuille (les autres sont écrites sur disque)
+    private static final int FENETRE_LIGNES = 500;
+    // Nombre de lignes échantillonnées pour estimer la largeur des colonnes
+    private static final int ECHANTILLON_LARGEUR = 200;
+    private static final int LARGEUR_MIN_CARACTERES = 8;
+    private static final int LARGEUR_MAX_CARACTERES = 60;
+    // Dernier index de ligne d'une feuille .xlsx (1 048 576 lignes) : au-delà, l'export continue sur une nouvelle feuille
+    private static final int DERNIERE_LIGNE = SpreadsheetVersion.EXCEL2007.getLastRowIndex();
+    private static final int LONGUEUR_MAX_NOM_FEUILLE = 31;
+
+    // 0 : un export simultané par cœur
+    @Value("${exports.generation.concurrence:0}")
+    private int concurrence;
+
+    @Value("${exports.generation.attente-ms:30000}")
+    private long attenteMs;
+
+    private Semaphore generations;
+
+    @PostConstruct
+    public void initialiser() {
+        int permis = concurrence > 0 ? concurrence : Runtime.getRuntime().availableProcessors();
+        generations = new Semaphore(permis, true);
+        log.info("Exports : {} générations simultanées au maximum", permis);
+    }
+
     /**
      * Exporte des données en format Excel
      */
     public byte[] exportToExcel(String sheetName, List<String> headers, List<List<Object>> data) throws IOException {
         log.info("Export Excel - Sheet: {}, Lignes: {}", sheetName, data.size());
         
-        try (Workbook workbook = new XSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
-            Sheet sheet = workbook.createSheet(sheetName);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportToExcel(sheetName, headers, data.iterator(), out);
+        log.info("Export Excel réussi - Taille: {} bytes", out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Exporte des données en Excel en flux (SXSSF) vers le flux de sortie (via un fichier temporaire)
+     * Seule une fenêtre de lignes reste en mémoire : la consommation ne dépend pas du nombre de lignes.
+     * Une feuille pleine (1 048 576 lignes) est suivie d'une feuille « nom (2) », « nom (3) »... avec le même en-tête.
+     */
+    public void exportToExcel(String sheetName, List<String> headers, Iterator<List<Object>> lignes, OutputStream out) throws IOException {
+        Path fichier;
+        acquerirGeneration();
+        try {
+            SXSSFWorkbook workbook = new SXSSFWorkbook(FENETRE_LIGNES);
+            try {
+                workbook.setCompressTempFiles(true);
+                // Style pour l'en-tête
+                CellStyle headerStyle = createHeaderStyle(workbook);
             
-            // Style pour l'en-tête
-            CellStyle headerStyle = createHeaderStyle(workbook);
+                // Style pour les données
+                CellStyle dataStyle = createDataStyle(workbook);
             
-            // Style pour les données
-            CellStyle dataStyle = createDataStyle(workbook);
+                LargeursColonnes largeurs = new LargeursColonnes(headers.size());
+                for (int i = 0; i < headers.size(); i++) {
+                    largeurs.mesurer(i, headers.get(i));
+                }
             
-            // Créer la ligne d'en-tête
-            Row headerRow = sheet.createRow(0);
-            for (int i = 0; i < headers.size(); i++) {
-                Cell cell = headerRow.createCell(i);
-                cell.setCellValue(headers.get(i));
-                cell.setCellStyle(headerStyle);
-            }
+                int feuilles = 1;
+                Sheet sheet = creerFeuilleDonnees(workbook, sheetName, headers, headerStyle);
             
-            // Créer les lignes de données
-            int rowNum = 1;
-            for (List<Object> rowData : data) {
-                Row row = sheet.createRow(rowNum++);
-                for (int i = 0; i < rowData.size(); i++) {
-                    Cell cell = row.createCell(i);
-                    Object value = rowData.get(i);
-                    
-                    if (value instanceof Number) {
-                        cell.setCellValue(((Number) value).doubleValue());
-                    } else if (value instanceof Boolean) {
-                        cell.setCellValue((Boolean) value);
-                    } else {
-                        cell.setCellValue(value != null ? value.toString() : "");
+                // Créer les lignes de données
+                int rowNum = 1;
+                long total = 0;
+                while (lignes.hasNext()) {
+                    List<Object> rowData = lignes.next();
+                    if (rowNum > DERNIERE_LIGNE) {
+                        largeurs.appliquer(sheet);
+                        feuilles++;
+                        sheet = creerFeuilleDonnees(workbook, nomFeuilleSuite(sheetName, feuilles), headers, headerStyle);
+                        rowNum = 1;
                     }
+                    total++;
+                    Row row = sheet.createRow(rowNum++);
+                    for (int i = 0; i < rowData.size(); i++) {
+                        Cell cell = row.createCell(i);
+                        Object value = rowData.get(i);
+                    
+                        if (value instanceof Number) {
+                            cell.setCellValue(((Number) value).doubleValue());
+                        } else if (value instanceof Boolean) {
+                            cell.setCellValue((Boolean) value);
+                        } else {
+                            cell.setCellValue(value != null ? value.toString() : "");
+                        }
                     
-                    cell.setCellStyle(dataStyle);
+                        cell.setCellStyle(dataStyle);
+                        if (total < ECHANTILLON_LARGEUR) {
+                            largeurs.mesurer(i, value);
+                        }
+                    }
                 }
-            }
             
-            // Auto-dimensionner les colonnes
-            for (int i = 0; i < headers.size(); i++) {
-                sheet.autoSizeColumn(i);
-            }
+                // Largeurs estimées sur l'échantillon (autoSizeColumn exigerait toutes les lignes en mémoire)
+                largeurs.appliquer(sheet);
             
-            workbook.write(out);
-            log.info("Export Excel réussi - Taille: {} bytes", out.size());
-            return out.toByteArray();
+                fichier = ecrireTemporaire(workbook);
+                log.info("Export Excel en flux réussi - Sheet: {}, Lignes: {}, Feuilles: {}", sheetName, total, feuilles);
+            } finally {
+                fermer(workbook);
+            }
+        } finally {
+            generations.release();
         }
+        envoyer(fichier, out);
+    }
+
+    private Sheet creerFeuilleDonnees(SXSSFWorkbook workbook, String nom, List<String> headers, CellStyle headerStyle) {
+        Sheet sheet = workbook.createSheet(nom);
+        Row headerRow = sheet.createRow(0);
+        for (int i = 0; i < headers.size(); i++) {
+            createCell(headerRow, i, headers.get(i), headerStyle);
+        }
+        return sheet;
+    }
+
+    /**
+     * Nom de la n-ième feuille, tronqué pour rester dans la limite Excel de 31 caractères
+     */
+    private String nomFeuilleSuite(String nom, int numero) {
+        String suffixe = " (" + numero + ")";
+        int longueurMax = LONGUEUR_MAX_NOM_FEUILLE - suffixe.length();
+        return (nom.length() > longueurMax ? nom.substring(0, longueurMax) : nom) + suffixe;
     }
 
     /**
@@ -79,33 +166,99 @@ public class ExportService {
     public byte[] exportRapportKpiToExcel(Map<String, Object> rapportData) throws IOException {
         log.info("Export Rapport KPI vers Excel");
         
-        try (Workbook workbook = new XSSFWorkbook(); ByteArrayOutputStream out = new ByteArrayOutputStream()) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        exportRapportKpiToExcel(rapportData, out);
+        log.info("Export Rapport KPI Excel réussi - Taille: {} bytes", out.size());
+        return out.toByteArray();
+    }
+
+    /**
+     * Exporte un rapport KPI en Excel vers le flux de sortie (via un fichier temporaire)
+     */
+    public void exportRapportKpiToExcel(Map<String, Object> rapportData, OutputStream out) throws IOException {
+        Path fichier;
+        acquerirGeneration();
+        try {
+            SXSSFWorkbook workbook = new SXSSFWorkbook(FENETRE_LIGNES);
+            try {
+                workbook.setCompressTempFiles(true);
+                CellStyle headerStyle = createHeaderStyle(workbook);
+                CellStyle dataStyle = createDataStyle(workbook);
             
-            // Feuille 1: Statistiques Générales
-            createStatistiquesGeneralesSheet(workbook, rapportData);
+                // Feuille 1: Statistiques Générales
+                createStatistiquesGeneralesSheet(workbook, rapportData, headerStyle, dataStyle);
             
-            // Feuille 2: Statistiques par Statut
-            createStatistiquesParStatutSheet(workbook, rapportData);
+                // Feuille 2: Statistiques par Statut
+                createStatistiquesParStatutSheet(workbook, rapportData, headerStyle, dataStyle);
             
-            // Feuille 3: Évolution Temporelle
-            createEvolutionTemporelleSheet(workbook, rapportData);
+                // Feuille 3: Évolution Temporelle
+                createEvolutionTemporelleSheet(workbook, rapportData, headerStyle, dataStyle);
             
-            // Feuille 4: Métriques de Performance
-            createMetriquesPerformanceSheet(workbook, rapportData);
+                // Feuille 4: Métriques de Performance
+                createMetriquesPerformanceSheet(workbook, rapportData, headerStyle, dataStyle);
             
-            workbook.write(out);
-            log.info("Export Rapport KPI Excel réussi - Taille: {} bytes", out.size());
-            return out.toByteArray();
+                fichier = ecrireTemporaire(workbook);
+            } finally {
+                fermer(workbook);
+            }
+        } finally {
+            generations.release();
+        }
+        envoyer(fichier, out);
+    }
+
+    /**
+     * Écrit le classeur dans un fichier temporaire : la place de génération est rendue avant l'envoi,
+     * pour qu'un client lent ne la garde pas pendant son téléchargement
+     */
+    private Path ecrireTemporaire(SXSSFWorkbook workbook) throws IOException {
+        Path fichier = Files.createTempFile("export-", ".xlsx");
+        try (OutputStream sortie = Files.newOutputStream(fichier)) {
+            workbook.write(sortie);
+            return fichier;
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(fichier);
+            throw e;
+        }
+    }
+
+    private void envoyer(Path fichier, OutputStream out) throws IOException {
+        try {
+            Files.copy(fichier, out);
+        } finally {
+            Files.deleteIfExists(fichier);
+        }
+    }
+
+    private void fermer(SXSSFWorkbook workbook) throws IOException {
+        try {
+            workbook.close();
+        } finally {
+            workbook.dispose();
+        }
+    }
+
+    /**
+     * Attend une place de génération ; au-delà du délai, l'export est refusé plutôt que d'empiler les requêtes
+     */
+    private void acquerirGeneration() {
+        try {
+            if (!generations.tryAcquire(attenteMs, TimeUnit.MILLISECONDS)) {
+                throw new RejectedExecutionException("Trop d'exports en cours, réessayez plus tard");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RejectedExecutionException("Export interrompu");
         }
     }
 
     /**
      * Crée la feuille des statistiques générales
      */
-    private void createStatistiquesGeneralesSheet(Workbook workbook, Map<String, Object> rapportData) {
+    private void createStatistiquesGeneralesSheet(Workbook workbook, Map<String, Object> rapportData,
+                                  CellStyle headerStyle, CellStyle dataStyle) {
         Sheet sheet = workbook.createSheet("Statistiques Générales");
-        CellStyle headerStyle = createHeaderStyle(workbook);
-        CellStyle dataStyle = createDataStyle(workbook);
+        LargeursColonnes largeurs = new LargeursColonnes(2);
         
         @SuppressWarnings("unchecked")
         Map<String, Object> stats = (Map<String, Object>) rapportData.get("statistiquesGenerales");
@@ -115,28 +268,27 @@ public class ExportService {
             
             // En-tête
             Row headerRow = sheet.createRow(rowNum++);
-            createCell(headerRow, 0, "Métrique", headerStyle);
-            createCell(headerRow, 1, "Valeur", headerStyle);
+            createCell(headerRow, 0, largeurs, "Métrique", headerStyle);
+            createCell(headerRow, 1, largeurs, "Valeur", headerStyle);
             
             // Données
             for (Map.Entry<String, Object> entry : stats.entrySet()) {
                 Row row = sheet.createRow(rowNum++);
-                createCell(row, 0, formatKey(entry.getKey()), dataStyle);
-                createCell(row, 1, entry.getValue().toString(), dataStyle);
+                createCell(row, 0, largeurs, formatKey(entry.getKey()), dataStyle);
+                createCell(row, 1, largeurs, entry.getValue().toString(), dataStyle);
             }
             
-            sheet.autoSizeColumn(0);
-            sheet.autoSizeColumn(1);
+            largeurs.appliquer(sheet);
         }
     }
 
     /**
      * Crée la feuille des statistiques par statut
      */
-    private void createStatistiquesParStatutSheet(Workbook workbook, Map<String, Object> rapportData) {
+    private void createStatistiquesParStatutSheet(Workbook workbook, Map<String, Object> rapportData,
+                                  CellStyle headerStyle, CellStyle dataStyle) {
         Sheet sheet = workbook.createSheet("Statistiques par Statut");
-        CellStyle headerStyle = createHeaderStyle(workbook);
-        CellStyle dataStyle = createDataStyle(workbook);
+        LargeursColonnes largeurs = new LargeursColonnes(2);
         
         @SuppressWarnings("unchecked")
         Map<String, Object> stats = (Map<String, Object>) rapportData.get("statistiquesParStatut");
@@ -146,8 +298,8 @@ public class ExportService {
             
             // En-tête
             Row headerRow = sheet.createRow(rowNum++);
-            createCell(headerRow, 0, "Statut", headerStyle);
-            createCell(headerRow, 1, "Nombre", headerStyle);
+            createCell(headerRow, 0, largeurs, "Statut", headerStyle);
+            createCell(headerRow, 1, largeurs, "Nombre", headerStyle);
             
             // Statuts Qualité
             @SuppressWarnings("unchecked")
@@ -155,23 +307,22 @@ public class ExportService {
             if (statutsQualite != null) {
                 for (Map.Entry<String, Long> entry : statutsQualite.entrySet()) {
                     Row row = sheet.createRow(rowNum++);
-                    createCell(row, 0, entry.getKey(), dataStyle);
-                    createCell(row, 1, entry.getValue().toString(), dataStyle);
+                    createCell(row, 0, largeurs, entry.getKey(), dataStyle);
+                    createCell(row, 1, largeurs, entry.getValue().toString(), dataStyle);
                 }
             }
             
-            sheet.autoSizeColumn(0);
-            sheet.autoSizeColumn(1);
+            largeurs.appliquer(sheet);
         }
     }
 
     /**
      * Crée la feuille de l'évolution temporelle
      */
-    private void createEvolutionTemporelleSheet(Workbook workbook, Map<String, Object> rapportData) {
+    private void createEvolutionTemporelleSheet(Workbook workbook, Map<String, Object> rapportData,
+                                  CellStyle headerStyle, CellStyle dataStyle) {
         Sheet sheet = workbook.createSheet("Évolution Temporelle");
-        CellStyle headerStyle = createHeaderStyle(workbook);
-        CellStyle dataStyle = createDataStyle(workbook);
+        LargeursColonnes largeurs = new LargeursColonnes(2);
         
         @SuppressWarnings("unchecked")
         Map<String, Object> evolution = (Map<String, Object>) rapportData.get("evolutionTemporelle");
@@ -181,31 +332,30 @@ public class ExportService {
             
             // En-tête
             Row headerRow = sheet.createRow(rowNum++);
-            createCell(headerRow, 0, "Période", headerStyle);
-            createCell(headerRow, 1, "Nombre de Fiches", headerStyle);
+            createCell(headerRow, 0, largeurs, "Période", headerStyle);
+            createCell(headerRow, 1, largeurs, "Nombre de Fiches", headerStyle);
             
             @SuppressWarnings("unchecked")
             Map<String, Long> fichesParMois = (Map<String, Long>) evolution.get("fichesParMois");
             if (fichesParMois != null) {
                 for (Map.Entry<String, Long> entry : fichesParMois.entrySet()) {
                     Row row = sheet.createRow(rowNum++);
-                    createCell(row, 0, entry.getKey(), dataStyle);
-                    createCell(row, 1, entry.getValue().toString(), dataStyle);
+                    createCell(row, 0, largeurs, entry.getKey(), dataStyle);
+                    createCell(row, 1, largeurs, entry.getValue().toString(), dataStyle);
                 }
             }
             
-            sheet.autoSizeColumn(0);
-            sheet.autoSizeColumn(1);
+            largeurs.appliquer(sheet);
         }
     }
 
     /**
      * Crée la feuille des métriques de performance
      */
-    private void createMetriquesPerformanceSheet(Workbook workbook, Map<String, Object> rapportData) {
+    private void createMetriquesPerformanceSheet(Workbook workbook, Map<String, Object> rapportData,
+                                  CellStyle headerStyle, CellStyle dataStyle) {
         Sheet sheet = workbook.createSheet("Métriques Performance");
-        CellStyle headerStyle = createHeaderStyle(workbook);
-        CellStyle dataStyle = createDataStyle(workbook);
+        LargeursColonnes largeurs = new LargeursColonnes(2);
         
         @SuppressWarnings("unchecked")
         Map<String, Object> metriques = (Map<String, Object>) rapportData.get("metriquesPerformance");
@@ -215,23 +365,22 @@ public class ExportService {
             
             // En-tête
             Row headerRow = sheet.createRow(rowNum++);
-            createCell(headerRow, 0, "Métrique", headerStyle);
-            createCell(headerRow, 1, "Valeur", headerStyle);
+            createCell(headerRow, 0, largeurs, "Métrique", headerStyle);
+            createCell(headerRow, 1, largeurs, "Valeur", headerStyle);
             
             // Données
             for (Map.Entry<String, Object> entry : metriques.entrySet()) {
                 Row row = sheet.createRow(rowNum++);
-                createCell(row, 0, formatKey(entry.getKey()), dataStyle);
+                createCell(row, 0, largeurs, formatKey(entry.getKey()), dataStyle);
                 
                 Object value = entry.getValue();
                 String valueStr = value instanceof Number 
                     ? String.format("%.2f", ((Number) value).doubleValue()) 
                     : value.toString();
-                createCell(row, 1, valueStr, dataStyle);
+                createCell(row, 1, largeurs, valueStr, dataStyle);
             }
             
-            sheet.autoSizeColumn(0);
-            sheet.autoSizeColumn(1);
+            largeurs.appliquer(sheet);
         }
     }
 
@@ -275,6 +424,14 @@ public class ExportService {
         cell.setCellStyle(style);
     }
 
+    /**
+     * Crée une cellule et mesure sa largeur
+     */
+    private void createCell(Row row, int column, LargeursColonnes largeurs, String value, CellStyle style) {
+        createCell(row, column, value, style);
+        largeurs.mesurer(column, value);
+    }
+
     /**
      * Formate une clé en texte lisible
      */
@@ -283,4 +440,27 @@ public class ExportService {
                   .replaceAll("^.", String.valueOf(Character.toUpperCase(key.charAt(0))))
                   .trim();
     }
+
+    /**
+     * Estimation de la largeur des colonnes à partir des valeurs mesurées
+     */
+    private static class LargeursColonnes {
+        private final int[] caracteres;
+
+        LargeursColonnes(int nbColonnes) {
+            this.caracteres = new int[nbColonnes];
+        }
+
+        void mesurer(int colonne, Object valeur) {
+            if (colonne >= caracteres.length || valeur == null) return;
+            caracteres[colonne] = Math.max(caracteres[colonne], valeur.toString().length());
+        }
+
+        void appliquer(Sheet sheet) {
+            for (int i = 0; i < caracteres.length; i++) {
+                int largeur = Math.max(LARGEUR_MIN_CARACTERES, Math.min(LARGEUR_MAX_CARACTERES, caracteres[i] + 2));
+                sheet.setColumnWidth(i, largeur * 256);
+            }
+        }
+    }
 }
@@ -1,6 +1,8 @@
 package com.pfe.qualite.backend.service;
 
 import com.pfe.qualite.backend.model.FicheQualite;
+import com.pfe.qualite.backend.model.PageCurseur;
+import com.pfe.qualite.backend.repository.AttachmentRepository;
 import com.pfe.qualite.backend.repository.FicheQualiteRepository;
 import jakarta.servlet.http.HttpServletRequest;
 import lombok.RequiredArgsConstructor;
@@ -24,6 +26,9 @@ public class FicheQualiteService {
     private final FicheQualiteRepository ficheQualiteRepository;
     private final NotificationService notificationService;
     private final HistoriqueService historiqueService;
+    private final KpiSnapshotService kpiSnapshotService;
+    private final PaginationService paginationService;
+    private final AttachmentRepository attachmentRepository;
 
     /**
      * Récupère toutes les fiches qualité
@@ -33,6 +38,13 @@ public class FicheQualiteService {
         return ficheQualiteRepository.findAll();
     }
 
+    /**
+     * Récupère une page de fiches qualité (plus récentes d'abord)
+     */
+    public PageCurseur<FicheQualite> getFichesPage(String curseur, Integer taille, String champs) {
+        return paginationService.paginer(FicheQualite.class, null, "dateCreation", curseur, taille, champs);
+    }
+
     /**
      * Récupère une fiche qualité par son ID
      */
@@ -72,6 +84,7 @@ public class FicheQualiteService {
         
         // Sauvegarde
         FicheQualite savedFiche = ficheQualiteRepository.save(fiche);
+        kpiSnapshotService.enregistrerFicheQualite(null, savedFiche);
         
         // Notification
         if (fiche.getResponsable() != null && !fiche.getResponsable().isEmpty()) {
@@ -117,6 +130,12 @@ public class FicheQualiteService {
         // Validation métier
         validateFiche(ficheUpdated);
         
+        // Dimensions KPI avant modification
+        FicheQualite avant = FicheQualite.builder()
+            .statut(existingFiche.getStatut())
+            .typeFiche(existingFiche.getTypeFiche())
+            .build();
+        
         // Mise à jour des champs
         existingFiche.setTitre(ficheUpdated.getTitre());
         existingFiche.setDescription(ficheUpdated.getDescription());
@@ -133,6 +152,7 @@ public class FicheQualiteService {
         existingFiche.setModifiePar(ficheUpdated.getResponsable());
         
         FicheQualite savedFiche = ficheQualiteRepository.save(existingFiche);
+        kpiSnapshotService.enregistrerFicheQualite(avant, savedFiche);
         
         // Notification
         if (savedFiche.getResponsable() != null && !savedFiche.getResponsable().isEmpty()) {
@@ -186,6 +206,9 @@ public class FicheQualiteService {
         );
         
         ficheQualiteRepository.deleteById(id);
+        // Pièces jointes de la fiche : les fichiers devenus orphelins sont récupérés par le GC des fichiers
+        attachmentRepository.deleteByEntityTypeAndEntityId("FICHE_QUALITE", id);
+        kpiSnapshotService.enregistrerFicheQualite(fiche, null);
         log.info("Fiche qualité supprimée avec succès, ID: {}", id);
     }
 
@@ -2,6 +2,8 @@ package com.pfe.qualite.backend.service;
 
 import com.pfe.qualite.backend.model.FicheQualite;
 import com.pfe.qualite.backend.model.FicheSuivi;
+import com.pfe.qualite.backend.model.PageCurseur;
+import com.pfe.qualite.backend.repository.AttachmentRepository;
 import com.pfe.qualite.backend.repository.FicheQualiteRepository;
 import com.pfe.qualite.backend.repository.FicheSuiviRepository;
 import jakarta.servlet.http.HttpServletRequest;
@@ -28,6 +30,9 @@ public class FicheSuiviService {
     private final FicheQualiteRepository ficheQualiteRepository;
     private final NotificationService notificationService;
     private final HistoriqueService historiqueService;
+    private final KpiSnapshotService kpiSnapshotService;
+    private final PaginationService paginationService;
+    private final AttachmentRepository attachmentRepository;
 
     /**
      * Récupère toutes les fiches de suivi
@@ -37,6 +42,13 @@ public class FicheSuiviService {
         return ficheSuiviRepository.findAll();
     }
 
+    /**
+     * Récupère une page de fiches de suivi (plus récentes d'abord)
+     */
+    public PageCurseur<FicheSuivi> getFichesSuiviPage(String curseur, Integer taille, String champs) {
+        return paginationService.paginer(FicheSuivi.class, null, "dateSuivi", curseur, taille, champs);
+    }
+
     /**
      * Récupère une fiche de suivi par son ID
      */
@@ -83,6 +95,7 @@ public class FicheSuiviService {
         
         // Sauvegarde
         FicheSuivi savedFicheSuivi = ficheSuiviRepository.save(ficheSuivi);
+        kpiSnapshotService.enregistrerFicheSuivi(null, savedFicheSuivi);
         
         // Notification
         if (ficheSuivi.getAjoutePar() != null && !ficheSuivi.getAjoutePar().isEmpty()) {
@@ -120,6 +133,11 @@ public class FicheSuiviService {
         // Validation métier
         validateFicheSuivi(ficheSuiviUpdated);
         
+        // Dimensions KPI avant modification
+        FicheSuivi avant = FicheSuivi.builder()
+            .etatAvancement(existingFicheSuivi.getEtatAvancement())
+            .build();
+        
         // Mise à jour des champs
         existingFicheSuivi.setEtatAvancement(ficheSuiviUpdated.getEtatAvancement());
         existingFicheSuivi.setProblemes(ficheSuiviUpdated.getProblemes());
@@ -134,6 +152,7 @@ public class FicheSuiviService {
         }
         
         FicheSuivi savedFicheSuivi = ficheSuiviRepository.save(existingFicheSuivi);
+        kpiSnapshotService.enregistrerFicheSuivi(avant, savedFicheSuivi);
         
         // Historique
         historiqueService.enregistrerAction(
@@ -169,6 +188,9 @@ public class FicheSuiviService {
         );
         
         ficheSuiviRepository.deleteById(id);
+        // Pièces jointes de la fiche : les fichiers devenus orphelins sont récupérés par le GC des fichiers
+        attachmentRepository.deleteByEntityTypeAndEntityId("FICHE_SUIVI", id);
+        kpiSnapshotService.enregistrerFicheSuivi(ficheSuivi, null);
         log.info("Fiche de suivi supprimée avec succès, ID: {}", id);
     }
 
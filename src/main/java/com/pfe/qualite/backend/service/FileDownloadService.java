@@ -0,0 +1,278 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.Attachment;
+import com.pfe.qualite.backend.service.storage.BlobStore;
+import jakarta.servlet.http.HttpServletRequest;
+import jakarta.servlet.http.HttpServletResponse;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRange;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.Set;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Envoi des fichiers stockés en HTTP : requêtes conditionnelles (ETag fort, 304),
+ * plages (Range / If-Range, 206) et copie sans passage par le tas pour les supports locaux :
+ * sendfile de Tomcat quand le connecteur le permet, sinon FileChannel.transferTo vers la sortie.
+ * Les supports distants (GridFS) sont lus en flux à partir du début de la plage, avec un tampon borné.
+ * Archive ZIP des pièces jointes d'une entité construite à la volée dans la réponse (sans fichier temporaire).
+ */
+@Service
+@Slf4j
+public class FileDownloadService {
+
+    // Attributs de requête reconnus par le connecteur NIO de Tomcat
+    private static final String SENDFILE_SUPPORT = "org.apache.tomcat.sendfile.support";
+    private static final String SENDFILE_FILENAME = "org.apache.tomcat.sendfile.filename";
+    private static final String SENDFILE_START = "org.apache.tomcat.sendfile.start";
+    private static final String SENDFILE_END = "org.apache.tomcat.sendfile.end";
+
+    private static final int TAMPON = 64 * 1024;
+
+    // Formats déjà compressés : les recompresser coûte du CPU sans réduire la taille
+    private static final Set<String> TYPES_COMPRESSES = Set.of(
+            "image/jpeg", "image/png", "image/gif",
+            "application/pdf",
+            "application/zip",
+            "application/vnd.openxmlformats-officedocument.wordprocessingml.document",
+            "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+
+    // En dessous de ce seuil, une copie directe coûte moins que la mise en place de sendfile
+    @Value("${file.download.sendfile-seuil-octets:49152}")
+    private long seuilSendfile;
+
+    /**
+     * Écrit le fichier (ou la plage demandée) dans la réponse
+     *
+     * @param etag         empreinte du contenu (sans guillemets), peut être null
+     * @param lastModified date de dernière modification, peut être null
+     */
+    public void send(BlobStore store, String key, String contentType, String contentDisposition, String etag,
+                     Date lastModified, HttpServletRequest request, HttpServletResponse response) throws IOException {
+        // Contenu authentifié : revalidation à chaque fois, mais sans retransfert si l'ETag correspond
+        send(store, key, contentType, contentDisposition, etag, lastModified, "private, no-cache", request, response);
+    }
+
+    /**
+     * Variante avec une politique de cache explicite (ex: contenu immuable dérivé de l'empreinte)
+     */
+    public void send(BlobStore store, String key, String contentType, String contentDisposition, String etag,
+                     Date lastModified, String cacheControl,
+                     HttpServletRequest request, HttpServletResponse response) throws IOException {
+        long longueur = store.size(key);
+        if (longueur < 0) {
+            response.sendError(HttpServletResponse.SC_NOT_FOUND);
+            return;
+        }
+        String etagHttp = etag != null ? "\"" + etag + "\"" : null;
+
+        response.setHeader(HttpHeaders.ACCEPT_RANGES, "bytes");
+        response.setHeader(HttpHeaders.CACHE_CONTROL, cacheControl);
+        if (etagHttp != null) {
+            response.setHeader(HttpHeaders.ETAG, etagHttp);
+        }
+        if (lastModified != null) {
+            response.setDateHeader(HttpHeaders.LAST_MODIFIED, lastModified.getTime());
+        }
+
+        if (nonModifie(request, etagHttp, lastModified)) {
+            response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+            return;
+        }
+
+        response.setContentType(contentType);
+        response.setHeader(HttpHeaders.CONTENT_DISPOSITION, contentDisposition);
+
+        long debut = 0;
+        long fin = longueur - 1;
+        String range = request.getHeader(HttpHeaders.RANGE);
+        if (range != null && longueur > 0 && plageApplicable(request, etagHttp, lastModified)) {
+            List<HttpRange> plages;
+            try {
+                plages = HttpRange.parseRanges(range);
+            } catch (IllegalArgumentException e) {
+                plages = List.of();
+            }
+            if (plages.size() == 1) {
+                try {
+                    debut = plages.get(0).getRangeStart(longueur);
+                    fin = plages.get(0).getRangeEnd(longueur);
+                } catch (IllegalArgumentException e) {
+                    debut = longueur;
+                }
+                // HttpRange ne rejette pas un début au-delà de la fin du fichier (ex: bytes=20-30 sur 10 octets)
+                if (debut >= longueur || debut > fin) {
+                    response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes */" + longueur);
+                    response.setStatus(HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+                    return;
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader(HttpHeaders.CONTENT_RANGE, "bytes " + debut + "-" + fin + "/" + longueur);
+            }
+            // Plusieurs plages ou en-tête mal formé : le fichier complet est renvoyé (permis par la RFC 9110)
+        }
+
+        long taille = fin - debut + 1;
+        response.setContentLengthLong(Math.max(taille, 0));
+        if ("HEAD".equalsIgnoreCase(request.getMethod()) || taille <= 0) {
+            return;
+        }
+
+        Optional<Path> local = store.localPath(key);
+        if (local.isEmpty()) {
+            copier(store, key, debut, taille, response.getOutputStream());
+            return;
+        }
+        Path path = local.get();
+        if (taille >= seuilSendfile && Boolean.TRUE.equals(request.getAttribute(SENDFILE_SUPPORT))) {
+            request.setAttribute(SENDFILE_FILENAME, path.toAbsolutePath().toString());
+            request.setAttribute(SENDFILE_START, debut);
+            request.setAttribute(SENDFILE_END, fin + 1);
+            return;
+        }
+
+        try (FileChannel canal = FileChannel.open(path, StandardOpenOption.READ)) {
+            WritableByteChannel sortie = Channels.newChannel(response.getOutputStream());
+            long position = debut;
+            long reste = taille;
+            while (reste > 0) {
+                long envoye = canal.transferTo(position, reste, sortie);
+                if (envoye <= 0) break;
+                position += envoye;
+                reste -= envoye;
+            }
+        }
+    }
+
+    /**
+     * Écrit une archive ZIP des pièces jointes, entrée par entrée, avec un seul tampon borné.
+     * Les formats déjà compressés sont écrits en deflate niveau 0 (le mode STORE exigerait la taille
+     * et le CRC avant les données, donc une seconde lecture du fichier).
+     * Un fichier absent du stockage est ignoré, l'archive reste valide.
+     */
+    public void writeZip(BlobStore store, List<Attachment> attachments, OutputStream out) throws IOException {
+        byte[] tampon = new byte[TAMPON];
+        Set<String> noms = new HashSet<>();
+        ZipOutputStream zip = new ZipOutputStream(out);
+        for (Attachment attachment : attachments) {
+            if (!store.exists(attachment.getStoredFileName())) {
+                log.warn("Pièce jointe {} absente du stockage, ignorée dans l'archive", attachment.getId());
+                continue;
+            }
+            zip.setLevel(TYPES_COMPRESSES.contains(attachment.getContentType())
+                    ? Deflater.NO_COMPRESSION : Deflater.BEST_SPEED);
+            ZipEntry entree = new ZipEntry(nomUnique(attachment, noms));
+            if (attachment.getUploadedAt() != null) {
+                entree.setTime(attachment.getUploadedAt().getTime());
+            }
+            zip.putNextEntry(entree);
+            try (InputStream in = store.open(attachment.getStoredFileName())) {
+                int n;
+                while ((n = in.read(tampon)) != -1) {
+                    zip.write(tampon, 0, n);
+                }
+            }
+            zip.closeEntry();
+        }
+        // Écrit le répertoire central sans fermer la sortie du conteneur
+        zip.finish();
+        zip.flush();
+    }
+
+    /**
+     * Nom d'entrée sans chemin, suffixé « (2) », « (3) »... si plusieurs pièces jointes portent le même nom
+     */
+    private String nomUnique(Attachment attachment, Set<String> noms) {
+        String nom = attachment.getOriginalFileName();
+        if (nom == null || nom.isBlank()) {
+            nom = attachment.getId();
+        }
+        nom = nom.replace('\\', '_').replace('/', '_');
+        String candidat = nom;
+        int point = nom.lastIndexOf('.');
+        String base = point > 0 ? nom.substring(0, point) : nom;
+        String extension = point > 0 ? nom.substring(point) : "";
+        for (int i = 2; !noms.add(candidat); i++) {
+            candidat = base + " (" + i + ")" + extension;
+        }
+        return candidat;
+    }
+
+    private void copier(BlobStore store, String key, long debut, long taille, OutputStream sortie) throws IOException {
+        byte[] tampon = new byte[TAMPON];
+        try (InputStream in = store.open(key)) {
+            in.skipNBytes(debut);
+            long reste = taille;
+            while (reste > 0) {
+                int n = in.read(tampon, 0, (int) Math.min(tampon.length, reste));
+                if (n < 0) break;
+                sortie.write(tampon, 0, n);
+                reste -= n;
+            }
+        }
+    }
+
+    /**
+     * If-None-Match prime sur If-Modified-Since (RFC 9110 §13.2.2)
+     */
+    private boolean nonModifie(HttpServletRequest request, String etagHttp, Date lastModified) {
+        String ifNoneMatch = request.getHeader(HttpHeaders.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            return etagHttp != null && correspond(ifNoneMatch, etagHttp);
+        }
+        long ifModifiedSince = dateEnTete(request, HttpHeaders.IF_MODIFIED_SINCE);
+        return ifModifiedSince != -1 && lastModified != null
+                && lastModified.getTime() / 1000 <= ifModifiedSince / 1000;
+    }
+
+    /**
+     * If-Range : la plage n'est servie que si le client possède encore la même version
+     */
+    private boolean plageApplicable(HttpServletRequest request, String etagHttp, Date lastModified) {
+        String ifRange = request.getHeader(HttpHeaders.IF_RANGE);
+        if (ifRange == null) {
+            return true;
+        }
+        if (ifRange.startsWith("\"")) {
+            return ifRange.equals(etagHttp);
+        }
+        long date = dateEnTete(request, HttpHeaders.IF_RANGE);
+        return date != -1 && lastModified != null && lastModified.getTime() / 1000 == date / 1000;
+    }
+
+    private boolean correspond(String entete, String etagHttp) {
+        for (String valeur : entete.split(",")) {
+            String candidat = valeur.trim();
+            if (candidat.equals("*")) return true;
+            // Comparaison faible pour If-None-Match : le préfixe W/ est ignoré
+            if (candidat.startsWith("W/")) candidat = candidat.substring(2);
+            if (candidat.equals(etagHttp)) return true;
+        }
+        return false;
+    }
+
+    private long dateEnTete(HttpServletRequest request, String nom) {
+        try {
+            return request.getDateHeader(nom);
+        } catch (IllegalArgumentException e) {
+            return -1;
+        }
+    }
+}
@@ -1,98 +1,390 @@
 package com.pfe.qualite.backend.service;
 
+import com.pfe.qualite.backend.repository.AttachmentRepository;
+import com.pfe.qualite.backend.service.storage.BlobStore;
+import com.pfe.qualite.backend.service.storage.LocalBlobStore;
+import com.pfe.qualite.backend.util.DetecteurType;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.core.io.Resource;
-import org.springframework.core.io.UrlResource;
 import org.springframework.stereotype.Service;
 import org.springframework.util.StringUtils;
 import org.springframework.web.multipart.MultipartFile;
 
 import jakarta.annotation.PostConstruct;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
-import java.net.MalformedURLException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.nio.file.StandardCopyOption;
-import java.util.UUID;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.function.BooleanSupplier;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * Service de gestion du stockage des fichiers
+ * Stockage adressé par contenu : chaque fichier est rangé sous son empreinte SHA-256
+ * (ab/cd/abcd…), un même document joint à plusieurs fiches n'est écrit qu'une fois.
+ * Les références sont les Attachment qui pointent vers le fichier : il n'est supprimé
+ * physiquement qu'avec la dernière d'entre elles, par une suppression conditionnelle
+ * (isolement, nouvelle vérification, puis suppression ou restauration) qui ne peut pas
+ * retirer un contenu qu'un upload concurrent vient de dédupliquer.
+ * Le support est choisi par file.storage.backend (local ou gridfs) ; avec gridfs,
+ * les répliques n'ont besoin d'aucun système de fichiers partagé.
  */
 @Service
 @Slf4j
 public class FileStorageService {
 
-    @Value("${file.upload-dir:uploads}")
-    private String uploadDir;
+    // Dossier des contenus en cours de suppression (hors des partitions adressées par contenu)
+    public static final String DOSSIER_ISOLES = "isoles";
 
-    private Path fileStorageLocation;
+    // Un fichier réutilisé il y a moins de ce délai n'est pas supprimé (upload concurrent en cours d'enregistrement)
+    @Value("${file.store.delai-grace-ms:60000}")
+    private long delaiGraceMs;
+
+    @Value("${file.storage.backend:" + LocalBlobStore.NOM + "}")
+    private String backend;
+
+    @Autowired
+    private AttachmentRepository attachmentRepository;
+
+    @Autowired
+    private LocalBlobStore localBlobStore;
+
+    @Autowired
+    private List<BlobStore> supports;
+
+    private Map<String, BlobStore> supportsParNom;
+    private BlobStore blobStore;
+
+    /**
+     * Fichier stocké : nom (chemin relatif) dans le magasin, empreinte SHA-256 (hex) du contenu,
+     * taille en bytes, indicateur de réutilisation d'un contenu déjà présent
+     * et type MIME détecté d'après le contenu (null si non reconnu)
+     */
+    public record StoredFile(String fileName, String contentHash, long size, boolean deduplicated, String contentType) {
+    }
 
     @PostConstruct
     public void init() {
-        this.fileStorageLocation = Paths.get(uploadDir).toAbsolutePath().normalize();
-        
-        try {
-            Files.createDirectories(this.fileStorageLocation);
-            log.info("Répertoire de stockage créé: {}", this.fileStorageLocation);
-        } catch (Exception ex) {
-            log.error("Impossible de créer le répertoire de stockage", ex);
-            throw new RuntimeException("Impossible de créer le répertoire de stockage", ex);
+        supportsParNom = supports.stream().collect(Collectors.toMap(BlobStore::name, Function.identity()));
+        blobStore = getBlobStore(backend);
+        log.info("Stockage des fichiers : {}", blobStore.name());
+        purgerTemporairesAnciens();
+    }
+
+    /**
+     * Support actif
+     */
+    public BlobStore getBlobStore() {
+        return blobStore;
+    }
+
+    /**
+     * Support par nom (local, gridfs)
+     */
+    public BlobStore getBlobStore(String nom) {
+        BlobStore support = supportsParNom.get(nom);
+        if (support == null) {
+            throw new IllegalArgumentException("Support de stockage inconnu: " + nom + " (disponibles: " + supportsParNom.keySet() + ")");
         }
+        return support;
     }
 
     /**
      * Stocke un fichier et retourne le nom généré
      */
     public String storeFile(MultipartFile file) {
-        // Nettoyer le nom du fichier
-        String originalFileName = StringUtils.cleanPath(file.getOriginalFilename());
-        
-        try {
-            // Vérifier si le fichier contient des caractères invalides
-            if (originalFileName.contains("..")) {
-                throw new RuntimeException("Le nom du fichier contient une séquence de chemin invalide: " + originalFileName);
-            }
+        return store(file).fileName();
+    }
 
-            // Générer un nom unique pour éviter les conflits
-            String fileExtension = "";
-            int dotIndex = originalFileName.lastIndexOf('.');
-            if (dotIndex > 0) {
-                fileExtension = originalFileName.substring(dotIndex);
-            }
-            
-            String uniqueFileName = UUID.randomUUID().toString() + fileExtension;
-            
-            // Copier le fichier vers le répertoire de destination
-            Path targetLocation = this.fileStorageLocation.resolve(uniqueFileName);
-            Files.copy(file.getInputStream(), targetLocation, StandardCopyOption.REPLACE_EXISTING);
-            
-            log.info("Fichier stocké: {} (original: {})", uniqueFileName, originalFileName);
-            return uniqueFileName;
-            
+    /**
+     * Stocke un fichier reçu en multipart
+     */
+    public StoredFile store(MultipartFile file) {
+        String originalFileName = cleanFileName(file.getOriginalFilename());
+        try (InputStream in = file.getInputStream()) {
+            return store(in, originalFileName, Long.MAX_VALUE, null);
         } catch (IOException ex) {
             log.error("Erreur lors du stockage du fichier: {}", originalFileName, ex);
             throw new RuntimeException("Erreur lors du stockage du fichier: " + originalFileName, ex);
         }
     }
 
+    /**
+     * Stocke un flux en une seule passe : le type est détecté sur le premier bloc, la taille est contrôlée
+     * au fil de la lecture et l'empreinte SHA-256 calculée pendant la copie vers un fichier temporaire local ;
+     * le contenu est ensuite confié au support sous son adresse (ou le temporaire supprimé s'il existe déjà).
+     * Mémoire constante quelle que soit la taille du fichier.
+     *
+     * @param maxBytes     taille maximale acceptée
+     * @param allowedTypes types MIME acceptés (comparés au type détecté) ; null pour ne pas filtrer
+     * @throws IllegalArgumentException fichier vide, type non autorisé ou taille dépassée
+     */
+    public StoredFile store(InputStream source, String originalFileName, long maxBytes, String[] allowedTypes) throws IOException {
+        byte[] entete = source.readNBytes(DetecteurType.TAILLE_ENTETE);
+        if (entete.length == 0 && allowedTypes != null) {
+            throw new IllegalArgumentException("Le fichier est vide");
+        }
+        String contentType = DetecteurType.detecter(entete, originalFileName);
+        if (allowedTypes != null && (contentType == null || !Arrays.asList(allowedTypes).contains(contentType))) {
+            throw new IllegalArgumentException("Type de fichier non autorisé");
+        }
+
+        Path temp = null;
+        try {
+            temp = Files.createTempFile(localBlobStore.getTemporaires(), "upload-", ".part");
+            MessageDigest digest = sha256();
+            long size;
+            InputStream flux = new SequenceInputStream(new ByteArrayInputStream(entete), source);
+            try (InputStream in = new DigestInputStream(new FluxLimite(flux, maxBytes), digest)) {
+                size = Files.copy(in, temp, StandardCopyOption.REPLACE_EXISTING);
+            }
+
+            String contentHash = HexFormat.of().formatHex(digest.digest());
+            String storedFileName = contentAddress(contentHash);
+            boolean deduplicated = blobStore.exists(storedFileName) && reutiliser(storedFileName);
+            if (!deduplicated) {
+                blobStore.put(storedFileName, temp);
+            }
+
+            log.info("Fichier stocké: {} (original: {}{})", storedFileName, originalFileName,
+                    deduplicated ? ", contenu déjà présent" : "");
+            return new StoredFile(storedFileName, contentHash, size, deduplicated, contentType);
+        } finally {
+            supprimerTemporaire(temp);
+        }
+    }
+
+    /**
+     * Marque un contenu existant comme réutilisé. Le marquage précède toute vérification de suppression
+     * (voir supprimerSiOrphelin) : si le contenu a été isolé entre-temps, il n'est plus à son adresse
+     * et l'upload le réécrit au lieu de le dédupliquer.
+     */
+    private boolean reutiliser(String storedFileName) throws IOException {
+        try {
+            blobStore.touch(storedFileName);
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+        return blobStore.exists(storedFileName);
+    }
+
+    /**
+     * Nettoie le nom d'origine et refuse les séquences de chemin
+     */
+    public String cleanFileName(String fileName) {
+        String originalFileName = StringUtils.cleanPath(fileName != null ? fileName : "");
+        
+        // Vérifier si le fichier contient des caractères invalides
+        if (originalFileName.contains("..")) {
+            throw new RuntimeException("Le nom du fichier contient une séquence de chemin invalide: " + originalFileName);
+        }
+        return originalFileName;
+    }
+
+    /**
+     * Interrompt la lecture dès que la taille maximale est dépassée (sans attendre la fin du transfert)
+     */
+    private static class FluxLimite extends FilterInputStream {
+        private final long maximum;
+        private long lus;
+
+        FluxLimite(InputStream in, long maximum) {
+            super(in);
+            this.maximum = maximum;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int octet = super.read();
+            if (octet >= 0) compter(1);
+            return octet;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = super.read(b, off, len);
+            if (n > 0) compter(n);
+            return n;
+        }
+
+        private void compter(int n) {
+            lus += n;
+            if (lus > maximum) {
+                throw new IllegalArgumentException("Fichier trop volumineux (max " + maximum + " bytes)");
+            }
+        }
+    }
+
+    /**
+     * Chemin relatif d'un contenu : deux niveaux de répertoires pour borner le nombre d'entrées par dossier
+     */
+    public static String contentAddress(String contentHash) {
+        return contentHash.substring(0, 2) + "/" + contentHash.substring(2, 4) + "/" + contentHash;
+    }
+
+    private void supprimerTemporaire(Path temp) {
+        if (temp == null) return;
+        try {
+            Files.deleteIfExists(temp);
+        } catch (IOException e) {
+            log.warn("Impossible de supprimer le fichier temporaire {}: {}", temp, e.getMessage());
+        }
+    }
+
+    /**
+     * Temporaires laissés par un arrêt brutal (uploads interrompus depuis plus d'une heure)
+     */
+    private void purgerTemporairesAnciens() {
+        Instant limite = Instant.now().minusSeconds(3600);
+        try (Stream<Path> temporaires = Files.list(localBlobStore.getTemporaires())) {
+            temporaires.filter(p -> {
+                try {
+                    return Files.getLastModifiedTime(p).toInstant().isBefore(limite);
+                } catch (IOException e) {
+                    return false;
+                }
+            }).forEach(this::supprimerTemporaire);
+        } catch (IOException e) {
+            log.warn("Impossible de purger les fichiers temporaires: {}", e.getMessage());
+        }
+    }
+
     /**
      * Charge un fichier en tant que Resource
      */
     public Resource loadFileAsResource(String fileName) {
-        try {
-            Path filePath = this.fileStorageLocation.resolve(fileName).normalize();
-            Resource resource = new UrlResource(filePath.toUri());
-            
-            if (resource.exists()) {
-                return resource;
-            } else {
-                throw new RuntimeException("Fichier non trouvé: " + fileName);
+        if (!blobStore.exists(fileName)) {
+            throw new RuntimeException("Fichier non trouvé: " + fileName);
+        }
+        return blobStore.asResource(fileName);
+    }
+
+    /**
+     * Ouvre le contenu d'un fichier en lecture (à fermer par l'appelant)
+     */
+    public InputStream openFile(String fileName) throws IOException {
+        return blobStore.open(fileName);
+    }
+
+    /**
+     * Chemin local du fichier quand le support en a un (envoi sans copie)
+     */
+    public Optional<Path> localPath(String fileName) {
+        return blobStore.localPath(fileName);
+    }
+
+    /**
+     * Calcule l'empreinte SHA-256 (hex) d'un fichier déjà stocké
+     */
+    public String computeContentHash(String fileName) {
+        MessageDigest digest = sha256();
+        byte[] buffer = new byte[64 * 1024];
+        try (InputStream in = blobStore.open(fileName)) {
+            int n;
+            while ((n = in.read(buffer)) != -1) {
+                digest.update(buffer, 0, n);
             }
-        } catch (MalformedURLException ex) {
-            log.error("Fichier non trouvé: {}", fileName, ex);
-            throw new RuntimeException("Fichier non trouvé: " + fileName, ex);
+        } catch (IOException ex) {
+            throw new RuntimeException("Erreur lors de la lecture du fichier: " + fileName, ex);
+        }
+        return HexFormat.of().formatHex(digest.digest());
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 indisponible", e);
+        }
+    }
+
+    /**
+     * Libère une référence : le fichier est supprimé si plus aucune pièce jointe n'y fait référence
+     * (à appeler après la suppression de l'Attachment). Retourne true si le fichier a été supprimé.
+     */
+    public boolean releaseFile(String fileName) {
+        if (attachmentRepository.countByStoredFileName(fileName) > 0) {
+            return false;
+        }
+        try {
+            return supprimerSiOrphelin(blobStore, fileName, Instant.now().minusMillis(delaiGraceMs),
+                    () -> attachmentRepository.countByStoredFileName(fileName) > 0);
+        } catch (IOException ex) {
+            log.warn("Suppression de {} impossible: {}", fileName, ex.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Suppression conditionnelle d'un contenu :
+     * 1. le contenu est déplacé sous isoles/ : une déduplication qui vérifie son existence à partir de là échoue
+     *    et l'upload réécrit le contenu ;
+     * 2. les références et la date de dernière réutilisation sont vérifiées à nouveau : un upload qui a dédupliqué
+     *    avant le déplacement a mis à jour cette date (touch) ;
+     * 3. le contenu isolé est supprimé, ou remis à son adresse s'il doit être gardé.
+     * Un contenu resté isolé après un arrêt brutal est remis en place par restaurerIsoles.
+     *
+     * @param reutiliseApres une réutilisation postérieure à cette date empêche la suppression
+     * @param reference      vérification des références, appelée après l'isolement
+     * @return true si le contenu a été supprimé
+     */
+    public boolean supprimerSiOrphelin(BlobStore store, String key, Instant reutiliseApres,
+                                       BooleanSupplier reference) throws IOException {
+        String isole = DOSSIER_ISOLES + "/" + key;
+        if (!store.rename(key, isole)) {
+            return false;
+        }
+        Instant derniereUtilisation = store.lastUsed(isole);
+        boolean garder = (derniereUtilisation != null && derniereUtilisation.isAfter(reutiliseApres))
+                || reference.getAsBoolean();
+        if (garder) {
+            log.info("Fichier {} réutilisé ou référencé, suppression annulée", key);
+            remettre(store, isole, key);
+            return false;
+        }
+        store.delete(isole);
+        log.info("Fichier supprimé: {}", key);
+        return true;
+    }
+
+    /**
+     * Remet à leur adresse les contenus restés isolés (arrêt pendant une suppression conditionnelle) ;
+     * le GC les réexamine ensuite normalement. Retourne le nombre de contenus traités.
+     */
+    public int restaurerIsoles(BlobStore store) throws IOException {
+        List<String> isoles = new ArrayList<>();
+        store.scanKeys(DOSSIER_ISOLES, isoles::add);
+        for (String isole : isoles) {
+            remettre(store, isole, isole.substring(DOSSIER_ISOLES.length() + 1));
+        }
+        return isoles.size();
+    }
+
+    private void remettre(BlobStore store, String isole, String key) throws IOException {
+        // Contenu réécrit entre-temps par un upload (même empreinte) : la copie isolée est superflue
+        if (store.exists(key)) {
+            store.delete(isole);
+        } else {
+            store.rename(isole, key);
         }
     }
 
@@ -101,8 +393,7 @@ public class FileStorageService {
      */
     public void deleteFile(String fileName) {
         try {
-            Path filePath = this.fileStorageLocation.resolve(fileName).normalize();
-            Files.deleteIfExists(filePath);
+            blobStore.delete(fileName);
             log.info("Fichier supprimé: {}", fileName);
         } catch (IOException ex) {
             log.error("Erreur lors de la suppression du fichier: {}", fileName, ex);
@@ -114,21 +405,14 @@ public class FileStorageService {
      * Vérifie si un fichier existe
      */
     public boolean fileExists(String fileName) {
-        Path filePath = this.fileStorageLocation.resolve(fileName).normalize();
-        return Files.exists(filePath);
+        return blobStore.exists(fileName);
     }
 
     /**
      * Obtient la taille d'un fichier en bytes
      */
     public long getFileSize(String fileName) {
-        try {
-            Path filePath = this.fileStorageLocation.resolve(fileName).normalize();
-            return Files.size(filePath);
-        } catch (IOException ex) {
-            log.error("Erreur lors de la récupération de la taille du fichier: {}", fileName, ex);
-            return 0;
-        }
+        return Math.max(blobStore.size(fileName), 0);
     }
 
     /**
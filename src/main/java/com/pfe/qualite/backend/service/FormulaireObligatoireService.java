@@ -26,6 +26,9 @@ public class FormulaireObligatoireService {
     @Autowired
     private MailService mailService;
 
+    @Autowired
+    private KpiSnapshotService kpiSnapshotService;
+
     /**
      * Créer un nouveau formulaire obligatoire
      */
@@ -44,7 +47,9 @@ public class FormulaireObligatoireService {
             }
         }
 
-        return formulaireRepository.save(formulaire);
+        FormulaireObligatoire saved = formulaireRepository.save(formulaire);
+        kpiSnapshotService.enregistrerFormulaire(null, saved);
+        return saved;
     }
 
     /**
@@ -52,6 +57,7 @@ public class FormulaireObligatoireService {
      */
     public FormulaireObligatoire updateFormulaireObligatoire(String id, FormulaireObligatoire updated) {
         return formulaireRepository.findById(id).map(formulaire -> {
+            FormulaireObligatoire avant = dimensionsKpi(formulaire);
             formulaire.setNom(updated.getNom());
             formulaire.setDescription(updated.getDescription());
             formulaire.setTypeFormulaire(updated.getTypeFormulaire());
@@ -62,7 +68,9 @@ public class FormulaireObligatoireService {
             formulaire.setStatut(updated.getStatut());
             formulaire.setPriorite(updated.getPriorite());
             formulaire.setCommentaire(updated.getCommentaire());
-            return formulaireRepository.save(formulaire);
+            FormulaireObligatoire saved = formulaireRepository.save(formulaire);
+            kpiSnapshotService.enregistrerFormulaire(avant, saved);
+            return saved;
         }).orElseThrow(() -> new RuntimeException("Formulaire obligatoire non trouvé"));
     }
 
@@ -71,8 +79,11 @@ public class FormulaireObligatoireService {
      */
     public FormulaireObligatoire marquerCommeSoumis(String id) {
         return formulaireRepository.findById(id).map(formulaire -> {
+            FormulaireObligatoire avant = dimensionsKpi(formulaire);
             formulaire.setStatut("SOUMIS");
-            return formulaireRepository.save(formulaire);
+            FormulaireObligatoire saved = formulaireRepository.save(formulaire);
+            kpiSnapshotService.enregistrerFormulaire(avant, saved);
+            return saved;
         }).orElseThrow(() -> new RuntimeException("Formulaire obligatoire non trouvé"));
     }
 
@@ -81,8 +92,11 @@ public class FormulaireObligatoireService {
      */
     public FormulaireObligatoire marquerCommeEnRetard(String id) {
         return formulaireRepository.findById(id).map(formulaire -> {
+            FormulaireObligatoire avant = dimensionsKpi(formulaire);
             formulaire.setStatut("EN_RETARD");
-            return formulaireRepository.save(formulaire);
+            FormulaireObligatoire saved = formulaireRepository.save(formulaire);
+            kpiSnapshotService.enregistrerFormulaire(avant, saved);
+            return saved;
         }).orElseThrow(() -> new RuntimeException("Formulaire obligatoire non trouvé"));
     }
 
@@ -144,7 +158,10 @@ public class FormulaireObligatoireService {
      * Supprimer un formulaire obligatoire
      */
     public void deleteFormulaireObligatoire(String id) {
-        formulaireRepository.deleteById(id);
+        formulaireRepository.findById(id).ifPresent(formulaire -> {
+            formulaireRepository.deleteById(id);
+            kpiSnapshotService.enregistrerFormulaire(formulaire, null);
+        });
     }
 
     /**
@@ -163,12 +180,13 @@ public class FormulaireObligatoireService {
                     retard.getId()
                 );
 
-                // Envoyer email
+                // Planifier l'email (outbox : une seule relance par numéro de notification)
                 try {
                     Optional<com.pfe.qualite.backend.model.Utilisateur> utilisateur = 
                         utilisateurRepository.findById(retard.getResponsableId());
                     if (utilisateur.isPresent()) {
                         mailService.envoyerEmailRetard(
+                            "formulaire-retard:" + retard.getId() + ":relance-" + (retard.getNombreNotifications() + 1),
                             utilisateur.get().getEmail(),
                             retard.getNom(),
                             retard.getDateEcheance()
@@ -226,4 +244,14 @@ public class FormulaireObligatoireService {
     public long getNombreFormulairesByResponsable(String responsableId) {
         return formulaireRepository.countByResponsableId(responsableId);
     }
+
+    /**
+     * Copie des seuls champs suivis par les snapshots KPI (avant modification)
+     */
+    private FormulaireObligatoire dimensionsKpi(FormulaireObligatoire formulaire) {
+        return FormulaireObligatoire.builder()
+            .statut(formulaire.getStatut())
+            .priorite(formulaire.getPriorite())
+            .build();
+    }
 } 
\ No newline at end of file
@@ -3,29 +3,42 @@ package com.pfe.qualite.backend.service;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.pfe.qualite.backend.model.HistoriqueAction;
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.repository.HistoriqueActionRepository;
-import com.pfe.qualite.backend.repository.UtilisateurRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 import org.springframework.stereotype.Service;
 
 import jakarta.servlet.http.HttpServletRequest;
-import java.util.Date;
-import java.util.List;
-import java.util.Optional;
+import java.util.*;
+import java.util.stream.Stream;
 
 @Service
 public class HistoriqueService {
 
+    private static final Sort TRI_HISTORIQUE = Sort.by(Sort.Direction.DESC, "dateAction").and(Sort.by(Sort.Direction.DESC, "_id"));
+
     @Autowired
     private HistoriqueActionRepository historiqueRepository;
 
     @Autowired
-    private UtilisateurRepository utilisateurRepository;
+    private AuditBatchWriter auditBatchWriter;
+
+    @Autowired
+    private PaginationService paginationService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
 
     private final ObjectMapper objectMapper = new ObjectMapper();
 
     /**
      * Enregistre une action dans l'historique
+     * L'action est préparée ici (valeurs sérialisées, IP et navigateur lus tant que la requête est valide)
+     * puis confiée à AuditBatchWriter : l'insertion et la résolution du nom se font hors du thread de la requête
      */
     public void enregistrerAction(String action, String entite, String entiteId, String utilisateurId, 
                                  String details, Object anciennesValeurs, Object nouvellesValeurs, 
@@ -36,7 +49,6 @@ public class HistoriqueService {
                     .entite(entite)
                     .entiteId(entiteId)
                     .utilisateurId(utilisateurId)
-                    .utilisateurNom(getNomUtilisateur(utilisateurId))
                     .details(details)
                     .dateAction(new Date())
                     .anciennesValeurs(anciennesValeurs != null ? objectMapper.writeValueAsString(anciennesValeurs) : null)
@@ -45,7 +57,7 @@ public class HistoriqueService {
                     .userAgent(request != null ? request.getHeader("User-Agent") : null)
                     .build();
 
-            historiqueRepository.save(historique);
+            auditBatchWriter.soumettre(historique);
         } catch (JsonProcessingException e) {
             // Log l'erreur mais ne pas faire échouer l'opération principale
             System.err.println("Erreur lors de la sérialisation JSON pour l'historique: " + e.getMessage());
@@ -111,15 +123,81 @@ public class HistoriqueService {
         return historiqueRepository.findAll();
     }
 
+    /**
+     * Parcourt tout l'historique (plus récent d'abord) via un curseur MongoDB
+     * Le flux doit être fermé par l'appelant (try-with-resources)
+     */
+    public Stream<HistoriqueAction> streamHistorique() {
+        return streamHistorique(null);
+    }
+
     public long countAll() {
         return historiqueRepository.count();
     }
 
     public long countBetween(Date start, Date end) {
-        return historiqueRepository.findByDateActionBetweenOrderByDateActionDesc(start, end).size();
+        return mongoTemplate.count(new Query(Criteria.where("dateAction").gte(start).lte(end)), HistoriqueAction.class);
     }
 
+    /**
+     * Filtres avancés évalués par MongoDB (index composés de HistoriqueAction)
+     */
     public List<HistoriqueAction> getHistoriqueFiltres(com.pfe.qualite.backend.controller.HistoriqueController.FiltresHistoriqueRequest f) {
+        Query query = new Query(construireCriteres(f)).with(TRI_HISTORIQUE);
+        return mongoTemplate.find(query, HistoriqueAction.class);
+    }
+
+    /**
+     * Page de l'historique (plus récent d'abord), pagination par curseur sur dateAction/_id
+     */
+    public PageCurseur<HistoriqueAction> getHistoriquePage(String curseur, Integer taille, String champs) {
+        return paginationService.paginer(HistoriqueAction.class, null, "dateAction", curseur, taille, champs);
+    }
+
+    /**
+     * Filtres avancés paginés par curseur (dateAction, _id) : coût constant quelle que soit la page
+     */
+    public PageCurseur<HistoriqueAction> getHistoriqueFiltresPage(com.pfe.qualite.backend.controller.HistoriqueController.FiltresHistoriqueRequest f) {
+        return paginationService.paginer(HistoriqueAction.class, construireCriteres(f), "dateAction", f.curseur, f.taille, null);
+    }
+
+    /**
+     * Parcourt l'historique filtré (plus récent d'abord) via un curseur MongoDB
+     * Mêmes critères que getHistoriqueFiltres ; filtres null = tout l'historique
+     */
+    public Stream<HistoriqueAction> streamHistorique(com.pfe.qualite.backend.controller.HistoriqueController.FiltresHistoriqueRequest f) {
+        Query query = new Query(f != null ? construireCriteres(f) : new Criteria()).with(TRI_HISTORIQUE);
+        return mongoTemplate.stream(query, HistoriqueAction.class);
+    }
+
+    /**
+     * Critères MongoDB des filtres ; action et module sont des codes en majuscules (égalité exacte, indexable)
+     */
+    private Criteria construireCriteres(com.pfe.qualite.backend.controller.HistoriqueController.FiltresHistoriqueRequest f) {
+        List<Criteria> criteres = new ArrayList<>();
+        if (f.utilisateurId != null && !f.utilisateurId.isBlank()) {
+            criteres.add(Criteria.where("utilisateurId").is(f.utilisateurId));
+        }
+        if (f.module != null && !f.module.isBlank()) {
+            criteres.add(Criteria.where("entite").is(f.module.trim().toUpperCase(Locale.ROOT)));
+        }
+        if (f.entiteId != null && !f.entiteId.isBlank()) {
+            criteres.add(Criteria.where("entiteId").is(f.entiteId));
+        }
+        if (f.typeAction != null && !f.typeAction.isBlank()) {
+            criteres.add(Criteria.where("action").is(f.typeAction.trim().toUpperCase(Locale.ROOT)));
+        }
+        Date[] bornes = resoudrePeriode(f);
+        if (bornes[0] != null && bornes[1] != null) {
+            criteres.add(Criteria.where("dateAction").gte(bornes[0]).lte(bornes[1]));
+        }
+        return criteres.isEmpty() ? new Criteria() : new Criteria().andOperator(criteres);
+    }
+
+    /**
+     * Bornes [début, fin] des filtres : dates explicites ou période prédéfinie (TODAY, WEEK, MONTH, QUARTER, YEAR)
+     */
+    private Date[] resoudrePeriode(com.pfe.qualite.backend.controller.HistoriqueController.FiltresHistoriqueRequest f) {
         Date start = f.dateDebut;
         Date end = f.dateFin;
         if (f.periode != null && (start == null || end == null)) {
@@ -160,25 +238,7 @@ public class HistoriqueService {
             }
         }
 
-        List<HistoriqueAction> base = (start != null && end != null)
-                ? historiqueRepository.findByDateActionBetweenOrderByDateActionDesc(start, end)
-                : historiqueRepository.findAll();
-
-        return base.stream()
-                .filter(a -> f.typeAction == null || f.typeAction.equalsIgnoreCase(a.getAction()))
-                .filter(a -> f.module == null || f.module.equalsIgnoreCase(a.getEntite()))
-                .filter(a -> f.utilisateurId == null || f.utilisateurId.equals(a.getUtilisateurId()))
-                .toList();
-    }
-
-    /**
-     * Récupère le nom d'un utilisateur
-     */
-    private String getNomUtilisateur(String utilisateurId) {
-        if (utilisateurId == null) return "Système";
-        
-        Optional<com.pfe.qualite.backend.model.Utilisateur> utilisateur = utilisateurRepository.findById(utilisateurId);
-        return utilisateur.map(u -> u.getNom()).orElse("Utilisateur inconnu");
+        return new Date[] { start, end };
     }
 
     /**
@@ -0,0 +1,285 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.FicheQualite;
+import com.pfe.qualite.backend.model.FicheSuivi;
+import com.pfe.qualite.backend.model.FormulaireObligatoire;
+import com.pfe.qualite.backend.model.KpiSnapshot;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.AggregationExpression;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.FacetOperation;
+import org.springframework.data.mongodb.core.aggregation.StringOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+
+/**
+ * Vue matérialisée des compteurs KPI (collection kpi_snapshots)
+ * Mise à jour à chaque écriture des services métier, lue en O(1) par les tableaux de bord.
+ * La reconstruction complète corrige une éventuelle dérive ; elle remplace le document par version
+ * (optimiste) pour ne pas écraser les incréments appliqués pendant son agrégation.
+ */
+@Service
+@RequiredArgsConstructor
+@Slf4j
+public class KpiSnapshotService {
+
+    public static final String FICHES_QUALITE = "fiches_qualite";
+    public static final String FICHES_SUIVI = "fiches_suivi";
+    public static final String FORMULAIRES_OBLIGATOIRES = "formulaires_obligatoires";
+
+    public static final String DIM_STATUT = "statut";
+    public static final String DIM_TYPE = "typeFiche";
+    public static final String DIM_TYPE_STATUT = "typeStatut";
+    public static final String DIM_ETAT = "etatAvancement";
+    public static final String DIM_PRIORITE = "priorite";
+
+    private static final String NON_DEFINI = "NON_DEFINI";
+
+    // Reconstructions recommencées si des mises à jour concurrentes changent la version pendant l'agrégation
+    private static final int TENTATIVES_RECONSTRUCTION = 5;
+
+    private final MongoTemplate mongoTemplate;
+
+    // ===== Mises à jour incrémentales (avant == null : création, apres == null : suppression) =====
+
+    public void enregistrerFicheQualite(FicheQualite avant, FicheQualite apres) {
+        appliquer(FICHES_QUALITE,
+                avant != null ? dimensionsFicheQualite(avant) : null,
+                apres != null ? dimensionsFicheQualite(apres) : null);
+    }
+
+    public void enregistrerFicheSuivi(FicheSuivi avant, FicheSuivi apres) {
+        appliquer(FICHES_SUIVI,
+                avant != null ? Map.of(DIM_ETAT, cle(avant.getEtatAvancement())) : null,
+                apres != null ? Map.of(DIM_ETAT, cle(apres.getEtatAvancement())) : null);
+    }
+
+    public void enregistrerFormulaire(FormulaireObligatoire avant, FormulaireObligatoire apres) {
+        appliquer(FORMULAIRES_OBLIGATOIRES,
+                avant != null ? dimensionsFormulaire(avant) : null,
+                apres != null ? dimensionsFormulaire(apres) : null);
+    }
+
+    /**
+     * Variation groupée d'une dimension, pour les mises à jour ensemblistes (updateMulti)
+     */
+    public void enregistrerTransitions(String snapshotId, String dimension, Map<String, Long> sorties, String valeurCible, long nombre) {
+        if (nombre == 0) return;
+        Map<String, Long> deltas = new HashMap<>();
+        sorties.forEach((valeur, n) -> deltas.merge(chemin(dimension, cle(valeur)), -n, Long::sum));
+        deltas.merge(chemin(dimension, cle(valeurCible)), nombre, Long::sum);
+        executer(snapshotId, deltas, 0);
+    }
+
+    private Map<String, String> dimensionsFicheQualite(FicheQualite fiche) {
+        String statut = cle(fiche.getStatut());
+        String type = cle(fiche.getTypeFiche());
+        return Map.of(DIM_STATUT, statut, DIM_TYPE, type, DIM_TYPE_STATUT, type + "|" + statut);
+    }
+
+    private Map<String, String> dimensionsFormulaire(FormulaireObligatoire formulaire) {
+        return Map.of(DIM_STATUT, cle(formulaire.getStatut()), DIM_PRIORITE, cle(formulaire.getPriorite()));
+    }
+
+    private void appliquer(String snapshotId, Map<String, String> avant, Map<String, String> apres) {
+        Map<String, Long> deltas = new HashMap<>();
+        if (avant != null) {
+            avant.forEach((dimension, valeur) -> deltas.merge(chemin(dimension, valeur), -1L, Long::sum));
+        }
+        if (apres != null) {
+            apres.forEach((dimension, valeur) -> deltas.merge(chemin(dimension, valeur), 1L, Long::sum));
+        }
+        long deltaTotal = (apres != null ? 1 : 0) - (avant != null ? 1 : 0);
+        executer(snapshotId, deltas, deltaTotal);
+    }
+
+    private void executer(String snapshotId, Map<String, Long> deltas, long deltaTotal) {
+        deltas.values().removeIf(v -> v == 0);
+        if (deltas.isEmpty() && deltaTotal == 0) return;
+
+        Update update = new Update().set("dateMiseAJour", new Date())
+                .inc("version", 1)
+                // Document créé par cet incrément : compteurs partiels jusqu'à la première reconstruction
+                .setOnInsert("complet", false);
+        if (deltaTotal != 0) {
+            update.inc("total", deltaTotal);
+        }
+        deltas.forEach(update::inc);
+        try {
+            mongoTemplate.upsert(Query.query(Criteria.where("_id").is(snapshotId)), update, KpiSnapshot.class);
+        } catch (Exception e) {
+            // La vue est réparable par reconstruction : ne pas faire échouer l'écriture métier
+            log.warn("Impossible de mettre à jour le snapshot KPI {}: {}", snapshotId, e.getMessage());
+        }
+    }
+
+    private String chemin(String dimension, String valeur) {
+        return "dimensions." + dimension + "." + valeur;
+    }
+
+    /**
+     * Normalise une valeur en clé de document MongoDB (ni '.', ni '$' initial)
+     */
+    private String cle(String valeur) {
+        if (valeur == null || valeur.isBlank()) return NON_DEFINI;
+        String cle = valeur.replace('.', '_');
+        return cle.startsWith("$") ? "_" + cle.substring(1) : cle;
+    }
+
+    private String cleComposee(String valeur) {
+        String[] parties = valeur.split("\\|", 2);
+        return cle(parties[0]) + "|" + cle(parties.length > 1 ? parties[1] : null);
+    }
+
+    // ===== Lectures =====
+
+    /**
+     * Récupère un snapshot (reconstruit à la volée s'il n'existe pas encore ou n'a jamais été reconstruit)
+     */
+    public KpiSnapshot getSnapshot(String snapshotId) {
+        KpiSnapshot snapshot = mongoTemplate.findById(snapshotId, KpiSnapshot.class);
+        return snapshot != null && snapshot.isComplet() ? snapshot : reconstruire(snapshotId);
+    }
+
+    public List<KpiSnapshot> getSnapshots() {
+        return List.of(getSnapshot(FICHES_QUALITE), getSnapshot(FICHES_SUIVI), getSnapshot(FORMULAIRES_OBLIGATOIRES));
+    }
+
+    public Map<String, Long> getRepartition(String snapshotId, String dimension) {
+        Map<String, Long> repartition = getSnapshot(snapshotId).getDimensions().get(dimension);
+        if (repartition == null) return new HashMap<>();
+        Map<String, Long> resultat = new HashMap<>(repartition);
+        resultat.values().removeIf(v -> v == null || v <= 0);
+        return resultat;
+    }
+
+    public long getTotal(String snapshotId) {
+        return getSnapshot(snapshotId).getTotal();
+    }
+
+    // ===== Reconstruction =====
+
+    /**
+     * Reconstruit tous les snapshots à partir des collections sources
+     */
+    public List<KpiSnapshot> reconstruireTout() {
+        log.info("Reconstruction complète des snapshots KPI");
+        return List.of(reconstruire(FICHES_QUALITE), reconstruire(FICHES_SUIVI), reconstruire(FORMULAIRES_OBLIGATOIRES));
+    }
+
+    /**
+     * Crée les snapshots manquants ou incomplets (démarrage de l'application)
+     */
+    public void initialiserSiAbsent() {
+        for (String snapshotId : List.of(FICHES_QUALITE, FICHES_SUIVI, FORMULAIRES_OBLIGATOIRES)) {
+            if (!mongoTemplate.exists(Query.query(Criteria.where("_id").is(snapshotId).and("complet").is(true)),
+                    KpiSnapshot.class)) {
+                reconstruire(snapshotId);
+            }
+        }
+    }
+
+    /**
+     * Remplace le snapshot par le résultat de l'agrégation seulement si sa version n'a pas changé entre-temps
+     * (sinon l'agrégation est refaite). Sous un flux d'écritures continu, la dernière tentative remplace
+     * sans condition : la dérive se limite alors aux écritures de cette fenêtre.
+     */
+    private KpiSnapshot reconstruire(String snapshotId) {
+        for (int tentative = 1; tentative < TENTATIVES_RECONSTRUCTION; tentative++) {
+            KpiSnapshot actuel = mongoTemplate.findById(snapshotId, KpiSnapshot.class);
+            KpiSnapshot snapshot = agreger(snapshotId, actuel);
+            try {
+                boolean remplace = actuel == null
+                        ? mongoTemplate.insert(snapshot) != null
+                        : mongoTemplate.findAndReplace(Query.query(Criteria.where("_id").is(snapshotId)
+                                .and("version").is(actuel.getVersion())), snapshot) != null;
+                if (remplace) {
+                    log.info("Snapshot KPI {} reconstruit ({} documents)", snapshotId, snapshot.getTotal());
+                    return snapshot;
+                }
+            } catch (DuplicateKeyException e) {
+                // Créé entre-temps par une mise à jour incrémentale
+            }
+            log.debug("Snapshot KPI {} modifié pendant la reconstruction, nouvelle tentative", snapshotId);
+        }
+        log.warn("Snapshot KPI {} : écritures concurrentes pendant {} reconstructions, remplacement sans condition",
+                snapshotId, TENTATIVES_RECONSTRUCTION);
+        KpiSnapshot snapshot = agreger(snapshotId, mongoTemplate.findById(snapshotId, KpiSnapshot.class));
+        return mongoTemplate.save(snapshot);
+    }
+
+    /**
+     * Compteurs recalculés depuis la collection source, en une agrégation $facet (version suivant celle d'actuel)
+     */
+    private KpiSnapshot agreger(String snapshotId, KpiSnapshot actuel) {
+        Map<String, AggregationExpression> dimensions = new LinkedHashMap<>();
+        switch (snapshotId) {
+            case FICHES_QUALITE:
+                dimensions.put(DIM_STATUT, valeurOuDefaut("statut"));
+                dimensions.put(DIM_TYPE, valeurOuDefaut("typeFiche"));
+                dimensions.put(DIM_TYPE_STATUT, StringOperators.valueOf(valeurOuDefaut("typeFiche"))
+                        .concat("|").concatValueOf(valeurOuDefaut("statut")));
+                break;
+            case FICHES_SUIVI:
+                dimensions.put(DIM_ETAT, valeurOuDefaut("etatAvancement"));
+                break;
+            case FORMULAIRES_OBLIGATOIRES:
+                dimensions.put(DIM_STATUT, valeurOuDefaut("statut"));
+                dimensions.put(DIM_PRIORITE, valeurOuDefaut("priorite"));
+                break;
+            default:
+                throw new IllegalArgumentException("Snapshot KPI inconnu: " + snapshotId);
+        }
+
+        // Une seule agrégation $facet : total + une facette par dimension
+        FacetOperation facet = Aggregation.facet(Aggregation.count().as("total")).as("total");
+        for (Map.Entry<String, AggregationExpression> dimension : dimensions.entrySet()) {
+            facet = facet.and(
+                    Aggregation.project().and(dimension.getValue()).as("cle"),
+                    Aggregation.group("cle").count().as("total")
+            ).as(dimension.getKey());
+        }
+        Document resultat = mongoTemplate.aggregate(Aggregation.newAggregation(facet), snapshotId, Document.class)
+                .getUniqueMappedResult();
+        if (resultat == null) resultat = new Document();
+
+        List<Document> totaux = resultat.getList("total", Document.class, Collections.emptyList());
+        Map<String, Map<String, Long>> repartitions = new HashMap<>();
+        for (String dimension : dimensions.keySet()) {
+            Map<String, Long> compteurs = new HashMap<>();
+            for (Document groupe : resultat.getList(dimension, Document.class, Collections.emptyList())) {
+                Object valeur = groupe.get("_id");
+                String cleGroupe = DIM_TYPE_STATUT.equals(dimension)
+                        ? cleComposee(valeur.toString())
+                        : cle(valeur != null ? valeur.toString() : null);
+                compteurs.merge(cleGroupe,
+                        ((Number) groupe.get("total")).longValue(), Long::sum);
+            }
+            repartitions.put(dimension, compteurs);
+        }
+
+        Date maintenant = new Date();
+        return KpiSnapshot.builder()
+                .id(snapshotId)
+                .total(totaux.isEmpty() ? 0L : ((Number) totaux.get(0).get("total")).longValue())
+                .dimensions(repartitions)
+                .dateMiseAJour(maintenant)
+                .dateReconstruction(maintenant)
+                .version(actuel != null ? actuel.getVersion() + 1 : 0)
+                .complet(true)
+                .build();
+    }
+
+    private AggregationExpression valeurOuDefaut(String champ) {
+        return ConditionalOperators.ifNull(champ).then(NON_DEFINI);
+    }
+}
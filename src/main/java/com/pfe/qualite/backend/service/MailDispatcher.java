@@ -0,0 +1,302 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.MessageMail;
+import com.pfe.qualite.backend.util.TokenBucket;
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import jakarta.mail.MessagingException;
+import jakarta.mail.SendFailedException;
+import jakarta.mail.Transport;
+import jakarta.mail.internet.AddressException;
+import jakarta.mail.internet.MimeMessage;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ByteArrayResource;
+import org.springframework.mail.MailException;
+import org.springframework.mail.javamail.JavaMailSender;
+import org.springframework.mail.javamail.JavaMailSenderImpl;
+import org.springframework.mail.javamail.MimeMessageHelper;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Moteur d'envoi des emails : file bornée consommée par un pool de workers.
+ * Chaque worker garde sa connexion SMTP (Transport) ouverte entre deux envois et la ferme après inactivité.
+ * Le débit global est limité par un seau de jetons ; les échecs temporaires sont réessayés avec backoff exponentiel.
+ * En mode LOG, les emails sont construits puis journalisés sans connexion SMTP (développement, tests).
+ */
+@Service
+@Slf4j
+public class MailDispatcher {
+
+    public enum Mode {
+        SMTP,
+        LOG
+    }
+
+    private static class Envoi {
+        final MessageMail message;
+        final CompletableFuture<Void> resultat = new CompletableFuture<>();
+        int tentatives;
+
+        Envoi(MessageMail message) {
+            this.message = message;
+        }
+    }
+
+    @Autowired
+    private JavaMailSender mailSender;
+
+    @Autowired
+    @Qualifier("mailExecutor")
+    private ThreadPoolTaskExecutor mailExecutor;
+
+    @Value("${mail.mode:SMTP}")
+    private Mode mode;
+
+    @Value("${mail.pool.workers:4}")
+    private int nombreWorkers;
+
+    @Value("${mail.queue.capacite:10000}")
+    private int capacite;
+
+    @Value("${mail.rate.par-seconde:10}")
+    private double debitParSeconde;
+
+    @Value("${mail.rate.rafale:20}")
+    private int rafale;
+
+    @Value("${mail.retry.max:3}")
+    private int reessaisMax;
+
+    @Value("${mail.retry.backoff-ms:2000}")
+    private long backoffMs;
+
+    @Value("${mail.transport.inactivite-ms:30000}")
+    private long inactiviteMs;
+
+    @Value("${app.mail.from:noreply@qualite-app.com}")
+    private String expediteur;
+
+    private BlockingQueue<Envoi> file;
+    private TokenBucket limiteur;
+    private ScheduledExecutorService planificateurReessais;
+    private final List<Future<?>> workers = new ArrayList<>();
+    private CountDownLatch workersTermines;
+    private volatile boolean actif;
+
+    // Métriques
+    private final AtomicLong soumis = new AtomicLong();
+    private final AtomicLong envoyes = new AtomicLong();
+    private final AtomicLong echecs = new AtomicLong();
+    private final AtomicLong reessais = new AtomicLong();
+    private final AtomicLong rejetes = new AtomicLong();
+    private final AtomicInteger transportsOuverts = new AtomicInteger();
+
+    @PostConstruct
+    public void demarrer() {
+        file = new ArrayBlockingQueue<>(capacite);
+        limiteur = new TokenBucket(debitParSeconde, rafale);
+        planificateurReessais = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "mail-retry");
+            t.setDaemon(true);
+            return t;
+        });
+        actif = true;
+        workersTermines = new CountDownLatch(nombreWorkers);
+        for (int i = 0; i < nombreWorkers; i++) {
+            workers.add(mailExecutor.submit(this::boucleEnvoi));
+        }
+        log.info("Envoi des emails démarré (mode {}, {} workers, {} emails/s, rafale {}, {} réessais)",
+                mode, nombreWorkers, debitParSeconde, rafale, reessaisMax);
+    }
+
+    @PreDestroy
+    public void arreter() {
+        actif = false;
+        planificateurReessais.shutdownNow();
+        workers.forEach(worker -> worker.cancel(true));
+        try {
+            workersTermines.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<Envoi> restants = new ArrayList<>();
+        file.drainTo(restants);
+        restants.forEach(e -> e.resultat.completeExceptionally(new IllegalStateException("Arrêt de l'application")));
+        if (!restants.isEmpty()) {
+            log.warn("{} emails non envoyés à l'arrêt", restants.size());
+        }
+    }
+
+    /**
+     * Place un email dans la file d'envoi ; le résultat est complété après l'envoi (ou l'échec définitif)
+     */
+    public CompletableFuture<Void> envoyer(MessageMail message) {
+        soumis.incrementAndGet();
+        Envoi envoi = new Envoi(message);
+        if (!actif || !file.offer(envoi)) {
+            rejetes.incrementAndGet();
+            log.warn("File d'envoi des emails pleine : email à {} rejeté", message.getDestinataire());
+            envoi.resultat.completeExceptionally(new RejectedExecutionException("File d'envoi des emails pleine"));
+        }
+        return envoi.resultat;
+    }
+
+    /**
+     * Emails pouvant encore être placés dans la file sans rejet
+     */
+    public int placesLibres() {
+        return file.remainingCapacity();
+    }
+
+    /**
+     * Nombre d'emails envoyés en dureeMs au débit configuré
+     */
+    public long capaciteSur(long dureeMs) {
+        return (long) (debitParSeconde * dureeMs / 1000);
+    }
+
+    /**
+     * Métriques du moteur d'envoi
+     */
+    public Map<String, Object> getMetriques() {
+        Map<String, Object> metriques = new LinkedHashMap<>();
+        metriques.put("mode", mode.name());
+        metriques.put("workers", nombreWorkers);
+        metriques.put("profondeur", file.size());
+        metriques.put("capacite", capacite);
+        metriques.put("soumis", soumis.get());
+        metriques.put("envoyes", envoyes.get());
+        metriques.put("echecs", echecs.get());
+        metriques.put("reessais", reessais.get());
+        metriques.put("rejetes", rejetes.get());
+        metriques.put("transportsOuverts", transportsOuverts.get());
+        return metriques;
+    }
+
+    private void boucleEnvoi() {
+        Transport transport = null;
+        try {
+            while (actif) {
+                Envoi envoi = file.poll(inactiviteMs, TimeUnit.MILLISECONDS);
+                if (envoi == null) {
+                    // Inactivité : libérer la connexion SMTP
+                    transport = fermer(transport);
+                    continue;
+                }
+                limiteur.acquerir();
+                try {
+                    transport = envoyer(envoi.message, transport);
+                    envoyes.incrementAndGet();
+                    envoi.resultat.complete(null);
+                } catch (MessagingException | MailException | IllegalArgumentException e) {
+                    // La connexion peut être dans un état incertain : on la rouvrira au prochain envoi
+                    transport = fermer(transport);
+                    traiterEchec(envoi, e);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            fermer(transport);
+            workersTermines.countDown();
+        }
+    }
+
+    private Transport envoyer(MessageMail message, Transport transport) throws MessagingException {
+        MimeMessage mime = construire(message);
+        if (mode == Mode.LOG) {
+            log.info("[mail.mode=LOG] Email à {} : {}", message.getDestinataire(), message.getSujet());
+            return transport;
+        }
+        if (!(mailSender instanceof JavaMailSenderImpl)) {
+            mailSender.send(mime);
+            return transport;
+        }
+        JavaMailSenderImpl impl = (JavaMailSenderImpl) mailSender;
+        if (transport == null || !transport.isConnected()) {
+            fermer(transport);
+            transport = impl.getSession().getTransport(impl.getProtocol() != null ? impl.getProtocol() : "smtp");
+            transport.connect(impl.getHost(), impl.getPort(), impl.getUsername(), impl.getPassword());
+            transportsOuverts.incrementAndGet();
+        }
+        mime.saveChanges();
+        transport.sendMessage(mime, mime.getAllRecipients());
+        return transport;
+    }
+
+    private MimeMessage construire(MessageMail message) throws MessagingException {
+        if (message.getDestinataire() == null || message.getDestinataire().isBlank()) {
+            throw new IllegalArgumentException("Destinataire manquant");
+        }
+        MimeMessage mime = mailSender.createMimeMessage();
+        boolean multipart = message.getPieceJointe() != null;
+        MimeMessageHelper helper = new MimeMessageHelper(mime, multipart, "UTF-8");
+        helper.setTo(message.getDestinataire());
+        helper.setSubject(message.getSujet());
+        helper.setText(message.getCorps() != null ? message.getCorps() : "", message.isHtml());
+        if (expediteur != null && !expediteur.isBlank()) {
+            helper.setFrom(expediteur);
+        }
+        if (multipart) {
+            helper.addAttachment(message.getNomPieceJointe(), new ByteArrayResource(message.getPieceJointe()));
+        }
+        return mime;
+    }
+
+    private void traiterEchec(Envoi envoi, Exception e) {
+        envoi.tentatives++;
+        if (estDefinitif(e) || envoi.tentatives > reessaisMax || !actif) {
+            echecs.incrementAndGet();
+            log.error("Échec de l'envoi de l'email à {} après {} tentative(s): {}",
+                    envoi.message.getDestinataire(), envoi.tentatives, e.getMessage());
+            envoi.resultat.completeExceptionally(e);
+            return;
+        }
+        reessais.incrementAndGet();
+        long delai = backoffMs * (1L << (envoi.tentatives - 1))
+                + ThreadLocalRandom.current().nextLong(backoffMs / 2 + 1);
+        log.warn("Envoi de l'email à {} en échec ({}), nouvel essai dans {} ms",
+                envoi.message.getDestinataire(), e.getMessage(), delai);
+        try {
+            planificateurReessais.schedule(() -> {
+                if (!file.offer(envoi)) {
+                    rejetes.incrementAndGet();
+                    envoi.resultat.completeExceptionally(new RejectedExecutionException("File d'envoi des emails pleine"));
+                }
+            }, delai, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException arret) {
+            envoi.resultat.completeExceptionally(e);
+        }
+    }
+
+    /**
+     * Adresse invalide ou message mal formé : inutile de réessayer
+     */
+    private boolean estDefinitif(Exception e) {
+        return e instanceof IllegalArgumentException
+                || e instanceof AddressException
+                || (e instanceof SendFailedException && ((SendFailedException) e).getInvalidAddresses() != null
+                    && ((SendFailedException) e).getInvalidAddresses().length > 0);
+    }
+
+    private Transport fermer(Transport transport) {
+        if (transport != null) {
+            try {
+                transport.close();
+            } catch (MessagingException e) {
+                log.debug("Fermeture de la connexion SMTP: {}", e.getMessage());
+            }
+            transportsOuverts.decrementAndGet();
+        }
+        return null;
+    }
+}
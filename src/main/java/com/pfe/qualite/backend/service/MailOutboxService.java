@@ -0,0 +1,228 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.MailOutbox;
+import com.pfe.qualite.backend.model.MessageMail;
+import com.pfe.qualite.backend.util.InstanceApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.BulkOperationException;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.util.*;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Outbox des emails (collection mail_outbox)
+ * Les services métier planifient un email avec une clé d'idempotence au moment de la modification ;
+ * le distributeur réclame les emails dus par findAndModify (bail) et les confie au MailDispatcher.
+ * Plusieurs instances peuvent distribuer en parallèle : un email n'est réclamé que par une seule à la fois.
+ * Si une instance s'arrête avant d'avoir confirmé l'envoi, le bail expire et l'email est redistribué
+ * (livraison au moins une fois).
+ * Contre-pression : une instance ne réclame pas plus d'emails que le pool d'envoi ne peut en envoyer
+ * en une demi-durée de bail, pour qu'un email réclamé ne soit jamais redistribué faute d'avoir été envoyé à temps.
+ */
+@Service
+@Slf4j
+public class MailOutboxService {
+
+    private static final int CODE_CLE_DUPLIQUEE = 11000;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private MailDispatcher mailDispatcher;
+
+    @Value("${outbox.lot:100}")
+    private int tailleLot;
+
+    @Value("${outbox.bail-ms:300000}")
+    private long dureeBailMs;
+
+    @Value("${outbox.tentatives-max:5}")
+    private int tentativesMax;
+
+    @Value("${outbox.backoff-ms:60000}")
+    private long backoffMs;
+
+    // 0 = débit d'envoi x demi-durée du bail
+    @Value("${outbox.en-vol-max:0}")
+    private int enVolMax;
+
+    private final String instance = InstanceApplication.ID;
+
+    // Emails réclamés par cette instance et pas encore confirmés ni en échec
+    private final AtomicInteger enVol = new AtomicInteger();
+
+    /**
+     * Planifie un email ; retourne false si un email avec la même clé a déjà été planifié
+     */
+    public boolean planifier(String cleIdempotence, String type, MessageMail message) {
+        if (message.getDestinataire() == null || message.getDestinataire().isBlank()) {
+            log.warn("Email {} sans destinataire ignoré ({})", type, cleIdempotence);
+            return false;
+        }
+        try {
+            mongoTemplate.insert(nouveau(cleIdempotence, type, message, new Date()));
+            return true;
+        } catch (DuplicateKeyException e) {
+            log.debug("Email {} déjà planifié", cleIdempotence);
+            return false;
+        }
+    }
+
+    /**
+     * Planifie un lot d'emails en une insertion non ordonnée (clé d'idempotence -> message) ;
+     * les clés déjà planifiées sont ignorées. Retourne le nombre d'emails effectivement ajoutés.
+     */
+    public int planifierLot(String type, Map<String, MessageMail> messagesParCle) {
+        Date maintenant = new Date();
+        List<MailOutbox> mails = new ArrayList<>(messagesParCle.size());
+        messagesParCle.forEach((cle, message) -> {
+            if (message.getDestinataire() != null && !message.getDestinataire().isBlank()) {
+                mails.add(nouveau(cle, type, message, maintenant));
+            }
+        });
+        if (mails.isEmpty()) return 0;
+        try {
+            return mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, MailOutbox.class)
+                    .insert(mails)
+                    .execute()
+                    .getInsertedCount();
+        } catch (BulkOperationException e) {
+            boolean seulementDoublons = e.getErrors().stream().allMatch(err -> err.getCode() == CODE_CLE_DUPLIQUEE);
+            if (!seulementDoublons) throw e;
+            return e.getResult().getInsertedCount();
+        }
+    }
+
+    private MailOutbox nouveau(String cleIdempotence, String type, MessageMail message, Date maintenant) {
+        return MailOutbox.builder()
+                .cleIdempotence(cleIdempotence != null ? cleIdempotence : type + ":" + UUID.randomUUID())
+                .type(type)
+                .destinataire(message.getDestinataire())
+                .sujet(message.getSujet())
+                .corps(message.getCorps())
+                .html(message.isHtml())
+                .statut(MailOutbox.EN_ATTENTE)
+                .prochainEssai(maintenant)
+                .dateCreation(maintenant)
+                .build();
+    }
+
+    /**
+     * Réclame les emails dus (en attente ou dont le bail a expiré) et les confie au pool d'envoi,
+     * dans la limite de ce qu'il peut absorber (file d'envoi et emails déjà en vol)
+     */
+    @Scheduled(fixedDelayString = "${outbox.poll-ms:2000}")
+    public void distribuer() {
+        int places = Math.min(tailleLot, Math.min(limiteEnVol() - enVol.get(), mailDispatcher.placesLibres()));
+        int distribues = 0;
+        MailOutbox mail;
+        while (distribues < places && (mail = reclamer()) != null) {
+            distribues++;
+            enVol.incrementAndGet();
+            MailOutbox reclame = mail;
+            mailDispatcher.envoyer(MessageMail.builder()
+                            .destinataire(reclame.getDestinataire())
+                            .sujet(reclame.getSujet())
+                            .corps(reclame.getCorps())
+                            .html(reclame.isHtml())
+                            .build())
+                    .whenComplete((ok, e) -> {
+                        enVol.decrementAndGet();
+                        if (e == null) {
+                            confirmerEnvoi(reclame);
+                        } else {
+                            enregistrerEchec(reclame, e);
+                        }
+                    });
+        }
+        if (distribues > 0) {
+            log.info("Outbox : {} emails confiés au pool d'envoi", distribues);
+        }
+    }
+
+    private int limiteEnVol() {
+        return enVolMax > 0 ? enVolMax : (int) Math.max(1, mailDispatcher.capaciteSur(dureeBailMs / 2));
+    }
+
+    /**
+     * Compteurs par statut
+     */
+    public Map<String, Long> getStatistiques() {
+        Map<String, Long> statistiques = new LinkedHashMap<>();
+        for (String statut : List.of(MailOutbox.EN_ATTENTE, MailOutbox.EN_COURS, MailOutbox.ENVOYE, MailOutbox.ECHEC)) {
+            statistiques.put(statut, mongoTemplate.count(Query.query(Criteria.where("statut").is(statut)), MailOutbox.class));
+        }
+        return statistiques;
+    }
+
+    private MailOutbox reclamer() {
+        Date maintenant = new Date();
+        Query query = Query.query(Criteria.where("statut").in(MailOutbox.EN_ATTENTE, MailOutbox.EN_COURS)
+                        .and("prochainEssai").lte(maintenant))
+                .with(Sort.by(Sort.Direction.ASC, "prochainEssai"));
+        Update update = new Update()
+                .set("statut", MailOutbox.EN_COURS)
+                .set("proprietaireBail", instance)
+                .set("prochainEssai", new Date(maintenant.getTime() + dureeBailMs))
+                .inc("tentatives", 1);
+        return mongoTemplate.findAndModify(query, update, FindAndModifyOptions.options().returnNew(true), MailOutbox.class);
+    }
+
+    private void confirmerEnvoi(MailOutbox mail) {
+        // Le corps est purgé : il peut contenir un mot de passe temporaire
+        mongoTemplate.updateFirst(bailDetenu(mail),
+                new Update()
+                        .set("statut", MailOutbox.ENVOYE)
+                        .set("dateEnvoi", new Date())
+                        .unset("corps")
+                        .unset("prochainEssai")
+                        .unset("proprietaireBail")
+                        .unset("derniereErreur"),
+                MailOutbox.class);
+    }
+
+    private void enregistrerEchec(MailOutbox mail, Throwable e) {
+        Throwable cause = e.getCause() != null ? e.getCause() : e;
+        Update update = new Update().set("derniereErreur", cause.getMessage()).unset("proprietaireBail");
+        if (cause instanceof RejectedExecutionException) {
+            // Refus du pool (file pleine, arrêt) : l'email n'a pas été tenté, la tentative est rendue
+            update.set("statut", MailOutbox.EN_ATTENTE).set("prochainEssai", new Date()).inc("tentatives", -1);
+        } else if (mail.getTentatives() >= tentativesMax) {
+            // Le corps est purgé comme après un envoi (mot de passe temporaire) ; l'entrée expire après 90 jours
+            update.set("statut", MailOutbox.ECHEC)
+                    .set("dateAbandon", new Date())
+                    .unset("corps")
+                    .unset("prochainEssai");
+            log.error("Outbox : abandon de l'email {} à {} après {} tentatives",
+                    mail.getCleIdempotence(), mail.getDestinataire(), mail.getTentatives());
+        } else {
+            long delai = backoffMs * (1L << Math.min(mail.getTentatives() - 1, 10));
+            update.set("statut", MailOutbox.EN_ATTENTE).set("prochainEssai", new Date(System.currentTimeMillis() + delai));
+        }
+        mongoTemplate.updateFirst(bailDetenu(mail), update, MailOutbox.class);
+    }
+
+    /**
+     * Ne modifie l'email que si cette instance détient encore le bail (sinon il a été redistribué)
+     */
+    private Query bailDetenu(MailOutbox mail) {
+        return Query.query(Criteria.where("_id").is(mail.getId())
+                .and("statut").is(MailOutbox.EN_COURS)
+                .and("proprietaireBail").is(instance)
+                .and("tentatives").is(mail.getTentatives()));
+    }
+}
@@ -1,36 +1,52 @@
 package com.pfe.qualite.backend.service;
 
+import com.pfe.qualite.backend.model.MessageMail;
 import lombok.RequiredArgsConstructor;
-import org.springframework.beans.factory.annotation.Value;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.mail.javamail.JavaMailSender;
 import org.springframework.stereotype.Service;
-import org.springframework.scheduling.annotation.Async;
 
 import java.util.Date;
+import java.util.concurrent.CompletableFuture;
 
 @Service
 @RequiredArgsConstructor
 public class MailService {
 
-    private final JavaMailSender mailSender;
-    @Value("${app.mail.from:}")
-    private String defaultFrom;
-
-    @Async
-    public void sendEmail(String to, String subject, String body) {
-        System.out.println("📨 Envoi de l'e-mail à " + to);
-        SimpleMailMessage message = new SimpleMailMessage();
-        message.setTo(to);
-        if (defaultFrom != null && !defaultFrom.isBlank()) {
-            message.setFrom(defaultFrom);
-        }
-        message.setSubject(subject);
-        message.setText(body);
-        mailSender.send(message);
+    private final MailDispatcher mailDispatcher;
+    private final MailOutboxService mailOutboxService;
+
+    /**
+     * Place l'e-mail dans la file d'envoi (expéditeur : app.mail.from)
+     */
+    public CompletableFuture<Void> sendEmail(String to, String subject, String body) {
+        return mailDispatcher.envoyer(MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(body)
+                .build());
+    }
+
+    /**
+     * Planifie l'e-mail dans l'outbox (envoi durable, une seule fois par clé d'idempotence)
+     */
+    public boolean planifierEmail(String cleIdempotence, String type, String to, String subject, String body) {
+        return mailOutboxService.planifier(cleIdempotence, type, MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(body)
+                .build());
     }
 
-    public void envoyerEmailRetard(String to, String nomFormulaire, Date dateEcheance) {
+    /**
+     * Planifie l'e-mail de retard d'un formulaire obligatoire
+     */
+    public boolean envoyerEmailRetard(String cleIdempotence, String to, String nomFormulaire, Date dateEcheance) {
+        return mailOutboxService.planifier(cleIdempotence, "FORMULAIRE_RETARD", messageRetard(to, nomFormulaire, dateEcheance));
+    }
+
+    /**
+     * Contenu de l'e-mail de retard d'un formulaire obligatoire
+     */
+    public MessageMail messageRetard(String to, String nomFormulaire, Date dateEcheance) {
         String subject = "⚠️ Formulaire obligatoire en retard";
         String body = String.format(
             "Bonjour,\n\n" +
@@ -42,7 +58,31 @@ public class MailService {
             nomFormulaire,
             dateEcheance.toString()
         );
-        sendEmail(to, subject, body);
+        return MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(body)
+                .build();
     }
 
+    /**
+     * Contenu de l'e-mail d'échéance proche d'un formulaire obligatoire
+     */
+    public MessageMail messageEcheanceProche(String to, String nomFormulaire, Date dateEcheance) {
+        String subject = "⚠️ Échéance proche - " + nomFormulaire;
+        String body = String.format(
+            "Bonjour,\n\n" +
+            "Le formulaire obligatoire '%s' arrive à échéance le %s.\n" +
+            "Veuillez le compléter dans les plus brefs délais.\n\n" +
+            "Cordialement,\n" +
+            "Système de Suivi Qualité",
+            nomFormulaire,
+            dateEcheance.toString()
+        );
+        return MessageMail.builder()
+                .destinataire(to)
+                .sujet(subject)
+                .corps(body)
+                .build();
+    }
 }
@@ -1,5 +1,6 @@
 package com.pfe.qualite.backend.service;
 
+import com.pfe.qualite.backend.model.MessageMail;
 import com.pfe.qualite.backend.model.Notification;
 import com.pfe.qualite.backend.repository.NotificationRepository;
 import lombok.RequiredArgsConstructor;
@@ -12,7 +13,7 @@ import org.springframework.stereotype.Service;
 public class NotificationService {
 
     private final NotificationRepository notificationRepository;
-    private final EmailService emailService;
+    private final MailOutboxService mailOutboxService;
     private static final Logger logger = LoggerFactory.getLogger(NotificationService.class);
 
     /**
@@ -45,10 +46,10 @@ public class NotificationService {
     }
 
     /**
-     * Envoyer un email de bienvenue avec mot de passe temporaire
+     * Planifier l'email de bienvenue avec mot de passe temporaire (un seul par utilisateur)
      */
-    public void envoyerEmailBienvenue(String email, String nom, String motDePasseTemporaire) {
-        logger.info("Envoi email de bienvenue à: {}", email);
+    public void envoyerEmailBienvenue(String utilisateurId, String email, String nom, String motDePasseTemporaire) {
+        logger.info("Planification de l'email de bienvenue à: {}", email);
         
         try {
             String sujet = "Bienvenue sur l'application Qualité Pro";
@@ -64,20 +65,20 @@ public class NotificationService {
                 nom, email, motDePasseTemporaire
             );
             
-            emailService.envoyerEmail(email, sujet, corps);
-            logger.info("Email de bienvenue envoyé avec succès à: {}", email);
+            mailOutboxService.planifier("bienvenue:" + utilisateurId, "BIENVENUE",
+                    MessageMail.builder().destinataire(email).sujet(sujet).corps(corps).build());
             
         } catch (Exception e) {
-            logger.error("Erreur lors de l'envoi de l'email de bienvenue", e);
+            logger.error("Erreur lors de la planification de l'email de bienvenue", e);
             // Ne pas bloquer la création du compte si l'email échoue
         }
     }
 
     /**
-     * Envoyer un email de réinitialisation de mot de passe
+     * Planifier l'email de réinitialisation de mot de passe (clé : une réinitialisation donnée)
      */
-    public void envoyerEmailResetPassword(String email, String nom, String nouveauMotDePasse) {
-        logger.info("Envoi email de réinitialisation de mot de passe à: {}", email);
+    public void envoyerEmailResetPassword(String cleReinitialisation, String email, String nom, String nouveauMotDePasse) {
+        logger.info("Planification de l'email de réinitialisation de mot de passe à: {}", email);
         
         try {
             String sujet = "Réinitialisation de votre mot de passe";
@@ -91,11 +92,11 @@ public class NotificationService {
                 nom, nouveauMotDePasse
             );
             
-            emailService.envoyerEmail(email, sujet, corps);
-            logger.info("Email de réinitialisation envoyé avec succès à: {}", email);
+            mailOutboxService.planifier("reset-password:" + cleReinitialisation, "RESET_PASSWORD",
+                    MessageMail.builder().destinataire(email).sujet(sujet).corps(corps).build());
             
         } catch (Exception e) {
-            logger.error("Erreur lors de l'envoi de l'email de réinitialisation", e);
+            logger.error("Erreur lors de la planification de l'email de réinitialisation", e);
             // Ne pas bloquer la réinitialisation si l'email échoue
         }
     }
@@ -0,0 +1,199 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.PageCurseur;
+import lombok.RequiredArgsConstructor;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mapping.PersistentPropertyAccessor;
+import org.springframework.data.mapping.PropertyHandler;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentEntity;
+import org.springframework.data.mongodb.core.mapping.MongoPersistentProperty;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.stereotype.Service;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.regex.Pattern;
+
+/**
+ * Pagination par curseur (keyset) commune aux listes : tri décroissant sur un champ date puis _id,
+ * taille de page plafonnée, curseur opaque et projection optionnelle des champs.
+ * Chaque page coûte une requête indexable limitée à taille + 1 documents, quelle que soit sa position.
+ */
+@Service
+@RequiredArgsConstructor
+public class PaginationService {
+
+    public static final int TAILLE_DEFAUT = 50;
+    public static final int TAILLE_MAX = 200;
+
+    private static final String ID = "_id";
+    private static final Pattern NOM_CHAMP = Pattern.compile("[A-Za-z][A-Za-z0-9_]*");
+
+    private final MongoTemplate mongoTemplate;
+
+    public <T> PageCurseur<T> paginer(Class<T> type, Criteria filtre, String champTri,
+                                      String curseur, Integer taille, String champs) {
+        return paginer(type, filtre, champTri, curseur, taille, champs, Collections.emptySet());
+    }
+
+    /**
+     * @param filtre      critères métier (null : aucun)
+     * @param champTri    champ de tri décroissant (null : _id seul)
+     * @param curseur     curseur renvoyé par la page précédente (null : première page)
+     * @param champs      champs à retourner séparés par des virgules (null : tous)
+     * @param champsExclus champs jamais retournés (ex: password)
+     */
+    public <T> PageCurseur<T> paginer(Class<T> type, Criteria filtre, String champTri, String curseur,
+                                      Integer taille, String champs, Set<String> champsExclus) {
+        String tri = champTri != null ? champTri : ID;
+        int tailleEffective = taille != null ? Math.max(1, Math.min(taille, TAILLE_MAX)) : TAILLE_DEFAUT;
+
+        List<Criteria> criteres = new ArrayList<>();
+        if (filtre != null) {
+            criteres.add(filtre);
+        }
+        if (curseur != null && !curseur.isBlank()) {
+            criteres.add(apresPosition(tri, decoderCurseur(curseur)));
+        }
+        Query query = new Query(criteres.isEmpty() ? new Criteria() : new Criteria().andOperator(criteres));
+        query.with(ID.equals(tri)
+                ? Sort.by(Sort.Direction.DESC, ID)
+                : Sort.by(Sort.Direction.DESC, tri).and(Sort.by(Sort.Direction.DESC, ID)));
+        query.limit(tailleEffective + 1);
+        Set<String> projetes = appliquerProjection(query, tri, champs, champsExclus);
+
+        // Lecture brute : les valeurs du curseur sont prises telles que stockées (Date, ObjectId)
+        List<Document> documents = mongoTemplate.find(query, Document.class, mongoTemplate.getCollectionName(type));
+
+        String curseurSuivant = null;
+        if (documents.size() > tailleEffective) {
+            documents = documents.subList(0, tailleEffective);
+            Document dernier = documents.get(tailleEffective - 1);
+            curseurSuivant = encoderCurseur(ID.equals(tri) ? null : dernier.get(tri), dernier.get(ID));
+        }
+
+        MongoPersistentEntity<?> entite = mongoTemplate.getConverter().getMappingContext().getRequiredPersistentEntity(type);
+        List<T> elements = new ArrayList<>(documents.size());
+        for (Document document : documents) {
+            T element = mongoTemplate.getConverter().read(type, document);
+            if (projetes != null) {
+                effacerNonProjetes(entite, element, projetes);
+            }
+            elements.add(element);
+        }
+        return new PageCurseur<>(elements, curseurSuivant, tailleEffective);
+    }
+
+    /**
+     * Champs demandés par le client, validés (null : pas de projection, tous les champs)
+     */
+    public static Set<String> champsDemandes(String champs) {
+        if (champs == null || champs.isBlank()) {
+            return null;
+        }
+        Set<String> demandes = new LinkedHashSet<>();
+        for (String champ : champs.split(",")) {
+            String nom = champ.trim();
+            if (nom.isEmpty()) continue;
+            if (!NOM_CHAMP.matcher(nom).matches()) {
+                throw new IllegalArgumentException("Champ de projection invalide: " + nom);
+            }
+            demandes.add(nom);
+        }
+        return demandes;
+    }
+
+    /**
+     * Les champs absents du document gardent sinon la valeur par défaut du constructeur
+     * (ex: statut A_FAIRE d'une tâche) : ils sont remis à null pour ne pas renvoyer de valeurs inventées
+     */
+    private void effacerNonProjetes(MongoPersistentEntity<?> entite, Object element, Set<String> projetes) {
+        PersistentPropertyAccessor<Object> acces = entite.getPropertyAccessor(element);
+        entite.doWithProperties((PropertyHandler<MongoPersistentProperty>) propriete -> {
+            if (!propriete.isIdProperty() && !propriete.isImmutable() && !propriete.getType().isPrimitive()
+                    && !projetes.contains(propriete.getFieldName())) {
+                acces.setProperty(propriete, null);
+            }
+        });
+    }
+
+    /**
+     * Documents situés strictement après (valeur, id) dans l'ordre décroissant ;
+     * les documents sans valeur de tri viennent en dernier
+     */
+    private Criteria apresPosition(String tri, Object[] position) {
+        Object valeur = position[0];
+        Object id = position[1];
+        if (ID.equals(tri)) {
+            return Criteria.where(ID).lt(id);
+        }
+        if (valeur == null) {
+            return new Criteria().andOperator(Criteria.where(tri).is(null), Criteria.where(ID).lt(id));
+        }
+        return new Criteria().orOperator(
+                Criteria.where(tri).lt(valeur),
+                new Criteria().andOperator(Criteria.where(tri).is(valeur), Criteria.where(ID).lt(id)),
+                Criteria.where(tri).is(null)
+        );
+    }
+
+    /**
+     * @return les champs projetés, ou null si les documents sont lus en entier (hors champs exclus)
+     */
+    private Set<String> appliquerProjection(Query query, String tri, String champs, Set<String> champsExclus) {
+        Set<String> inclus = champsDemandes(champs);
+        if (inclus != null) {
+            inclus.removeAll(champsExclus);
+            inclus.add(tri);
+            query.fields().include(inclus.toArray(new String[0]));
+        } else if (!champsExclus.isEmpty()) {
+            query.fields().exclude(champsExclus.toArray(new String[0]));
+        }
+        return inclus;
+    }
+
+    // ===== Curseur opaque : base64url("type:valeur|type:id") =====
+
+    private String encoderCurseur(Object valeur, Object id) {
+        String brut = encoderValeur(valeur) + "|" + encoderValeur(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(brut.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Object[] decoderCurseur(String curseur) {
+        try {
+            String brut = new String(Base64.getUrlDecoder().decode(curseur), StandardCharsets.UTF_8);
+            String[] parties = brut.split("\\|", -1);
+            if (parties.length != 2) {
+                throw new IllegalArgumentException();
+            }
+            return new Object[] { decoderValeur(parties[0]), decoderValeur(parties[1]) };
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Curseur de pagination invalide");
+        }
+    }
+
+    private String encoderValeur(Object valeur) {
+        if (valeur == null) return "N:";
+        if (valeur instanceof Date) return "D:" + ((Date) valeur).getTime();
+        if (valeur instanceof ObjectId) return "O:" + ((ObjectId) valeur).toHexString();
+        if (valeur instanceof Long || valeur instanceof Integer) return "L:" + valeur;
+        return "S:" + Base64.getUrlEncoder().withoutPadding()
+                .encodeToString(valeur.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    private Object decoderValeur(String encodee) {
+        String contenu = encodee.substring(2);
+        switch (encodee.substring(0, 2)) {
+            case "N:": return null;
+            case "D:": return new Date(Long.parseLong(contenu));
+            case "O:": return new ObjectId(contenu);
+            case "L:": return Long.parseLong(contenu);
+            case "S:": return new String(Base64.getUrlDecoder().decode(contenu), StandardCharsets.UTF_8);
+            default: throw new IllegalArgumentException("Type de curseur inconnu");
+        }
+    }
+}
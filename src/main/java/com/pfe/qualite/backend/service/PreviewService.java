@@ -0,0 +1,245 @@
+package com.pfe.qualite.backend.service;
+
+import com.itextpdf.kernel.pdf.PdfDocument;
+import com.itextpdf.kernel.pdf.PdfReader;
+import com.itextpdf.kernel.pdf.canvas.parser.EventType;
+import com.itextpdf.kernel.pdf.canvas.parser.PdfCanvasProcessor;
+import com.itextpdf.kernel.pdf.canvas.parser.data.IEventData;
+import com.itextpdf.kernel.pdf.canvas.parser.data.ImageRenderInfo;
+import com.itextpdf.kernel.pdf.canvas.parser.listener.IEventListener;
+import com.itextpdf.kernel.pdf.xobject.PdfImageXObject;
+import com.pfe.qualite.backend.model.Attachment;
+import com.pfe.qualite.backend.service.storage.BlobStore;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+import java.util.Iterator;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Génération asynchrone des miniatures des pièces jointes (images et PDF)
+ * La miniature dépend uniquement du contenu : elle est rangée sous apercus/ab/empreinte.jpg dans le même support
+ * que les fichiers et partagée par toutes les pièces jointes de même contenu.
+ * Images : décodage sous-échantillonné (la pleine résolution d'un scan n'est jamais chargée en mémoire).
+ * PDF : iText ne sait pas rastériser une page ; la miniature est tirée de la plus grande image de la page 1
+ * (cas des documents scannés). Les PDF purement vectoriels n'ont pas de miniature.
+ * Cette image est décodée en pleine résolution : au-delà de preview.pdf.pixels-max pixels, ou si le PDF
+ * doit être chargé en mémoire (support sans chemin local) et dépasse preview.pdf.taille-max, pas de miniature.
+ */
+@Service
+@Slf4j
+public class PreviewService {
+
+    public static final String DOSSIER_APERCUS = "apercus";
+
+    private static final Set<String> TYPES_IMAGES = Set.of("image/jpeg", "image/png", "image/gif");
+    private static final String TYPE_PDF = "application/pdf";
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    @Qualifier("previewExecutor")
+    private ThreadPoolTaskExecutor previewExecutor;
+
+    @Value("${preview.taille-max:320}")
+    private int tailleMax;
+
+    @Value("${preview.qualite-jpeg:0.8}")
+    private float qualiteJpeg;
+
+    // 24 Mpx : environ 100 Mo décodés en ARGB, soit une page A4 scannée à 400 dpi
+    @Value("${preview.pdf.pixels-max:24000000}")
+    private long pixelsMaxPdf;
+
+    // PdfReader lit un flux non local entièrement en mémoire
+    @Value("${preview.pdf.taille-max:20971520}")
+    private long tailleMaxPdfEnMemoire;
+
+    /**
+     * Clé de la miniature d'un contenu
+     */
+    public static String previewKey(String contentHash) {
+        return DOSSIER_APERCUS + "/" + contentHash.substring(0, 2) + "/" + contentHash + ".jpg";
+    }
+
+    /**
+     * Empreinte du contenu d'une clé de miniature, null si la clé n'est pas une miniature
+     */
+    public static String contentHashOf(String key) {
+        if (!key.startsWith(DOSSIER_APERCUS + "/") || !key.endsWith(".jpg")) return null;
+        return key.substring(key.lastIndexOf('/') + 1, key.length() - ".jpg".length());
+    }
+
+    public boolean supports(String contentType) {
+        return contentType != null && (TYPES_IMAGES.contains(contentType) || TYPE_PDF.equals(contentType));
+    }
+
+    /**
+     * Planifie la miniature d'une pièce jointe qui vient d'être enregistrée (ne bloque jamais l'upload)
+     */
+    public void planifier(Attachment attachment) {
+        if (!supports(attachment.getContentType()) || attachment.getContentHash() == null) {
+            return;
+        }
+        try {
+            previewExecutor.execute(() -> generer(attachment));
+        } catch (RejectedExecutionException e) {
+            log.warn("File des miniatures pleine : pas de miniature pour {}", attachment.getId());
+        }
+    }
+
+    private void generer(Attachment attachment) {
+        BlobStore store = fileStorageService.getBlobStore();
+        String contentHash = attachment.getContentHash();
+        String cle = previewKey(contentHash);
+        try {
+            // Contenu déjà vu : la miniature existe, il suffit de la rattacher
+            if (!store.exists(cle)) {
+                BufferedImage source = TYPE_PDF.equals(attachment.getContentType())
+                        ? imagePremierePage(store, attachment.getStoredFileName())
+                        : imageSousEchantillonnee(store, attachment.getStoredFileName());
+                if (source == null) {
+                    log.debug("Pas de miniature possible pour {}", attachment.getId());
+                    return;
+                }
+                store.put(cle, new ByteArrayInputStream(jpeg(redimensionner(source))));
+            }
+            mongoTemplate.updateMulti(Query.query(Criteria.where("contentHash").is(contentHash)),
+                    new Update().set("previewFileName", cle), Attachment.class);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Échec de la miniature de {} ({}): {}", attachment.getId(), attachment.getContentType(), e.getMessage());
+        }
+    }
+
+    /**
+     * Décode l'image en sautant des pixels : au plus deux fois la taille de la miniature en mémoire
+     */
+    private BufferedImage imageSousEchantillonnee(BlobStore store, String key) throws IOException {
+        try (InputStream in = store.open(key); ImageInputStream entree = ImageIO.createImageInputStream(in)) {
+            Iterator<ImageReader> lecteurs = ImageIO.getImageReaders(entree);
+            if (!lecteurs.hasNext()) return null;
+            ImageReader lecteur = lecteurs.next();
+            try {
+                lecteur.setInput(entree, true, true);
+                int cote = Math.max(lecteur.getWidth(0), lecteur.getHeight(0));
+                int pas = Math.max(1, cote / (tailleMax * 2));
+                ImageReadParam param = lecteur.getDefaultReadParam();
+                param.setSourceSubsampling(pas, pas, 0, 0);
+                return lecteur.read(0, param);
+            } finally {
+                lecteur.dispose();
+            }
+        }
+    }
+
+    /**
+     * Plus grande image dessinée sur la page 1 du PDF, si ses dimensions tiennent dans le budget de pixels
+     */
+    private BufferedImage imagePremierePage(BlobStore store, String key) throws IOException {
+        Optional<Path> local = store.localPath(key);
+        if (local.isEmpty() && store.size(key) > tailleMaxPdfEnMemoire) {
+            log.debug("PDF {} trop volumineux pour être lu en mémoire, pas de miniature", key);
+            return null;
+        }
+        // Lecture directe du fichier si possible (accès aléatoire, sans charger le PDF en mémoire)
+        try (PdfReader reader = local.isPresent() ? new PdfReader(local.get().toString()) : new PdfReader(store.open(key));
+             PdfDocument pdf = new PdfDocument(reader)) {
+            if (pdf.getNumberOfPages() < 1) return null;
+            PlusGrandeImage ecouteur = new PlusGrandeImage();
+            new PdfCanvasProcessor(ecouteur).processPageContent(pdf.getPage(1));
+            if (ecouteur.image == null) return null;
+            // Dimensions lues dans le dictionnaire de l'image, avant tout décodage
+            long pixels = (long) ecouteur.image.getWidth() * (long) ecouteur.image.getHeight();
+            if (pixels > pixelsMaxPdf) {
+                log.debug("Image de la page 1 de {} trop grande ({} pixels), pas de miniature", key, pixels);
+                return null;
+            }
+            return ecouteur.image.getBufferedImage();
+        }
+    }
+
+    private static class PlusGrandeImage implements IEventListener {
+        PdfImageXObject image;
+        float surface;
+
+        @Override
+        public void eventOccurred(IEventData data, EventType type) {
+            if (type != EventType.RENDER_IMAGE) return;
+            ImageRenderInfo info = (ImageRenderInfo) data;
+            if (info.getImage() != null && info.getArea() > surface) {
+                surface = info.getArea();
+                image = info.getImage();
+            }
+        }
+
+        @Override
+        public Set<EventType> getSupportedEvents() {
+            return Set.of(EventType.RENDER_IMAGE);
+        }
+    }
+
+    private BufferedImage redimensionner(BufferedImage source) {
+        double echelle = Math.min(1.0, (double) tailleMax / Math.max(source.getWidth(), source.getHeight()));
+        int largeur = Math.max(1, (int) Math.round(source.getWidth() * echelle));
+        int hauteur = Math.max(1, (int) Math.round(source.getHeight() * echelle));
+        BufferedImage miniature = new BufferedImage(largeur, hauteur, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = miniature.createGraphics();
+        try {
+            // Fond blanc pour les images transparentes (JPEG sans canal alpha)
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, largeur, hauteur);
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(source, 0, 0, largeur, hauteur, null);
+        } finally {
+            g.dispose();
+        }
+        return miniature;
+    }
+
+    private byte[] jpeg(BufferedImage image) throws IOException {
+        ImageWriter ecrivain = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream sortie = ImageIO.createImageOutputStream(out)) {
+            ecrivain.setOutput(sortie);
+            ImageWriteParam param = ecrivain.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(qualiteJpeg);
+            ecrivain.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            ecrivain.dispose();
+        }
+        return out.toByteArray();
+    }
+}
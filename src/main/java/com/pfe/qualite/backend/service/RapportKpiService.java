@@ -1,17 +1,23 @@
 package com.pfe.qualite.backend.service;
 
-import com.pfe.qualite.backend.model.FicheQualite;
 import com.pfe.qualite.backend.model.FicheSuivi;
 import com.pfe.qualite.backend.model.FicheProjet;
-import com.pfe.qualite.backend.model.FormulaireObligatoire;
-import com.pfe.qualite.backend.repository.FicheQualiteRepository;
-import com.pfe.qualite.backend.repository.FicheSuiviRepository;
+import com.pfe.qualite.backend.model.KpiSnapshot;
 import com.pfe.qualite.backend.repository.FicheProjetRepository;
-import com.pfe.qualite.backend.repository.FormulaireObligatoireRepository;
+import org.bson.Document;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.aggregation.ConditionalOperators;
+import org.springframework.data.mongodb.core.aggregation.DateOperators;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
 
 import java.text.SimpleDateFormat;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.stream.Stream;
 
 /**
  * Service désactivé temporairement - Sprint 2
@@ -20,44 +26,53 @@ import java.util.*;
 // @Service  // Désactivé temporairement
 public class RapportKpiService {
 
-    @Autowired
-    private FicheQualiteRepository ficheQualiteRepository;
+    private static final String CHAMP_CLE = "cle";
+    private static final String CHAMP_TOTAL = "total";
+    private static final double SEUIL_CONFORMITE = 80.0;
 
     @Autowired
-    private FicheSuiviRepository ficheSuiviRepository;
+    private FicheProjetRepository ficheProjetRepository;
 
     @Autowired
-    private FicheProjetRepository ficheProjetRepository;
+    private MongoTemplate mongoTemplate;
 
     @Autowired
-    private FormulaireObligatoireRepository formulaireObligatoireRepository;
+    private KpiSnapshotService kpiSnapshotService;
 
     /**
      * Générer un rapport KPI complet
+     * Les compteurs par statut/type sont lus dans kpi_snapshots ; seuls l'évolution mensuelle
+     * et la conformité des suivis sont agrégées ($facet)
      */
     public Map<String, Object> genererRapportKpiComplet() {
         Map<String, Object> rapport = new HashMap<>();
+
+        Date[] fenetre = getFenetreEvolution();
+        KpiSnapshot snapshotQualite = kpiSnapshotService.getSnapshot(KpiSnapshotService.FICHES_QUALITE);
+        KpiSnapshot snapshotSuivi = kpiSnapshotService.getSnapshot(KpiSnapshotService.FICHES_SUIVI);
+        KpiSnapshot snapshotFormulaires = kpiSnapshotService.getSnapshot(KpiSnapshotService.FORMULAIRES_OBLIGATOIRES);
+        Document agregatSuivi = agregerFichesSuivi(fenetre[0], fenetre[1]);
         
         // Statistiques générales
-        rapport.put("statistiquesGenerales", getStatistiquesGenerales());
+        rapport.put("statistiquesGenerales", getStatistiquesGenerales(snapshotQualite, snapshotSuivi, snapshotFormulaires));
         
         // Statistiques par statut
-        rapport.put("statistiquesParStatut", getStatistiquesParStatut());
+        rapport.put("statistiquesParStatut", getStatistiquesParStatut(snapshotQualite, snapshotSuivi));
         
         // Statistiques par type
-        rapport.put("statistiquesParType", getStatistiquesParType());
+        rapport.put("statistiquesParType", getStatistiquesParType(snapshotQualite));
         
         // Évolution temporelle
-        rapport.put("evolutionTemporelle", getEvolutionTemporelle());
+        rapport.put("evolutionTemporelle", getEvolutionTemporelle(agregatSuivi, fenetre[0], fenetre[1]));
         
         // Formulaires obligatoires
-        rapport.put("formulairesObligatoires", getStatistiquesFormulairesObligatoires());
+        rapport.put("formulairesObligatoires", getStatistiquesFormulairesObligatoires(snapshotFormulaires));
         
         // Top des projets
         rapport.put("topProjets", getTopProjets());
         
         // Métriques de performance
-        rapport.put("metriquesPerformance", getMetriquesPerformance());
+        rapport.put("metriquesPerformance", getMetriquesPerformance(agregatSuivi, snapshotFormulaires));
         
         // Date de génération
         rapport.put("dateGeneration", new Date());
@@ -65,16 +80,84 @@ public class RapportKpiService {
         return rapport;
     }
 
+    // ===== Agrégation MongoDB des fiches de suivi =====
+
+    /**
+     * fiches_suivi : volume mensuel sur la fenêtre et conformité (seuil 80%)
+     * pour les suivis ayant un tauxConformite renseigné
+     */
+    private Document agregerFichesSuivi(Date dateDebut, Date dateFin) {
+        Aggregation aggregation = Aggregation.newAggregation(
+            Aggregation.facet(
+                    Aggregation.match(Criteria.where("dateSuivi").gte(dateDebut).lte(dateFin)),
+                    Aggregation.project()
+                        .and(DateOperators.dateOf("dateSuivi")
+                            .withTimezone(DateOperators.Timezone.valueOf(ZoneId.systemDefault().getId()))
+                            .toString("%Y-%m"))
+                        .as(CHAMP_CLE),
+                    Aggregation.group(CHAMP_CLE).count().as(CHAMP_TOTAL)
+                ).as("parMois")
+                .and(
+                    Aggregation.match(Criteria.where("tauxConformite").ne(null)),
+                    Aggregation.project()
+                        .and(ConditionalOperators.when(Criteria.where("tauxConformite").gte(SEUIL_CONFORMITE))
+                            .then(1).otherwise(0))
+                        .as("conforme"),
+                    Aggregation.group().count().as("evalues").sum("conforme").as("conformes")
+                ).as("conformite")
+        );
+        return executerFacet(aggregation, "fiches_suivi");
+    }
+
+    private Document executerFacet(Aggregation aggregation, String collection) {
+        Document resultat = mongoTemplate.aggregate(aggregation, collection, Document.class).getUniqueMappedResult();
+        return resultat != null ? resultat : new Document();
+    }
+
+    /**
+     * Convertit les groupes {_id, total} d'une facette en Map valeur -> nombre
+     */
+    private Map<String, Long> toCompteurs(Document facet, String nomFacette) {
+        Map<String, Long> compteurs = new HashMap<>();
+        for (Document groupe : facet.getList(nomFacette, Document.class, Collections.emptyList())) {
+            Object cle = groupe.get("_id");
+            compteurs.put(cle != null ? cle.toString() : "NON_DEFINI", toLong(groupe.get(CHAMP_TOTAL)));
+        }
+        return compteurs;
+    }
+
+    /**
+     * Répartition d'une dimension du snapshot (compteurs nuls ou négatifs ignorés)
+     */
+    private Map<String, Long> repartition(KpiSnapshot snapshot, String dimension) {
+        Map<String, Long> compteurs = new HashMap<>(snapshot.getDimensions().getOrDefault(dimension, Collections.emptyMap()));
+        compteurs.values().removeIf(v -> v == null || v <= 0);
+        return compteurs;
+    }
+
+    /**
+     * Lit un compteur unique ({total: n}) produit par une facette
+     */
+    private long lireCompteur(Document facet, String nomFacette, String champ) {
+        List<Document> valeurs = facet.getList(nomFacette, Document.class, Collections.emptyList());
+        return valeurs.isEmpty() ? 0L : toLong(valeurs.get(0).get(champ));
+    }
+
+    private long toLong(Object valeur) {
+        return valeur instanceof Number ? ((Number) valeur).longValue() : 0L;
+    }
+
     /**
      * Statistiques générales
      */
-    private Map<String, Object> getStatistiquesGenerales() {
+    private Map<String, Object> getStatistiquesGenerales(KpiSnapshot snapshotQualite, KpiSnapshot snapshotSuivi,
+                                                         KpiSnapshot snapshotFormulaires) {
         Map<String, Object> stats = new HashMap<>();
         
-        long totalFichesQualite = ficheQualiteRepository.count();
-        long totalFichesSuivi = ficheSuiviRepository.count();
+        long totalFichesQualite = snapshotQualite.getTotal();
+        long totalFichesSuivi = snapshotSuivi.getTotal();
         long totalProjets = ficheProjetRepository.count();
-        long totalFormulairesObligatoires = formulaireObligatoireRepository.count();
+        long totalFormulairesObligatoires = snapshotFormulaires.getTotal();
         
         stats.put("totalFichesQualite", totalFichesQualite);
         stats.put("totalFichesSuivi", totalFichesSuivi);
@@ -88,28 +171,11 @@ public class RapportKpiService {
     /**
      * Statistiques par statut
      */
-    private Map<String, Object> getStatistiquesParStatut() {
+    private Map<String, Object> getStatistiquesParStatut(KpiSnapshot snapshotQualite, KpiSnapshot snapshotSuivi) {
         Map<String, Object> stats = new HashMap<>();
         
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        Map<String, Long> statutsQualite = new HashMap<>();
-        Map<String, Long> statutsSuivi = new HashMap<>();
-        
-        // Compter par statut pour les fiches qualité
-        for (FicheQualite fiche : fichesQualite) {
-            String statut = fiche.getStatut() != null ? fiche.getStatut() : "NON_DEFINI";
-            statutsQualite.put(statut, statutsQualite.getOrDefault(statut, 0L) + 1);
-        }
-        
-        // Compter par statut pour les fiches de suivi
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        for (FicheSuivi fiche : fichesSuivi) {
-            String statut = fiche.getEtatAvancement() != null ? fiche.getEtatAvancement() : "NON_DEFINI";
-            statutsSuivi.put(statut, statutsSuivi.getOrDefault(statut, 0L) + 1);
-        }
-        
-        stats.put("statutsQualite", statutsQualite);
-        stats.put("statutsSuivi", statutsSuivi);
+        stats.put("statutsQualite", repartition(snapshotQualite, KpiSnapshotService.DIM_STATUT));
+        stats.put("statutsSuivi", repartition(snapshotSuivi, KpiSnapshotService.DIM_ETAT));
         
         return stats;
     }
@@ -117,71 +183,47 @@ public class RapportKpiService {
     /**
      * Statistiques par type
      */
-    private Map<String, Object> getStatistiquesParType() {
+    private Map<String, Object> getStatistiquesParType(KpiSnapshot snapshotQualite) {
         Map<String, Object> stats = new HashMap<>();
         
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        Map<String, Long> typesFiche = new HashMap<>();
-        
-        for (FicheQualite fiche : fichesQualite) {
-            String type = fiche.getTypeFiche() != null ? fiche.getTypeFiche() : "NON_DEFINI";
-            typesFiche.put(type, typesFiche.getOrDefault(type, 0L) + 1);
-        }
-        
-        stats.put("typesFiche", typesFiche);
+        stats.put("typesFiche", repartition(snapshotQualite, KpiSnapshotService.DIM_TYPE));
         
         return stats;
     }
 
+    /**
+     * Fenêtre de l'évolution temporelle : début du mois il y a 5 mois -> maintenant
+     */
+    private Date[] getFenetreEvolution() {
+        Calendar cal = Calendar.getInstance();
+        Date dateFin = cal.getTime();
+        cal.setTime(truncateToMonth(dateFin));
+        cal.add(Calendar.MONTH, -5);
+        return new Date[] { cal.getTime(), dateFin };
+    }
+
     /**
      * Évolution temporelle (agrégation par mois sur les 6 derniers mois)
      * Utilise FicheSuivi.dateSuivi comme source temporelle.
      */
-    private Map<String, Object> getEvolutionTemporelle() {
+    private Map<String, Object> getEvolutionTemporelle(Document agregatSuivi, Date dateDebut, Date dateFin) {
         Map<String, Object> evolution = new HashMap<>();
 
-        // Fenêtre: 6 derniers mois (mois en cours inclus)
-        Calendar cal = Calendar.getInstance();
-        Date dateFin = cal.getTime();
-
-        // Normaliser au début du mois courant
-        cal.set(Calendar.DAY_OF_MONTH, 1);
-        cal.set(Calendar.HOUR_OF_DAY, 0);
-        cal.set(Calendar.MINUTE, 0);
-        cal.set(Calendar.SECOND, 0);
-        cal.set(Calendar.MILLISECOND, 0);
+        // Compteurs calculés par MongoDB, indexés par "yyyy-MM"
+        Map<String, Long> compteursParMois = toCompteurs(agregatSuivi, "parMois");
+        SimpleDateFormat cleMois = new SimpleDateFormat("yyyy-MM");
 
         // Construire les 6 mois (ordre chronologique)
-        List<Date> mois = new ArrayList<>();
-        for (int i = 5; i >= 0; i--) {
-            Calendar c = (Calendar) cal.clone();
-            c.add(Calendar.MONTH, -i);
-            mois.add(c.getTime());
-        }
-        Date dateDebut = mois.get(0);
-
-        // Préparer le compteur par libellé de mois
         Map<String, Long> fichesParMois = new LinkedHashMap<>();
         List<String> labels = new ArrayList<>();
-        for (Date m : mois) {
+        Calendar c = Calendar.getInstance();
+        c.setTime(dateDebut);
+        for (int i = 0; i < 6; i++) {
+            Date m = c.getTime();
             String label = formatMonthLabel(m);
             labels.add(label);
-            fichesParMois.put(label, 0L);
-        }
-
-        // Charger les suivis et compter par mois
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        for (FicheSuivi fs : fichesSuivi) {
-            Date d = fs.getDateSuivi();
-            if (d == null) continue;
-            // Si hors période, ignorer
-            if (d.before(dateDebut) || d.after(dateFin)) continue;
-
-            // Trouver le mois correspondant
-            String label = formatMonthLabel(truncateToMonth(d));
-            if (fichesParMois.containsKey(label)) {
-                fichesParMois.put(label, fichesParMois.get(label) + 1);
-            }
+            fichesParMois.put(label, compteursParMois.getOrDefault(cleMois.format(m), 0L));
+            c.add(Calendar.MONTH, 1);
         }
 
         // Compatibilité: exposer aussi "fichesParJour" avec les mêmes données
@@ -229,67 +271,48 @@ public class RapportKpiService {
     /**
      * Statistiques des formulaires obligatoires
      */
-    private Map<String, Object> getStatistiquesFormulairesObligatoires() {
+    private Map<String, Object> getStatistiquesFormulairesObligatoires(KpiSnapshot snapshotFormulaires) {
         Map<String, Object> stats = new HashMap<>();
         
-        List<FormulaireObligatoire> formulaires = formulaireObligatoireRepository.findAll();
-        
-        long enAttente = 0, soumis = 0, enRetard = 0, annule = 0;
-        long haute = 0, moyenne = 0, basse = 0;
-        
-        for (FormulaireObligatoire formulaire : formulaires) {
-            // Compter par statut
-            switch (formulaire.getStatut()) {
-                case "EN_ATTENTE": enAttente++; break;
-                case "SOUMIS": soumis++; break;
-                case "EN_RETARD": enRetard++; break;
-                case "ANNULE": annule++; break;
-            }
-            
-            // Compter par priorité
-            switch (formulaire.getPriorite()) {
-                case "HAUTE": haute++; break;
-                case "MOYENNE": moyenne++; break;
-                case "BASSE": basse++; break;
-            }
-        }
+        Map<String, Long> parStatut = repartition(snapshotFormulaires, KpiSnapshotService.DIM_STATUT);
+        Map<String, Long> parPriorite = repartition(snapshotFormulaires, KpiSnapshotService.DIM_PRIORITE);
         
         stats.put("parStatut", Map.of(
-            "EN_ATTENTE", enAttente,
-            "SOUMIS", soumis,
-            "EN_RETARD", enRetard,
-            "ANNULE", annule
+            "EN_ATTENTE", parStatut.getOrDefault("EN_ATTENTE", 0L),
+            "SOUMIS", parStatut.getOrDefault("SOUMIS", 0L),
+            "EN_RETARD", parStatut.getOrDefault("EN_RETARD", 0L),
+            "ANNULE", parStatut.getOrDefault("ANNULE", 0L)
         ));
         
         stats.put("parPriorite", Map.of(
-            "HAUTE", haute,
-            "MOYENNE", moyenne,
-            "BASSE", basse
+            "HAUTE", parPriorite.getOrDefault("HAUTE", 0L),
+            "MOYENNE", parPriorite.getOrDefault("MOYENNE", 0L),
+            "BASSE", parPriorite.getOrDefault("BASSE", 0L)
         ));
         
-        stats.put("total", formulaires.size());
+        stats.put("total", (int) snapshotFormulaires.getTotal());
         
         return stats;
     }
 
     /**
      * Top des projets
+     * Tri et limite côté MongoDB : seuls les 10 projets retenus sont chargés
      */
     private Map<String, Object> getTopProjets() {
         Map<String, Object> top = new HashMap<>();
         
-        List<FicheProjet> projets = ficheProjetRepository.findAll();
-        
-        // Trier par date d'échéance (plus proche en premier)
-        projets.sort((p1, p2) -> {
-            if (p1.getEcheance() == null && p2.getEcheance() == null) return 0;
-            if (p1.getEcheance() == null) return 1;
-            if (p2.getEcheance() == null) return -1;
-            return p1.getEcheance().compareTo(p2.getEcheance());
-        });
-        
-        // Prendre les 10 premiers
-        List<FicheProjet> top10 = projets.size() > 10 ? projets.subList(0, 10) : projets;
+        // Projets avec échéance (plus proche en premier), complétés par ceux sans échéance
+        Query avecEcheance = new Query(Criteria.where("echeance").ne(null))
+            .with(Sort.by(Sort.Direction.ASC, "echeance"))
+            .limit(10);
+        avecEcheance.fields().include("nom", "echeance", "statut");
+        List<FicheProjet> top10 = new ArrayList<>(mongoTemplate.find(avecEcheance, FicheProjet.class));
+        if (top10.size() < 10) {
+            Query sansEcheance = new Query(Criteria.where("echeance").is(null)).limit(10 - top10.size());
+            sansEcheance.fields().include("nom", "echeance", "statut");
+            top10.addAll(mongoTemplate.find(sansEcheance, FicheProjet.class));
+        }
         
         List<Map<String, Object>> projetsFormates = new ArrayList<>();
         for (FicheProjet projet : top10) {
@@ -309,41 +332,40 @@ public class RapportKpiService {
     /**
      * Métriques de performance
      */
-    private Map<String, Object> getMetriquesPerformance() {
+    private Map<String, Object> getMetriquesPerformance(Document agregatSuivi, KpiSnapshot snapshotFormulaires) {
         Map<String, Object> metriques = new HashMap<>();
         
-        List<FormulaireObligatoire> formulaires = formulaireObligatoireRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        
-        // Taux de conformité basé sur FicheSuivi.indicateursKpi
-        long totalEvalues = 0;
-        long nbConformes = 0;
-        for (FicheSuivi suivi : fichesSuivi) {
-            Double taux = null;
-            if (suivi.getTauxConformite() != null) {
-                taux = suivi.getTauxConformite();
-            } else if (suivi.getIndicateursKpi() != null) {
-                taux = extraireTauxConformite(suivi.getIndicateursKpi().toLowerCase());
+        // Taux de conformité : tauxConformite agrégé par MongoDB...
+        long totalEvalues = lireCompteur(agregatSuivi, "conformite", "evalues");
+        long nbConformes = lireCompteur(agregatSuivi, "conformite", "conformes");
+        
+        // ... complété par les anciens suivis qui ne le renseignent que dans indicateursKpi
+        // (lecture en flux, seul le champ texte est projeté)
+        Query anciensSuivis = new Query(Criteria.where("tauxConformite").is(null).and("indicateursKpi").ne(null));
+        anciensSuivis.fields().include("indicateursKpi");
+        try (Stream<FicheSuivi> flux = mongoTemplate.stream(anciensSuivis, FicheSuivi.class)) {
+            Iterator<FicheSuivi> it = flux.iterator();
+            while (it.hasNext()) {
+                Double taux = extraireTauxConformite(it.next().getIndicateursKpi().toLowerCase());
+                if (taux == null) continue;
+                totalEvalues++;
+                if (taux >= SEUIL_CONFORMITE) nbConformes++;
             }
-            if (taux == null) continue;
-            totalEvalues++;
-            if (taux >= 80.0) nbConformes++;
         }
         double tauxConformite = totalEvalues > 0 ? (double) nbConformes / totalEvalues * 100 : 0;
         
+        long totalFormulaires = snapshotFormulaires.getTotal();
+        Map<String, Long> formulairesParStatut = repartition(snapshotFormulaires, KpiSnapshotService.DIM_STATUT);
+        
         // Taux de soumission des formulaires obligatoires
-        long formulairesSoumis = formulaires.stream()
-            .filter(f -> "SOUMIS".equals(f.getStatut()))
-            .count();
-        double tauxSoumission = formulaires.size() > 0 ? 
-            (double) formulairesSoumis / formulaires.size() * 100 : 0;
+        long formulairesSoumis = formulairesParStatut.getOrDefault("SOUMIS", 0L);
+        double tauxSoumission = totalFormulaires > 0 ? 
+            (double) formulairesSoumis / totalFormulaires * 100 : 0;
         
         // Taux de retard
-        long formulairesEnRetard = formulaires.stream()
-            .filter(f -> "EN_RETARD".equals(f.getStatut()))
-            .count();
-        double tauxRetard = formulaires.size() > 0 ? 
-            (double) formulairesEnRetard / formulaires.size() * 100 : 0;
+        long formulairesEnRetard = formulairesParStatut.getOrDefault("EN_RETARD", 0L);
+        double tauxRetard = totalFormulaires > 0 ? 
+            (double) formulairesEnRetard / totalFormulaires * 100 : 0;
         
         metriques.put("tauxConformite", Math.round(tauxConformite * 100.0) / 100.0);
         metriques.put("evaluationsConformite", totalEvalues);
@@ -399,19 +421,12 @@ public class RapportKpiService {
     public Map<String, Object> genererRapportParPeriode(Date dateDebut, Date dateFin) {
         Map<String, Object> rapport = new HashMap<>();
         
-        // Filtrer les données par période
-        List<FicheQualite> fichesQualite = ficheQualiteRepository.findAll();
-        List<FicheSuivi> fichesSuivi = ficheSuiviRepository.findAll();
-        List<FormulaireObligatoire> formulaires = formulaireObligatoireRepository.findAll();
-        
         // Pour l'instant, on utilise toutes les données car les modèles n'ont pas de date de création
-        List<FicheQualite> fichesQualiteFiltrees = fichesQualite;
-        List<FormulaireObligatoire> formulairesFiltres = formulaires;
-        
+        // (totaux lus dans kpi_snapshots : aucun document n'est compté)
         rapport.put("periode", Map.of("debut", dateDebut, "fin", dateFin));
-        rapport.put("fichesQualite", fichesQualiteFiltrees.size());
-        rapport.put("fichesSuivi", fichesSuivi.size());
-        rapport.put("formulairesObligatoires", formulairesFiltres.size());
+        rapport.put("fichesQualite", (int) kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_QUALITE));
+        rapport.put("fichesSuivi", (int) kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_SUIVI));
+        rapport.put("formulairesObligatoires", (int) kpiSnapshotService.getTotal(KpiSnapshotService.FORMULAIRES_OBLIGATOIRES));
         
         return rapport;
     }
@@ -0,0 +1,163 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.SchedulerLock;
+import com.pfe.qualite.backend.util.InstanceApplication;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.FindAndModifyOptions;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.stereotype.Service;
+
+import java.util.Date;
+import java.util.List;
+import java.util.function.LongConsumer;
+
+/**
+ * Verrous distribués des tâches planifiées (collection scheduler_locks)
+ * Chaque réplique déclenche ses @Scheduled en même temps ; seule celle qui acquiert le bail exécute la tâche.
+ * Le bail est acquis par findAndModify (upsert) et porte un jeton de fencing croissant :
+ * une instance qui aurait perdu son bail (pause, dépassement) le détecte via verifierJeton avant d'écrire.
+ * Le bail est conservé au moins duree-min-ms pour absorber le décalage d'horloge entre répliques.
+ */
+@Service
+@Slf4j
+public class SchedulerLockService {
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${scheduler.lock.duree-max-ms:600000}")
+    private long dureeMaxMs;
+
+    @Value("${scheduler.lock.duree-min-ms:60000}")
+    private long dureeMinMs;
+
+    @Autowired
+    private ClusterMembershipService clusterMembershipService;
+
+    private final String instance = InstanceApplication.ID;
+
+    /**
+     * Tâche découpée par partition : reçoit le nom du verrou (pour verifierJeton), le jeton et le filtre de partition
+     */
+    @FunctionalInterface
+    public interface TachePartitionnee {
+        void executer(String verrou, long jeton, Criteria partition);
+    }
+
+    /**
+     * Exécute la tâche si cette instance obtient le bail ; sinon ne fait rien (une autre réplique s'en charge)
+     *
+     * @param tache  nom de la tâche (identifiant du verrou)
+     * @param action reçoit le jeton de fencing de l'exécution
+     * @return true si la tâche a été exécutée ici
+     */
+    public boolean executer(String tache, LongConsumer action) {
+        Long jeton = acquerir(tache);
+        if (jeton == null) {
+            log.debug("Tâche {} déjà prise par une autre instance", tache);
+            return false;
+        }
+        long debut = System.currentTimeMillis();
+        try {
+            action.accept(jeton);
+            liberer(tache, jeton, debut, "SUCCES", null);
+            return true;
+        } catch (RuntimeException e) {
+            liberer(tache, jeton, debut, "ECHEC", e.getMessage());
+            log.error("Échec de la tâche planifiée {} (jeton {})", tache, jeton, e);
+            return true;
+        }
+    }
+
+    /**
+     * Exécute la tâche par compartiments : les 16 compartiments fixes (dernier caractère de l'ObjectId)
+     * ont chacun leur bail, et chaque réplique tente de tous les prendre en commençant par les siens
+     * (rang i sur n membres actifs). Un compartiment est donc traité par exactement une réplique par déclenchement,
+     * même si les répliques n'ont pas la même vue des membres (arrivée ou départ en cours) :
+     * la vue des membres ne fait que répartir la charge, elle ne décide pas de ce qui est traité.
+     *
+     * @param champ champ (ObjectId) servant au découpage, ex: responsableId
+     * @return true si au moins un compartiment a été exécuté ici
+     */
+    public boolean executerPartitionne(String tache, String champ, TachePartitionnee action) {
+        ClusterMembershipService.Partition partition = clusterMembershipService.getPartition();
+        boolean execute = false;
+        for (int compartiment : ClusterMembershipService.ordreCompartiments(partition)) {
+            String verrou = tache + "#" + ClusterMembershipService.CARACTERES_PARTITION.charAt(compartiment);
+            Criteria filtre = ClusterMembershipService.filtreCompartiment(champ, compartiment);
+            execute |= executer(verrou, jeton -> action.executer(verrou, jeton, filtre));
+        }
+        return execute;
+    }
+
+    /**
+     * Vérifie que l'exécution détient toujours le bail (à appeler avant une phase d'écriture)
+     */
+    public void verifierJeton(String tache, long jeton) {
+        boolean valide = mongoTemplate.exists(Query.query(Criteria.where("_id").is(tache)
+                .and("jetonFencing").is(jeton)
+                .and("proprietaire").is(instance)), SchedulerLock.class);
+        if (!valide) {
+            throw new IllegalStateException("Bail perdu pour la tâche " + tache + " (jeton " + jeton + ")");
+        }
+    }
+
+    /**
+     * État des verrous (propriétaire, fin de bail, jeton, dernière exécution)
+     */
+    public List<SchedulerLock> getVerrous() {
+        return mongoTemplate.find(new Query().with(Sort.by("_id")), SchedulerLock.class);
+    }
+
+    public String getInstance() {
+        return instance;
+    }
+
+    private Long acquerir(String tache) {
+        Date maintenant = new Date();
+        // Bail libre (expiré) ou déjà détenu par cette instance ; upsert si la tâche n'a jamais tourné
+        Query query = Query.query(new Criteria().andOperator(
+                Criteria.where("_id").is(tache),
+                new Criteria().orOperator(
+                        Criteria.where("jusqua").lte(maintenant),
+                        Criteria.where("proprietaire").is(instance))));
+        Update update = new Update()
+                .set("proprietaire", instance)
+                .set("jusqua", new Date(maintenant.getTime() + dureeMaxMs))
+                .set("dateAcquisition", maintenant)
+                .set("derniereExecutionDebut", maintenant)
+                .set("dernierStatut", "EN_COURS")
+                .inc("jetonFencing", 1);
+        try {
+            SchedulerLock verrou = mongoTemplate.findAndModify(query, update,
+                    FindAndModifyOptions.options().upsert(true).returnNew(true), SchedulerLock.class);
+            return verrou != null ? verrou.getJetonFencing() : null;
+        } catch (DuplicateKeyException e) {
+            // Le document existe et le bail est détenu par une autre instance
+            return null;
+        }
+    }
+
+    private void liberer(String tache, long jeton, long debut, String statut, String erreur) {
+        long maintenant = System.currentTimeMillis();
+        Update update = new Update()
+                .set("jusqua", new Date(Math.max(maintenant, debut + dureeMinMs)))
+                .set("derniereExecutionFin", new Date(maintenant))
+                .set("dernierStatut", statut);
+        if (erreur != null) {
+            update.set("derniereErreur", erreur);
+        } else {
+            update.unset("derniereErreur");
+        }
+        // Sans effet si le bail a été repris entre-temps (jeton différent)
+        mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(tache).and("jetonFencing").is(jeton)),
+                update, SchedulerLock.class);
+    }
+}
@@ -4,12 +4,17 @@ import com.pfe.qualite.backend.model.*;
 import com.pfe.qualite.backend.repository.TacheRepository;
 import com.pfe.qualite.backend.repository.FicheProjetRepository;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
 import org.springframework.stereotype.Service;
 
 import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.stream.Collectors;
 
 @Service
@@ -20,6 +25,12 @@ public class TacheService {
     
     @Autowired
     private FicheProjetRepository ficheProjetRepository;
+
+    @Autowired
+    private PaginationService paginationService;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
     
     /**
      * Récupérer toutes les tâches
@@ -30,6 +41,41 @@ public class TacheService {
         return taches;
     }
     
+    /**
+     * Récupérer une page de tâches (plus récentes d'abord)
+     * Les retards de la page sont marqués par une mise à jour ciblée : les tâches projetées
+     * (champs partiels) ne doivent pas être réenregistrées en entier.
+     * Avec une projection, statut et dateEcheance sont toujours lus pour ce contrôle,
+     * puis retirés de la réponse s'ils n'ont pas été demandés.
+     */
+    public PageCurseur<Tache> getTachesPage(String curseur, Integer taille, String champs) {
+        Set<String> demandes = PaginationService.champsDemandes(champs);
+        String champsLus = demandes == null ? null : champs + ",statut,dateEcheance";
+        PageCurseur<Tache> page = paginationService.paginer(Tache.class, null, "dateCreation", curseur, taille, champsLus);
+        LocalDate aujourdhui = LocalDate.now();
+        List<String> enRetard = page.getElements().stream()
+            .filter(t -> t.getDateEcheance() != null && t.getDateEcheance().isBefore(aujourdhui))
+            .filter(t -> t.getStatut() != StatutTache.TERMINEE && t.getStatut() != StatutTache.EN_RETARD)
+            .map(Tache::getId)
+            .collect(Collectors.toList());
+        if (!enRetard.isEmpty()) {
+            mongoTemplate.updateMulti(
+                Query.query(Criteria.where("_id").in(enRetard).and("statut").nin(StatutTache.TERMINEE, StatutTache.EN_RETARD)),
+                Update.update("statut", StatutTache.EN_RETARD),
+                Tache.class);
+            page.getElements().stream()
+                .filter(t -> enRetard.contains(t.getId()))
+                .forEach(t -> t.setStatut(StatutTache.EN_RETARD));
+        }
+        if (demandes != null) {
+            for (Tache tache : page.getElements()) {
+                if (!demandes.contains("statut")) tache.setStatut(null);
+                if (!demandes.contains("dateEcheance")) tache.setDateEcheance(null);
+            }
+        }
+        return page;
+    }
+    
     /**
      * Récupérer les tâches d'un utilisateur
      */
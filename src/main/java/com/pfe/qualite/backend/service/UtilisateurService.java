@@ -1,7 +1,9 @@
 package com.pfe.qualite.backend.service;
 
+import com.pfe.qualite.backend.model.PageCurseur;
 import com.pfe.qualite.backend.model.Utilisateur;
 import com.pfe.qualite.backend.repository.UtilisateurRepository;
+import com.pfe.qualite.backend.security.jwt.PrincipalCache;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.security.crypto.password.PasswordEncoder;
@@ -10,6 +12,7 @@ import org.springframework.stereotype.Service;
 import java.time.LocalDateTime;
 import java.util.List;
 import java.util.Optional;
+import java.util.Set;
 import java.util.UUID;
 
 @Service
@@ -20,6 +23,8 @@ public class UtilisateurService {
     private final UtilisateurRepository utilisateurRepository;
     private final PasswordEncoder passwordEncoder;
     private final NotificationService notificationService;
+    private final PaginationService paginationService;
+    private final PrincipalCache principalCache;
     // Note: HistoriqueService sera ajouté au Sprint 2 pour la traçabilité avancée
 
     /**
@@ -29,6 +34,13 @@ public class UtilisateurService {
         return utilisateurRepository.findAll();
     }
 
+    /**
+     * Récupérer une page d'utilisateurs (plus récents d'abord, sans mot de passe)
+     */
+    public PageCurseur<Utilisateur> getUtilisateursPage(String curseur, Integer taille, String champs) {
+        return paginationService.paginer(Utilisateur.class, null, "dateCreation", curseur, taille, champs, Set.of("password"));
+    }
+
     /**
      * Récupérer un utilisateur par ID
      */
@@ -77,23 +89,11 @@ public class UtilisateurService {
         log.info("Sauvegarde en base...");
         long saveStart = System.currentTimeMillis();
         Utilisateur saved = utilisateurRepository.save(utilisateur);
+        principalCache.invalider(saved.getEmail());
         log.info("Sauvegarde OK en {}ms", System.currentTimeMillis() - saveStart);
 
-        // Envoyer notification email ASYNCHRONE (ne pas bloquer)
-        final String finalMotDePasse = motDePasseTemporaire;
-        final String finalEmail = saved.getEmail();
-        final String finalNom = saved.getNom();
-        
-        // Exécution asynchrone de l'email
-        new Thread(() -> {
-            try {
-                log.info("Envoi email asynchrone à {}", finalEmail);
-                notificationService.envoyerEmailBienvenue(finalEmail, finalNom, finalMotDePasse);
-                log.info("Email envoyé avec succès");
-            } catch (Exception e) {
-                log.error("Erreur lors de l'envoi de l'email de bienvenue (non bloquant)", e);
-            }
-        }).start();
+        // Email de bienvenue planifié dans l'outbox (envoyé par le distributeur, ne bloque pas)
+        notificationService.envoyerEmailBienvenue(saved.getId(), saved.getEmail(), saved.getNom(), motDePasseTemporaire);
 
         long totalTime = System.currentTimeMillis() - startTime;
         log.info("=== UTILISATEUR CRÉÉ EN {}ms - ID: {} ===", totalTime, saved.getId());
@@ -107,6 +107,7 @@ public class UtilisateurService {
         log.info("Mise à jour de l'utilisateur: {}", id);
         
         return utilisateurRepository.findById(id).map(user -> {
+            String ancienEmail = user.getEmail();
             user.setNom(utilisateurUpdate.getNom());
             user.setEmail(utilisateurUpdate.getEmail());
             user.setRole(utilisateurUpdate.getRole());
@@ -119,7 +120,10 @@ public class UtilisateurService {
             
             user.setDateModification(LocalDateTime.now());
             
-            return utilisateurRepository.save(user);
+            Utilisateur saved = utilisateurRepository.save(user);
+            principalCache.invalider(ancienEmail);
+            principalCache.invalider(saved.getEmail());
+            return saved;
         }).orElseThrow(() -> new RuntimeException("Utilisateur non trouvé avec l'id: " + id));
     }
 
@@ -134,6 +138,7 @@ public class UtilisateurService {
             user.setDateModification(LocalDateTime.now());
             
             Utilisateur saved = utilisateurRepository.save(user);
+            principalCache.invalider(saved.getEmail());
             
             // Envoyer notification
             String message = saved.getActif() ? "activé" : "désactivé";
@@ -168,6 +173,7 @@ public class UtilisateurService {
             // Envoyer email avec nouveau mot de passe
             try {
                 notificationService.envoyerEmailResetPassword(
+                    user.getId() + ":" + user.getDateModification(),
                     user.getEmail(),
                     user.getNom(),
                     nouveauMotDePasse
@@ -186,11 +192,11 @@ public class UtilisateurService {
     public void deleteUtilisateur(String id) {
         log.info("Suppression de l'utilisateur: {}", id);
         
-        if (!utilisateurRepository.existsById(id)) {
-            throw new RuntimeException("Utilisateur non trouvé avec l'id: " + id);
-        }
+        Utilisateur utilisateur = utilisateurRepository.findById(id)
+                .orElseThrow(() -> new RuntimeException("Utilisateur non trouvé avec l'id: " + id));
         
         utilisateurRepository.deleteById(id);
+        principalCache.invalider(utilisateur.getEmail());
     }
 
     /**
@@ -0,0 +1,94 @@
+package com.pfe.qualite.backend.service.storage;
+
+import org.springframework.core.io.Resource;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Stockage des contenus des pièces jointes, indépendant du support (disque local, GridFS...)
+ * Les clés sont les noms stockés dans Attachment.storedFileName (ab/cd/empreinte, ou nom UUID historique).
+ * Les implémentations lisent et écrivent en flux avec des tampons bornés : aucun contenu n'est chargé en entier en mémoire.
+ */
+public interface BlobStore {
+
+    /**
+     * Nom du support (valeur de file.storage.backend)
+     */
+    String name();
+
+    boolean exists(String key);
+
+    /**
+     * Taille en bytes ; -1 si la clé est absente
+     */
+    long size(String key);
+
+    InputStream open(String key) throws IOException;
+
+    Resource asResource(String key);
+
+    /**
+     * Écrit un contenu sous la clé ; sans effet visible tant que l'écriture n'est pas terminée
+     */
+    void put(String key, InputStream content) throws IOException;
+
+    /**
+     * Écrit le contenu d'un fichier local (temporaire d'upload) ; le fichier source peut être consommé
+     */
+    default void put(String key, Path source) throws IOException {
+        try (InputStream in = Files.newInputStream(source)) {
+            put(key, in);
+        }
+    }
+
+    /**
+     * Déplace un contenu sous une autre clé (atomique) ; retourne false si la clé source est absente.
+     * La date de dernière utilisation est conservée.
+     */
+    boolean rename(String source, String cible) throws IOException;
+
+    /**
+     * Retourne true si un contenu a été supprimé
+     */
+    boolean delete(String key) throws IOException;
+
+    /**
+     * Date de dernière écriture ou réutilisation (délai de grâce avant suppression) ; null si la clé est absente
+     */
+    Instant lastUsed(String key) throws IOException;
+
+    /**
+     * Marque le contenu comme réutilisé maintenant
+     */
+    void touch(String key) throws IOException;
+
+    /**
+     * Toutes les clés du support (à fermer après usage)
+     */
+    Stream<String> keys() throws IOException;
+
+    /**
+     * Parcourt les clés d'un dossier : dossier vide = clés à la racine seulement (noms historiques),
+     * sinon toutes les clés sous « dossier/ » (ex: une partition ab du stockage adressé par contenu)
+     */
+    default void scanKeys(String dossier, Consumer<String> visiteur) throws IOException {
+        try (Stream<String> cles = keys()) {
+            cles.filter(k -> dossier.isEmpty() ? k.indexOf('/') < 0 : k.startsWith(dossier + "/"))
+                    .forEach(visiteur);
+        }
+    }
+
+    /**
+     * Chemin local du contenu, quand le support en a un (permet l'envoi sans copie par sendfile)
+     */
+    default Optional<Path> localPath(String key) {
+        return Optional.empty();
+    }
+}
@@ -0,0 +1,159 @@
+package com.pfe.qualite.backend.service.storage;
+
+import com.mongodb.client.MongoCursor;
+import com.mongodb.client.gridfs.model.GridFSFile;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.Resource;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.data.mongodb.gridfs.GridFsTemplate;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+import java.util.Date;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static org.springframework.data.mongodb.core.query.Criteria.where;
+import static org.springframework.data.mongodb.gridfs.GridFsCriteria.whereFilename;
+
+/**
+ * Stockage dans MongoDB GridFS (bucket spring.data.mongodb.gridfs.bucket)
+ * Les contenus sont découpés en chunks par le driver : lecture et écriture en flux, sans système de fichiers partagé.
+ * Le nom GridFS est la clé ; la date de dernière réutilisation est gardée dans metadata.derniereUtilisation.
+ */
+@Component
+@Slf4j
+public class GridFsBlobStore implements BlobStore {
+
+    public static final String NOM = "gridfs";
+
+    private static final String DERNIERE_UTILISATION = "derniereUtilisation";
+
+    @Autowired
+    private GridFsTemplate gridFsTemplate;
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Value("${spring.data.mongodb.gridfs.bucket:fs}")
+    private String bucket;
+
+    @Override
+    public String name() {
+        return NOM;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return trouver(key) != null;
+    }
+
+    @Override
+    public long size(String key) {
+        GridFSFile fichier = trouver(key);
+        return fichier != null ? fichier.getLength() : -1;
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return asResource(key).getInputStream();
+    }
+
+    @Override
+    public Resource asResource(String key) {
+        GridFSFile fichier = trouver(key);
+        if (fichier == null) {
+            throw new RuntimeException("Fichier non trouvé: " + key);
+        }
+        return gridFsTemplate.getResource(fichier);
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        if (exists(key)) {
+            touch(key);
+            return;
+        }
+        // Le fichier n'est visible (document fs.files) qu'une fois tous les chunks écrits
+        gridFsTemplate.store(content, key, new Document(DERNIERE_UTILISATION, new Date()));
+    }
+
+    /**
+     * Renommage du document fs.files (les chunks sont liés par l'identifiant, pas par le nom)
+     */
+    @Override
+    public boolean rename(String source, String cible) {
+        return mongoTemplate.updateMulti(Query.query(where("filename").is(source)),
+                new Update().set("filename", cible), bucket + ".files").getModifiedCount() > 0;
+    }
+
+    @Override
+    public boolean delete(String key) {
+        boolean existait = exists(key);
+        gridFsTemplate.delete(Query.query(whereFilename().is(key)));
+        return existait;
+    }
+
+    @Override
+    public Instant lastUsed(String key) {
+        GridFSFile fichier = trouver(key);
+        if (fichier == null) {
+            return null;
+        }
+        Date date = fichier.getMetadata() != null ? fichier.getMetadata().getDate(DERNIERE_UTILISATION) : null;
+        return (date != null ? date : fichier.getUploadDate()).toInstant();
+    }
+
+    @Override
+    public void touch(String key) {
+        mongoTemplate.updateMulti(Query.query(where("filename").is(key)),
+                new Update().set("metadata." + DERNIERE_UTILISATION, new Date()),
+                bucket + ".files");
+    }
+
+    @Override
+    public Stream<String> keys() {
+        MongoCursor<GridFSFile> curseur = gridFsTemplate.find(new Query().with(Sort.by("filename"))).iterator();
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(curseur, Spliterator.ORDERED), false)
+                .onClose(curseur::close)
+                .map(GridFSFile::getFilename)
+                .distinct();
+    }
+
+    @Override
+    public void scanKeys(String dossier, Consumer<String> visiteur) {
+        // Préfixe ancré : parcours de l'index filename limité à la partition
+        String motif = dossier.isEmpty() ? "^[^/]+$" : "^" + dossier + "/";
+        Query query = Query.query(whereFilename().regex(motif)).with(Sort.by("filename"));
+        try (MongoCursor<GridFSFile> curseur = gridFsTemplate.find(query).iterator()) {
+            String precedente = null;
+            while (curseur.hasNext()) {
+                String cle = curseur.next().getFilename();
+                if (!cle.equals(precedente)) {
+                    visiteur.accept(cle);
+                }
+                precedente = cle;
+            }
+        }
+    }
+
+    /**
+     * Version la plus récente (deux uploads simultanés du même contenu peuvent créer deux entrées identiques)
+     */
+    private GridFSFile trouver(String key) {
+        return gridFsTemplate.find(Query.query(whereFilename().is(key)))
+                .sort(new Document("uploadDate", -1))
+                .first();
+    }
+}
@@ -0,0 +1,202 @@
+package com.pfe.qualite.backend.service.storage;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.stereotype.Component;
+
+import jakarta.annotation.PostConstruct;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.EnumSet;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Stockage sur disque local (file.upload-dir)
+ * Écriture dans un temporaire du même volume puis déplacement atomique : un contenu n'est jamais visible à moitié écrit.
+ */
+@Component
+@Slf4j
+public class LocalBlobStore implements BlobStore {
+
+    public static final String NOM = "local";
+
+    // Temporaires d'upload et de copie, exclus des clés
+    public static final String REPERTOIRE_TEMPORAIRE = ".tmp";
+
+    @Value("${file.upload-dir:uploads}")
+    private String uploadDir;
+
+    private Path racine;
+    private Path temporaires;
+
+    @PostConstruct
+    public void init() {
+        racine = Paths.get(uploadDir).toAbsolutePath().normalize();
+        temporaires = racine.resolve(REPERTOIRE_TEMPORAIRE);
+        try {
+            Files.createDirectories(temporaires);
+        } catch (IOException ex) {
+            throw new RuntimeException("Impossible de créer le répertoire de stockage", ex);
+        }
+    }
+
+    @Override
+    public String name() {
+        return NOM;
+    }
+
+    /**
+     * Répertoire des temporaires (sur le même volume que les contenus)
+     */
+    public Path getTemporaires() {
+        return temporaires;
+    }
+
+    @Override
+    public boolean exists(String key) {
+        return Files.exists(resolve(key));
+    }
+
+    @Override
+    public long size(String key) {
+        try {
+            return Files.size(resolve(key));
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    @Override
+    public InputStream open(String key) throws IOException {
+        return Files.newInputStream(resolve(key));
+    }
+
+    @Override
+    public Resource asResource(String key) {
+        return new FileSystemResource(resolve(key));
+    }
+
+    @Override
+    public void put(String key, InputStream content) throws IOException {
+        Path temp = Files.createTempFile(temporaires, "copie-", ".part");
+        try {
+            Files.copy(content, temp, StandardCopyOption.REPLACE_EXISTING);
+            put(key, temp);
+        } finally {
+            Files.deleteIfExists(temp);
+        }
+    }
+
+    /**
+     * Le fichier source est déplacé (pas de copie) ; si la clé existe déjà, il est laissé en place
+     */
+    @Override
+    public void put(String key, Path source) throws IOException {
+        Path cible = resolve(key);
+        Files.createDirectories(cible.getParent());
+        try {
+            Files.move(source, cible, StandardCopyOption.ATOMIC_MOVE);
+        } catch (FileAlreadyExistsException e) {
+            // Même contenu écrit en parallèle
+            touch(key);
+        }
+    }
+
+    @Override
+    public boolean rename(String source, String cible) throws IOException {
+        Path destination = resolve(cible);
+        Files.createDirectories(destination.getParent());
+        try {
+            Files.move(resolve(source), destination, StandardCopyOption.ATOMIC_MOVE);
+            return true;
+        } catch (NoSuchFileException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public boolean delete(String key) throws IOException {
+        return Files.deleteIfExists(resolve(key));
+    }
+
+    @Override
+    public Instant lastUsed(String key) throws IOException {
+        try {
+            return Files.getLastModifiedTime(resolve(key)).toInstant();
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    @Override
+    public void touch(String key) throws IOException {
+        Files.setLastModifiedTime(resolve(key), FileTime.from(Instant.now()));
+    }
+
+    @Override
+    public Stream<String> keys() throws IOException {
+        return Files.walk(racine)
+                .filter(Files::isRegularFile)
+                .filter(p -> !p.startsWith(temporaires))
+                .map(p -> racine.relativize(p).toString().replace('\\', '/'));
+    }
+
+    /**
+     * Parcours par Files.walkFileTree : les clés sont remises au visiteur au fil de la lecture des répertoires
+     */
+    @Override
+    public void scanKeys(String dossier, Consumer<String> visiteur) throws IOException {
+        Path depart = dossier.isEmpty() ? racine : resolve(dossier);
+        if (!Files.isDirectory(depart)) {
+            return;
+        }
+        int profondeur = dossier.isEmpty() ? 1 : Integer.MAX_VALUE;
+        Files.walkFileTree(depart, EnumSet.noneOf(FileVisitOption.class), profondeur, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path fichier, BasicFileAttributes attributs) {
+                if (attributs.isRegularFile()) {
+                    visiteur.accept(racine.relativize(fichier).toString().replace('\\', '/'));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path fichier, IOException e) {
+                log.warn("Fichier illisible ignoré: {} ({})", fichier, e.getMessage());
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    @Override
+    public Optional<Path> localPath(String key) {
+        return Optional.of(resolve(key));
+    }
+
+    /**
+     * Refuse les clés qui sortiraient du répertoire de stockage
+     */
+    private Path resolve(String key) {
+        Path chemin = racine.resolve(key).normalize();
+        if (!chemin.startsWith(racine) || chemin.startsWith(temporaires)) {
+            throw new IllegalArgumentException("Chemin de fichier invalide: " + key);
+        }
+        return chemin;
+    }
+}
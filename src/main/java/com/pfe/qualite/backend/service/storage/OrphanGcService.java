@@ -0,0 +1,342 @@
+package com.pfe.qualite.backend.service.storage;
+
+import com.pfe.qualite.backend.model.Attachment;
+import com.pfe.qualite.backend.model.FichierOrphelin;
+import com.pfe.qualite.backend.service.FileStorageService;
+import com.pfe.qualite.backend.service.PreviewService;
+import com.pfe.qualite.backend.service.SchedulerLockService;
+import lombok.extern.slf4j.Slf4j;
+import org.bson.Document;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.mongodb.core.BulkOperations;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.aggregation.Aggregation;
+import org.springframework.data.mongodb.core.query.Criteria;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Ramasse-miettes des fichiers stockés qu'aucune pièce jointe ne référence plus
+ * (fiches supprimées, uploads interrompus entre le stockage et l'enregistrement de l'Attachment...)
+ * Incrémental : chaque exécution parcourt quelques partitions du stockage (racine, 00 à ff, puis les miniatures),
+ * par lots vérifiés contre attachments avec une requête $in, avec une pause entre deux lots.
+ * Un orphelin est d'abord mis en quarantaine (fichiers_orphelins) puis supprimé au-delà du délai de quarantaine
+ * s'il n'est toujours référencé par aucune pièce jointe ; il est restauré dès qu'une pièce jointe y refait référence.
+ * La suppression passe par FileStorageService.supprimerSiOrphelin (isolement puis nouvelle vérification) :
+ * un upload qui déduplique le contenu au même moment ne peut pas se retrouver sans fichier.
+ * Une miniature (apercus/) reste référencée tant qu'une pièce jointe a le même contenu (contentHash).
+ * Une seule réplique exécute le GC à la fois (bail SchedulerLockService).
+ */
+@Service
+@Slf4j
+public class OrphanGcService {
+
+    private static final String TACHE = "gc-fichiers";
+    private static final String COLLECTION_ETAT = "fichiers_gc_etat";
+    private static final String ID_ETAT = "etat";
+
+    // Racine (noms historiques), les 256 partitions du stockage adressé par contenu, puis les miniatures
+    private static final List<String> PARTITIONS = partitions();
+
+    @Autowired
+    private MongoTemplate mongoTemplate;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    private SchedulerLockService schedulerLockService;
+
+    @Value("${file.gc.enabled:true}")
+    private boolean actif;
+
+    @Value("${file.gc.lot:500}")
+    private int tailleLot;
+
+    @Value("${file.gc.partitions-par-execution:16}")
+    private int partitionsParExecution;
+
+    @Value("${file.gc.pause-ms:100}")
+    private long pauseMs;
+
+    // Un fichier écrit ou réutilisé plus récemment n'est jamais considéré comme orphelin
+    @Value("${file.gc.age-min-ms:86400000}")
+    private long ageMinMs;
+
+    @Value("${file.gc.quarantaine-ms:604800000}")
+    private long quarantaineMs;
+
+    /**
+     * Compteurs d'une exécution
+     */
+    private static class Bilan {
+        long examines;
+        long misEnQuarantaine;
+        long restaures;
+        long supprimes;
+        long octetsRecuperes;
+    }
+
+    @Scheduled(fixedDelayString = "${file.gc.intervalle-ms:900000}", initialDelayString = "${file.gc.delai-initial-ms:300000}")
+    public void planifier() {
+        if (actif) {
+            schedulerLockService.executer(TACHE, this::collecter);
+        }
+    }
+
+    /**
+     * Exécution immédiate (hors planification) ; sans effet si une autre instance exécute déjà le GC
+     */
+    public Map<String, Object> lancer() {
+        AtomicReference<Map<String, Object>> resultat = new AtomicReference<>();
+        boolean execute = schedulerLockService.executer(TACHE, jeton -> resultat.set(collecter(jeton)));
+        if (!execute) {
+            return Map.of("statut", "DEJA_EN_COURS");
+        }
+        return resultat.get() != null ? resultat.get() : Map.of("statut", "ECHEC");
+    }
+
+    /**
+     * Dernière exécution et volumes en quarantaine / récupérés (90 derniers jours)
+     */
+    public Map<String, Object> getRapport() {
+        Map<String, Object> rapport = new LinkedHashMap<>();
+        Document etat = mongoTemplate.findById(ID_ETAT, Document.class, COLLECTION_ETAT);
+        if (etat != null) {
+            etat.remove("_id");
+            etat.put("partitions", PARTITIONS.size());
+        }
+        rapport.put("derniereExecution", etat);
+
+        Aggregation parStatut = Aggregation.newAggregation(
+                Aggregation.group("statut").count().as("fichiers").sum("taille").as("octets"));
+        for (Document groupe : mongoTemplate.aggregate(parStatut, FichierOrphelin.class, Document.class).getMappedResults()) {
+            Map<String, Object> volumes = new LinkedHashMap<>();
+            volumes.put("fichiers", groupe.get("fichiers"));
+            volumes.put("octets", groupe.get("octets"));
+            rapport.put(FichierOrphelin.SUPPRIME.equals(groupe.getString("_id")) ? "recuperes" : "quarantaine", volumes);
+        }
+        return rapport;
+    }
+
+    private Map<String, Object> collecter(long jeton) {
+        long debut = System.currentTimeMillis();
+        BlobStore store = fileStorageService.getBlobStore();
+        Document etat = mongoTemplate.findById(ID_ETAT, Document.class, COLLECTION_ETAT);
+        int premiere = etat != null && etat.getInteger("prochainePartition") != null ? etat.getInteger("prochainePartition") : 0;
+        int nombre = Math.min(Math.max(partitionsParExecution, 1), PARTITIONS.size());
+        Bilan bilan = new Bilan();
+
+        // Contenus restés isolés par une suppression interrompue : remis en place avant l'examen
+        try {
+            int restaures = fileStorageService.restaurerIsoles(store);
+            if (restaures > 0) {
+                log.warn("GC : {} fichiers isolés par une suppression interrompue remis en place", restaures);
+            }
+        } catch (IOException e) {
+            log.warn("GC : fichiers isolés illisibles ({})", e.getMessage());
+        }
+
+        // Phase 1 : repérage des orphelins dans les partitions du tour
+        List<String> lot = new ArrayList<>(tailleLot);
+        for (int i = 0; i < nombre; i++) {
+            String partition = PARTITIONS.get((premiere + i) % PARTITIONS.size());
+            try {
+                store.scanKeys(partition, cle -> {
+                    lot.add(cle);
+                    if (lot.size() >= tailleLot) {
+                        examinerLot(store, lot, bilan);
+                        lot.clear();
+                    }
+                });
+            } catch (IOException e) {
+                log.warn("GC : partition {} illisible ({})", partition, e.getMessage());
+            }
+            if (!lot.isEmpty()) {
+                examinerLot(store, lot, bilan);
+                lot.clear();
+            }
+        }
+
+        // Phase 2 : suppression des orphelins dont la quarantaine a expiré (seulement si le bail est toujours détenu)
+        schedulerLockService.verifierJeton(TACHE, jeton);
+        supprimerQuarantainesExpirees(store, bilan);
+
+        Map<String, Object> rapport = new LinkedHashMap<>();
+        rapport.put("date", new Date());
+        rapport.put("support", store.name());
+        rapport.put("partitionsExaminees", nombre);
+        rapport.put("prochainePartition", (premiere + nombre) % PARTITIONS.size());
+        rapport.put("fichiersExamines", bilan.examines);
+        rapport.put("misEnQuarantaine", bilan.misEnQuarantaine);
+        rapport.put("restaures", bilan.restaures);
+        rapport.put("supprimes", bilan.supprimes);
+        rapport.put("octetsRecuperes", bilan.octetsRecuperes);
+        rapport.put("dureeMs", System.currentTimeMillis() - debut);
+
+        Update update = new Update();
+        rapport.forEach(update::set);
+        mongoTemplate.upsert(Query.query(Criteria.where("_id").is(ID_ETAT)), update, COLLECTION_ETAT);
+        log.info("GC des fichiers : {}", rapport);
+        return rapport;
+    }
+
+    private void examinerLot(BlobStore store, List<String> cles, Bilan bilan) {
+        bilan.examines += cles.size();
+        Set<String> referencees = referencees(cles);
+        Set<String> enQuarantaine = mongoTemplate.find(
+                        Query.query(Criteria.where("_id").in(cles).and("statut").is(FichierOrphelin.QUARANTAINE)),
+                        FichierOrphelin.class).stream()
+                .map(FichierOrphelin::getId)
+                .collect(Collectors.toSet());
+
+        // Référencés à nouveau depuis leur mise en quarantaine
+        List<String> restaures = enQuarantaine.stream().filter(referencees::contains).collect(Collectors.toList());
+        restaurer(restaures, bilan);
+
+        Date maintenant = new Date();
+        Instant limite = Instant.now().minusMillis(ageMinMs);
+        BulkOperations nouveaux = mongoTemplate.bulkOps(BulkOperations.BulkMode.UNORDERED, FichierOrphelin.class);
+        int n = 0;
+        for (String cle : cles) {
+            if (referencees.contains(cle) || enQuarantaine.contains(cle) || !assezAncien(store, cle, limite)) {
+                continue;
+            }
+            nouveaux.upsert(Query.query(Criteria.where("_id").is(cle)), new Update()
+                    .set("support", store.name())
+                    .set("taille", Math.max(store.size(cle), 0))
+                    .set("statut", FichierOrphelin.QUARANTAINE)
+                    .set("dateQuarantaine", maintenant)
+                    .unset("dateSuppression"));
+            n++;
+        }
+        if (n > 0) {
+            nouveaux.execute();
+            bilan.misEnQuarantaine += n;
+        }
+        pause();
+    }
+
+    private void supprimerQuarantainesExpirees(BlobStore store, Bilan bilan) {
+        Query expirees = Query.query(Criteria.where("statut").is(FichierOrphelin.QUARANTAINE)
+                .and("support").is(store.name())
+                .and("dateQuarantaine").lte(new Date(System.currentTimeMillis() - quarantaineMs)));
+        List<FichierOrphelin> lot = new ArrayList<>(tailleLot);
+        try (Stream<FichierOrphelin> candidats = mongoTemplate.stream(expirees, FichierOrphelin.class)) {
+            Iterator<FichierOrphelin> it = candidats.iterator();
+            while (it.hasNext()) {
+                lot.add(it.next());
+                if (lot.size() >= tailleLot || !it.hasNext()) {
+                    supprimerLot(store, lot, bilan);
+                    lot.clear();
+                    pause();
+                }
+            }
+        }
+    }
+
+    private void supprimerLot(BlobStore store, List<FichierOrphelin> orphelins, Bilan bilan) {
+        Set<String> referencees = referencees(orphelins.stream().map(FichierOrphelin::getId).collect(Collectors.toList()));
+        List<String> restaures = new ArrayList<>();
+        for (FichierOrphelin orphelin : orphelins) {
+            String cle = orphelin.getId();
+            if (referencees.contains(cle)) {
+                restaures.add(cle);
+                continue;
+            }
+            try {
+                // Réutilisé (upload dédupliqué) ou référencé depuis la mise en quarantaine : sorti de quarantaine,
+                // il sera redécouvert par un tour suivant s'il redevient orphelin
+                if (store.exists(cle) && !fileStorageService.supprimerSiOrphelin(store, cle,
+                        orphelin.getDateQuarantaine().toInstant(), () -> !referencees(List.of(cle)).isEmpty())) {
+                    restaures.add(cle);
+                    continue;
+                }
+            } catch (IOException | RuntimeException e) {
+                log.warn("GC : suppression de {} impossible ({})", cle, e.getMessage());
+                continue;
+            }
+            mongoTemplate.updateFirst(Query.query(Criteria.where("_id").is(cle)),
+                    new Update().set("statut", FichierOrphelin.SUPPRIME).set("dateSuppression", new Date()),
+                    FichierOrphelin.class);
+            bilan.supprimes++;
+            bilan.octetsRecuperes += orphelin.getTaille();
+        }
+        restaurer(restaures, bilan);
+    }
+
+    private void restaurer(List<String> cles, Bilan bilan) {
+        if (cles.isEmpty()) return;
+        mongoTemplate.remove(Query.query(Criteria.where("_id").in(cles)), FichierOrphelin.class);
+        bilan.restaures += cles.size();
+    }
+
+    /**
+     * Clés du lot référencées par au moins une pièce jointe (une requête $in par lot et par type de clé)
+     */
+    private Set<String> referencees(Collection<String> cles) {
+        Map<String, String> miniatures = new HashMap<>();
+        List<String> fichiers = new ArrayList<>();
+        for (String cle : cles) {
+            String contentHash = PreviewService.contentHashOf(cle);
+            if (contentHash != null) {
+                miniatures.put(contentHash, cle);
+            } else {
+                fichiers.add(cle);
+            }
+        }
+        Set<String> referencees = new HashSet<>();
+        if (!fichiers.isEmpty()) {
+            referencees.addAll(mongoTemplate.findDistinct(Query.query(Criteria.where("storedFileName").in(fichiers)),
+                    "storedFileName", Attachment.class, String.class));
+        }
+        if (!miniatures.isEmpty()) {
+            mongoTemplate.findDistinct(Query.query(Criteria.where("contentHash").in(miniatures.keySet())),
+                    "contentHash", Attachment.class, String.class)
+                    .forEach(hash -> referencees.add(miniatures.get(hash)));
+        }
+        return referencees;
+    }
+
+    private boolean assezAncien(BlobStore store, String cle, Instant limite) {
+        try {
+            Instant derniereUtilisation = store.lastUsed(cle);
+            return derniereUtilisation != null && derniereUtilisation.isBefore(limite);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Limite la charge disque / base imposée par le GC
+     */
+    private void pause() {
+        if (pauseMs <= 0) return;
+        try {
+            Thread.sleep(pauseMs);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("GC des fichiers interrompu", e);
+        }
+    }
+
+    private static List<String> partitions() {
+        List<String> partitions = new ArrayList<>(258);
+        partitions.add("");
+        for (int i = 0; i < 256; i++) {
+            partitions.add(String.format("%02x", i));
+        }
+        partitions.add(PreviewService.DOSSIER_APERCUS);
+        return Collections.unmodifiableList(partitions);
+    }
+}
@@ -0,0 +1,209 @@
+package com.pfe.qualite.backend.service.storage;
+
+import com.pfe.qualite.backend.service.FileStorageService;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.UUID;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+/**
+ * Copie des contenus d'un support de stockage vers un autre (ex: local -> gridfs avant de basculer file.storage.backend)
+ * La migration tourne en arrière-plan sur migrationExecutor (une seule à la fois) : l'appel renvoie un identifiant
+ * dont le rapport est consultable pendant et après l'exécution.
+ * Les clés sont parcourues en flux ; au plus « parallelisme » copies sont en cours à la fois.
+ * Les clés déjà présentes dans la cible sont ignorées : la migration peut être relancée après une interruption.
+ * Les contenus source ne sont pas supprimés.
+ */
+@Service
+@Slf4j
+public class StorageMigrationService {
+
+    private static final int PARALLELISME_MAX = 16;
+    // Rapports gardés en mémoire (les plus anciens sont oubliés)
+    private static final int HISTORIQUE_MAX = 20;
+
+    @Autowired
+    private FileStorageService fileStorageService;
+
+    @Autowired
+    @Qualifier("migrationExecutor")
+    private ThreadPoolTaskExecutor migrationExecutor;
+
+    private final AtomicReference<Migration> enCours = new AtomicReference<>();
+
+    private final Map<String, Migration> migrations = new LinkedHashMap<>() {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Migration> eldest) {
+            return size() > HISTORIQUE_MAX;
+        }
+    };
+
+    /**
+     * Lance la migration en arrière-plan
+     *
+     * @return le rapport initial (contient l'identifiant à interroger)
+     */
+    public Map<String, Object> lancer(String nomSource, String nomCible, int parallelisme) {
+        BlobStore source = fileStorageService.getBlobStore(nomSource);
+        BlobStore cible = fileStorageService.getBlobStore(nomCible);
+        if (source == cible) {
+            throw new IllegalArgumentException("La source et la cible doivent être différentes");
+        }
+        // Un thread du pool reste au parcours des clés
+        int maximum = Math.min(PARALLELISME_MAX, migrationExecutor.getMaxPoolSize() - 1);
+        if (parallelisme < 1 || parallelisme > maximum) {
+            throw new IllegalArgumentException("Parallélisme entre 1 et " + maximum);
+        }
+
+        Migration migration = new Migration(UUID.randomUUID().toString(), nomSource, nomCible, parallelisme);
+        if (!enCours.compareAndSet(null, migration)) {
+            throw new RejectedExecutionException("Une migration du stockage est déjà en cours : " + enCours.get().id);
+        }
+        synchronized (migrations) {
+            migrations.put(migration.id, migration);
+        }
+        try {
+            migrationExecutor.execute(() -> executer(migration, source, cible));
+        } catch (RejectedExecutionException e) {
+            enCours.set(null);
+            migration.terminer("ECHEC", e.getMessage());
+            throw e;
+        }
+        return migration.rapport();
+    }
+
+    public Optional<Map<String, Object>> getRapport(String id) {
+        synchronized (migrations) {
+            return Optional.ofNullable(migrations.get(id)).map(Migration::rapport);
+        }
+    }
+
+    private void executer(Migration migration, BlobStore source, BlobStore cible) {
+        // Borne le nombre de copies en vol : la file du pool ne grossit pas avec le nombre de clés
+        Semaphore places = new Semaphore(migration.parallelisme);
+        Phaser copies = new Phaser(1);
+        String statut = "ECHEC";
+        String erreur = null;
+        try (Stream<String> cles = source.keys()) {
+            Iterator<String> it = cles.iterator();
+            while (it.hasNext()) {
+                String cle = it.next();
+                places.acquire();
+                copies.register();
+                try {
+                    migrationExecutor.execute(() -> {
+                        try {
+                            copier(migration, source, cible, cle);
+                        } finally {
+                            places.release();
+                            copies.arriveAndDeregister();
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    places.release();
+                    copies.arriveAndDeregister();
+                    throw e;
+                }
+            }
+            copies.arriveAndAwaitAdvance();
+            statut = "TERMINEE";
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            erreur = "Migration interrompue";
+        } catch (IOException | RuntimeException e) {
+            log.error("Migration de {} vers {} en échec", migration.source, migration.cible, e);
+            erreur = e.getMessage();
+        } finally {
+            // La place est libérée avant la publication du statut final : une relance vue « terminée » est acceptée
+            enCours.compareAndSet(migration, null);
+            migration.terminer(statut, erreur);
+        }
+        log.info("Migration du stockage finie ({}) : {}", statut, migration.rapport());
+    }
+
+    private void copier(Migration migration, BlobStore source, BlobStore cible, String cle) {
+        try {
+            if (cible.exists(cle)) {
+                migration.ignores.incrementAndGet();
+                return;
+            }
+            try (InputStream in = source.open(cle)) {
+                cible.put(cle, in);
+            }
+            migration.copies.incrementAndGet();
+            migration.octets.addAndGet(Math.max(cible.size(cle), 0));
+        } catch (IOException | RuntimeException e) {
+            migration.echecs.incrementAndGet();
+            log.warn("Migration de {} vers {} en échec pour {}: {}", migration.source, migration.cible, cle, e.getMessage());
+        }
+    }
+
+    /**
+     * État d'une migration, mis à jour par les threads de copie et lu par les appels de suivi
+     */
+    private static class Migration {
+        private final String id;
+        private final String source;
+        private final String cible;
+        private final int parallelisme;
+        private final Date dateDebut = new Date();
+        private final AtomicInteger copies = new AtomicInteger();
+        private final AtomicInteger ignores = new AtomicInteger();
+        private final AtomicInteger echecs = new AtomicInteger();
+        private final AtomicLong octets = new AtomicLong();
+        private volatile String statut = "EN_COURS";
+        private volatile String erreur;
+        private volatile Date dateFin;
+
+        Migration(String id, String source, String cible, int parallelisme) {
+            this.id = id;
+            this.source = source;
+            this.cible = cible;
+            this.parallelisme = parallelisme;
+        }
+
+        void terminer(String statutFinal, String message) {
+            erreur = message;
+            dateFin = new Date();
+            statut = statutFinal;
+        }
+
+        Map<String, Object> rapport() {
+            Date fin = dateFin;
+            Map<String, Object> rapport = new LinkedHashMap<>();
+            rapport.put("id", id);
+            rapport.put("statut", statut);
+            rapport.put("source", source);
+            rapport.put("cible", cible);
+            rapport.put("parallelisme", parallelisme);
+            rapport.put("copies", copies.get());
+            rapport.put("dejaPresents", ignores.get());
+            rapport.put("echecs", echecs.get());
+            rapport.put("octetsCopies", octets.get());
+            rapport.put("dateDebut", dateDebut);
+            rapport.put("dateFin", fin);
+            rapport.put("dureeMs", (fin != null ? fin.getTime() : System.currentTimeMillis()) - dateDebut.getTime());
+            if (erreur != null) {
+                rapport.put("erreur", erreur);
+            }
+            return rapport;
+        }
+    }
+}
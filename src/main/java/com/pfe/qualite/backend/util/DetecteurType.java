@@ -0,0 +1,66 @@
+package com.pfe.qualite.backend.util;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * Détection du type MIME d'un fichier à partir de ses premiers octets (signatures)
+ * Le type déclaré par le client n'est pas fiable ; seuls les formats acceptés en pièce jointe sont reconnus.
+ * Les formats Office partagent un conteneur (OLE2 ou ZIP) : l'extension départage Word et Excel.
+ */
+public final class DetecteurType {
+
+    // Nombre d'octets à lire pour la détection
+    public static final int TAILLE_ENTETE = 8 * 1024;
+
+    private static final byte[] JPEG = {(byte) 0xFF, (byte) 0xD8, (byte) 0xFF};
+    private static final byte[] PNG = {(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A};
+    private static final byte[] GIF = {'G', 'I', 'F', '8'};
+    private static final byte[] PDF = {'%', 'P', 'D', 'F', '-'};
+    private static final byte[] OLE2 = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1};
+    private static final byte[] ZIP = {'P', 'K', 0x03, 0x04};
+
+    private DetecteurType() {
+    }
+
+    /**
+     * @param entete premiers octets du fichier (jusqu'à TAILLE_ENTETE)
+     * @param nom    nom de fichier d'origine (extension utilisée pour les formats Office)
+     * @return le type MIME détecté, ou null si le contenu n'est pas reconnu
+     */
+    public static String detecter(byte[] entete, String nom) {
+        String extension = extension(nom);
+        if (commencePar(entete, JPEG)) return "image/jpeg";
+        if (commencePar(entete, PNG)) return "image/png";
+        if (commencePar(entete, GIF)) return "image/gif";
+        if (commencePar(entete, PDF)) return "application/pdf";
+        if (commencePar(entete, OLE2)) {
+            if (extension.equals("doc")) return "application/msword";
+            if (extension.equals("xls")) return "application/vnd.ms-excel";
+            return null;
+        }
+        if (commencePar(entete, ZIP)) {
+            // Conteneur OOXML : [Content_Types].xml ou les dossiers word/ / xl/ apparaissent dans les premières entrées
+            String debut = new String(entete, StandardCharsets.ISO_8859_1);
+            boolean ooxml = debut.contains("[Content_Types].xml") || debut.contains("word/") || debut.contains("xl/");
+            if (ooxml && extension.equals("docx")) return "application/vnd.openxmlformats-officedocument.wordprocessingml.document";
+            if (ooxml && extension.equals("xlsx")) return "application/vnd.openxmlformats-officedocument.spreadsheetml.sheet";
+            return null;
+        }
+        return null;
+    }
+
+    private static boolean commencePar(byte[] donnees, byte[] signature) {
+        if (donnees.length < signature.length) return false;
+        for (int i = 0; i < signature.length; i++) {
+            if (donnees[i] != signature[i]) return false;
+        }
+        return true;
+    }
+
+    private static String extension(String nom) {
+        if (nom == null) return "";
+        int point = nom.lastIndexOf('.');
+        return point >= 0 ? nom.substring(point + 1).toLowerCase(Locale.ROOT) : "";
+    }
+}
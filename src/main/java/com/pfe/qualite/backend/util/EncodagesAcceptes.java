@@ -0,0 +1,55 @@
+package com.pfe.qualite.backend.util;
+
+import java.util.Locale;
+
+/**
+ * Lecture de l'en-tête Accept-Encoding (RFC 9110 §12.5.3) : liste de codages avec un poids q optionnel
+ * Un codage de poids nul (ex: « gzip;q=0 ») est refusé ; « * » couvre les codages non cités.
+ */
+public final class EncodagesAcceptes {
+
+    private EncodagesAcceptes() {
+    }
+
+    /**
+     * @param entete  valeur de l'en-tête Accept-Encoding (null : aucun codage demandé)
+     * @param codage  codage recherché (ex: gzip)
+     * @return true si le client accepte ce codage avec un poids strictement positif
+     */
+    public static boolean accepte(String entete, String codage) {
+        if (entete == null || entete.isBlank()) {
+            return false;
+        }
+        Double poidsCodage = null;
+        Double poidsJoker = null;
+        for (String element : entete.split(",")) {
+            String[] parties = element.split(";");
+            String nom = parties[0].trim().toLowerCase(Locale.ROOT);
+            double poids = poids(parties);
+            if (nom.equals(codage) || nom.equals("x-" + codage)) {
+                poidsCodage = poidsCodage == null ? poids : Math.max(poidsCodage, poids);
+            } else if (nom.equals("*")) {
+                poidsJoker = poids;
+            }
+        }
+        if (poidsCodage != null) {
+            return poidsCodage > 0;
+        }
+        return poidsJoker != null && poidsJoker > 0;
+    }
+
+    private static double poids(String[] parties) {
+        for (int i = 1; i < parties.length; i++) {
+            String parametre = parties[i].trim();
+            if (parametre.length() > 2 && Character.toLowerCase(parametre.charAt(0)) == 'q' && parametre.charAt(1) == '=') {
+                try {
+                    return Double.parseDouble(parametre.substring(2).trim());
+                } catch (NumberFormatException e) {
+                    // Poids mal formé : codage ignoré
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+}
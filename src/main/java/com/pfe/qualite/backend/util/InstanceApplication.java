@@ -0,0 +1,26 @@
+package com.pfe.qualite.backend.util;
+
+import java.net.InetAddress;
+import java.util.UUID;
+
+/**
+ * Identifiant de l'instance courante (hôte + suffixe aléatoire), stable pendant la vie du processus
+ * Sert de propriétaire pour les baux MongoDB (outbox, verrous du planificateur)
+ */
+public final class InstanceApplication {
+
+    public static final String ID = calculer();
+
+    private InstanceApplication() {
+    }
+
+    private static String calculer() {
+        String hote;
+        try {
+            hote = InetAddress.getLocalHost().getHostName();
+        } catch (Exception e) {
+            hote = "inconnu";
+        }
+        return hote + "-" + UUID.randomUUID().toString().substring(0, 8);
+    }
+}
@@ -0,0 +1,47 @@
+package com.pfe.qualite.backend.util;
+
+/**
+ * Limiteur de débit à seau de jetons : un débit moyen (jetons par seconde) et une rafale maximale
+ * Partagé entre threads ; acquerir() bloque jusqu'à ce qu'un jeton soit disponible
+ */
+public class TokenBucket {
+
+    private final double jetonsParNano;
+    private final double capacite;
+    private double jetons;
+    private long derniereRecharge;
+
+    public TokenBucket(double jetonsParSeconde, int rafale) {
+        if (jetonsParSeconde <= 0 || rafale <= 0) {
+            throw new IllegalArgumentException("Débit et rafale doivent être positifs");
+        }
+        this.jetonsParNano = jetonsParSeconde / 1_000_000_000d;
+        this.capacite = rafale;
+        this.jetons = rafale;
+        this.derniereRecharge = System.nanoTime();
+    }
+
+    /**
+     * Prend un jeton, en attendant si nécessaire
+     */
+    public void acquerir() throws InterruptedException {
+        while (true) {
+            long attenteNanos;
+            synchronized (this) {
+                recharger();
+                if (jetons >= 1) {
+                    jetons -= 1;
+                    return;
+                }
+                attenteNanos = (long) Math.ceil((1 - jetons) / jetonsParNano);
+            }
+            Thread.sleep(Math.max(1, attenteNanos / 1_000_000), (int) (attenteNanos % 1_000_000));
+        }
+    }
+
+    private void recharger() {
+        long maintenant = System.nanoTime();
+        jetons = Math.min(capacite, jetons + (maintenant - derniereRecharge) * jetonsParNano);
+        derniereRecharge = maintenant;
+    }
+}
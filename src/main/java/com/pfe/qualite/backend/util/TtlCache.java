@@ -0,0 +1,76 @@
+package com.pfe.qualite.backend.util;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Petit cache mémoire à durée de vie limitée (TTL) et taille bornée (éviction LRU)
+ * Pensé pour les résultats d'agrégation des tableaux de bord, recalculés au plus une fois par TTL
+ */
+public class TtlCache<K, V> {
+
+    private final long ttlMillis;
+    private final Map<K, Entree<V>> entrees;
+    // Chargements en cours, par clé : une invalidation pendant le chargement retire le jeton,
+    // et la valeur lue (peut-être périmée) est alors rendue sans être mise en cache
+    private final Map<K, Object> chargements = new HashMap<>();
+
+    private record Entree<V>(V valeur, long expiration) { }
+
+    public TtlCache(long ttlMillis, int tailleMax) {
+        this.ttlMillis = ttlMillis;
+        this.entrees = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<K, Entree<V>> eldest) {
+                return size() > tailleMax;
+            }
+        };
+    }
+
+    /**
+     * Retourne la valeur en cache ou la calcule (le calcul se fait hors verrou)
+     * La valeur calculée n'est conservée que si la clé n'a pas été invalidée entre-temps.
+     */
+    public V get(K cle, Supplier<V> chargeur) {
+        long maintenant = System.currentTimeMillis();
+        Object jeton = new Object();
+        synchronized (entrees) {
+            Entree<V> entree = entrees.get(cle);
+            if (entree != null && entree.expiration() > maintenant) {
+                return entree.valeur();
+            }
+            chargements.put(cle, jeton);
+        }
+        V valeur;
+        try {
+            valeur = chargeur.get();
+        } catch (RuntimeException | Error e) {
+            synchronized (entrees) {
+                chargements.remove(cle, jeton);
+            }
+            throw e;
+        }
+        synchronized (entrees) {
+            if (chargements.remove(cle, jeton)) {
+                entrees.put(cle, new Entree<>(valeur, System.currentTimeMillis() + ttlMillis));
+            }
+        }
+        return valeur;
+    }
+
+    public void invalider(K cle) {
+        synchronized (entrees) {
+            entrees.remove(cle);
+            chargements.remove(cle);
+        }
+    }
+
+    public void vider() {
+        synchronized (entrees) {
+            entrees.clear();
+            chargements.clear();
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package com.pfe.qualite.backend.controller;
+
+import com.pfe.qualite.backend.model.KpiSnapshot;
+import com.pfe.qualite.backend.repository.FicheProjetRepository;
+import com.pfe.qualite.backend.repository.FicheQualiteRepository;
+import com.pfe.qualite.backend.repository.FicheSuiviRepository;
+import com.pfe.qualite.backend.service.AiAnalyticsService;
+import com.pfe.qualite.backend.service.KpiSnapshotService;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.time.LocalDate;
+import java.util.Map;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyNoInteractions;
+import static org.mockito.Mockito.verifyNoMoreInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Nombre de lectures MongoDB d'un appel à /api/ai-analytics/dashboard :
+ * avant le contexte partagé, chaque analyseur relisait fiches_qualite, fiches_suivi et fiches_projet en entier
+ * (jusqu'à 5 findAll par collection) ; désormais 2 lectures de snapshot KPI et 3 comptages, sans aucun findAll.
+ */
+@ExtendWith(MockitoExtension.class)
+class AiAnalyticsControllerTest {
+
+    @Mock
+    private KpiSnapshotService kpiSnapshotService;
+
+    @Mock
+    private FicheQualiteRepository ficheQualiteRepository;
+
+    @Mock
+    private FicheProjetRepository ficheProjetRepository;
+
+    @Mock
+    private FicheSuiviRepository ficheSuiviRepository;
+
+    @InjectMocks
+    private AiAnalyticsService aiAnalyticsService;
+
+    private final AiAnalyticsController controller = new AiAnalyticsController();
+
+    @BeforeEach
+    void preparer() {
+        ReflectionTestUtils.setField(controller, "aiAnalyticsService", aiAnalyticsService);
+
+        KpiSnapshot fiches = KpiSnapshot.builder()
+                .id(KpiSnapshotService.FICHES_QUALITE)
+                .total(10)
+                .dimensions(Map.of(
+                        KpiSnapshotService.DIM_STATUT, Map.of("TERMINE", 6L, "EN_COURS", 4L),
+                        KpiSnapshotService.DIM_TYPE, Map.of("AUDIT", 7L, "CONTROLE", 3L),
+                        KpiSnapshotService.DIM_TYPE_STATUT, Map.of("AUDIT|TERMINE", 5L, "CONTROLE|TERMINE", 1L)))
+                .complet(true)
+                .build();
+        when(kpiSnapshotService.getSnapshot(KpiSnapshotService.FICHES_QUALITE)).thenReturn(fiches);
+        when(kpiSnapshotService.getTotal(KpiSnapshotService.FICHES_SUIVI)).thenReturn(12L);
+        when(ficheQualiteRepository.countByDateEcheanceBeforeAndStatutNot(any(LocalDate.class), any())).thenReturn(2L);
+        when(ficheProjetRepository.count()).thenReturn(3L);
+        when(ficheProjetRepository.countByStatut("EN_COURS")).thenReturn(1L);
+    }
+
+    @Test
+    void leTableauDeBordNeLitQueLesSnapshotsEtTroisComptages() {
+        Map<String, Object> tableau = controller.getDashboardData().getBody();
+
+        assertThat(tableau).containsOnlyKeys("risques", "recommandations", "tendances", "optimisations");
+        verify(kpiSnapshotService).getSnapshot(KpiSnapshotService.FICHES_QUALITE);
+        verify(kpiSnapshotService).getTotal(KpiSnapshotService.FICHES_SUIVI);
+        verify(ficheQualiteRepository).countByDateEcheanceBeforeAndStatutNot(any(LocalDate.class), any());
+        verify(ficheProjetRepository).count();
+        verify(ficheProjetRepository).countByStatut("EN_COURS");
+        verify(ficheQualiteRepository, never()).findAll();
+        verify(ficheProjetRepository, never()).findAll();
+        verifyNoInteractions(ficheSuiviRepository);
+        verifyNoMoreInteractions(kpiSnapshotService, ficheQualiteRepository, ficheProjetRepository);
+    }
+
+    @Test
+    void lesAppelsSuivantsReutilisentLeContexte() {
+        controller.getDashboardData();
+        controller.analyserRisques();
+        controller.genererRapportIA();
+
+        // Une seule série de lectures pour les trois appels (contexte gardé pendant son TTL)
+        verify(kpiSnapshotService).getSnapshot(KpiSnapshotService.FICHES_QUALITE);
+        verify(kpiSnapshotService).getTotal(KpiSnapshotService.FICHES_SUIVI);
+        verify(ficheProjetRepository).count();
+        verifyNoMoreInteractions(kpiSnapshotService, ficheProjetRepository);
+    }
+
+    @Test
+    void lesIndicateursViennentDuContexte() {
+        @SuppressWarnings("unchecked")
+        Map<String, Object> risques = (Map<String, Object>) controller.getDashboardData().getBody().get("risques");
+
+        assertThat(risques.get("fichesEnRetard")).isEqualTo(2);
+        assertThat(risques.get("tauxConformite")).isEqualTo(60.0);
+    }
+}
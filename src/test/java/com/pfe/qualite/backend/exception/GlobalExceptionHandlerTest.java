@@ -0,0 +1,31 @@
+package com.pfe.qualite.backend.exception;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+
+import java.util.concurrent.RejectedExecutionException;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class GlobalExceptionHandlerTest {
+
+    private final GlobalExceptionHandler handler = new GlobalExceptionHandler();
+
+    @Test
+    void unRefusPourSurchargeRenvoie503AvecRetryAfter() {
+        ResponseEntity<GlobalExceptionHandler.ErrorResponse> reponse =
+                handler.handleRejectedExecutionException(new RejectedExecutionException("Trop d'exports en cours"));
+
+        assertThat(reponse.getStatusCode()).isEqualTo(HttpStatus.SERVICE_UNAVAILABLE);
+        assertThat(reponse.getHeaders().getFirst(HttpHeaders.RETRY_AFTER)).isNotBlank();
+        assertThat(reponse.getBody().getMessage()).isEqualTo("Trop d'exports en cours");
+    }
+
+    @Test
+    void lesAutresRuntimeExceptionRestentEn404() {
+        assertThat(handler.handleRuntimeException(new RuntimeException("Fiche introuvable")).getStatusCode())
+                .isEqualTo(HttpStatus.NOT_FOUND);
+    }
+}
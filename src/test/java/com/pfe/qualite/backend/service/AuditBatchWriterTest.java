@@ -0,0 +1,93 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.HistoriqueAction;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.file.Path;
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+
+class AuditBatchWriterTest {
+
+    @TempDir
+    Path dossier;
+
+    private final AuditBatchWriter writer = new AuditBatchWriter();
+    private final MongoTemplate mongoTemplate = mock(MongoTemplate.class);
+    private final ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+
+    @BeforeEach
+    void preparer() {
+        executor.setCorePoolSize(1);
+        executor.setMaxPoolSize(1);
+        executor.setQueueCapacity(0);
+        executor.initialize();
+
+        ReflectionTestUtils.setField(writer, "mongoTemplate", mongoTemplate);
+        ReflectionTestUtils.setField(writer, "auditExecutor", executor);
+        ReflectionTestUtils.setField(writer, "capacite", 100);
+        ReflectionTestUtils.setField(writer, "tailleLot", 10);
+        ReflectionTestUtils.setField(writer, "delaiLotMs", 50L);
+        ReflectionTestUtils.setField(writer, "politique", AuditBatchWriter.PolitiqueDebordement.BLOCK);
+        ReflectionTestUtils.setField(writer, "blocageMaxMs", 100L);
+        ReflectionTestUtils.setField(writer, "repertoireDeversement", dossier.resolve("spill").toString());
+        ReflectionTestUtils.setField(writer, "reessaiReinjectionMs", 1000L);
+    }
+
+    @AfterEach
+    void arreterExecuteur() {
+        executor.shutdown();
+    }
+
+    @Test
+    void lArretLaisseLInsertionEnCoursSeTerminer() throws InterruptedException {
+        CountDownLatch insertionCommencee = new CountDownLatch(1);
+        // Comme le pilote MongoDB : une insertion interrompue échoue
+        doAnswer(invocation -> {
+            insertionCommencee.countDown();
+            try {
+                Thread.sleep(300);
+            } catch (InterruptedException e) {
+                throw new IllegalStateException("Insertion interrompue", e);
+            }
+            return invocation.getArgument(0);
+        }).when(mongoTemplate).insert(anyCollection(), eq(HistoriqueAction.class));
+
+        writer.demarrer();
+        writer.soumettre(HistoriqueAction.builder().action("UPDATE").entite("FICHE_QUALITE").dateAction(new Date()).build());
+        assertThat(insertionCommencee.await(5, TimeUnit.SECONDS)).isTrue();
+
+        writer.arreter();
+
+        Map<String, Object> metriques = writer.getMetriques();
+        assertThat(metriques.get("inseres")).isEqualTo(1L);
+        assertThat(metriques.get("abandonnes")).isEqualTo(0L);
+        assertThat(metriques.get("echecsInsertion")).isEqualTo(0L);
+    }
+
+    @Test
+    void lArretEcritLesActionsRestantesEnFile() {
+        writer.demarrer();
+        writer.soumettre(HistoriqueAction.builder().action("CREATE").entite("FICHE_SUIVI").dateAction(new Date()).build());
+        writer.soumettre(HistoriqueAction.builder().action("DELETE").entite("FICHE_SUIVI").dateAction(new Date()).build());
+
+        writer.arreter();
+
+        assertThat(writer.getMetriques().get("inseres")).isEqualTo(2L);
+        assertThat(writer.getMetriques().get("profondeur")).isEqualTo(0);
+    }
+}
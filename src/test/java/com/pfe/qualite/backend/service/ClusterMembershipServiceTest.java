@@ -0,0 +1,56 @@
+package com.pfe.qualite.backend.service;
+
+import org.bson.Document;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.regex.Pattern;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class ClusterMembershipServiceTest {
+
+    @Test
+    void uneRepliqueSeuleParcourtLesCompartimentsDansLOrdre() {
+        List<Integer> ordre = ClusterMembershipService.ordreCompartiments(new ClusterMembershipService.Partition(0, 1));
+        assertThat(ordre).containsExactlyElementsOf(IntStream.range(0, 16).boxed().toList());
+    }
+
+    @Test
+    void lesCompartimentsPropresPassentEnPremier() {
+        List<Integer> ordre = ClusterMembershipService.ordreCompartiments(new ClusterMembershipService.Partition(1, 3));
+
+        assertThat(ordre).hasSize(16).doesNotHaveDuplicates()
+                .containsExactlyInAnyOrderElementsOf(IntStream.range(0, 16).boxed().toList());
+        assertThat(ordre.subList(0, 5)).containsExactly(1, 4, 7, 10, 13);
+        assertThat(ordre.subList(5, 16)).allMatch(c -> c % 3 != 1);
+    }
+
+    @Test
+    void leCompartimentZeroRecupereLesValeursNonHexadecimales() {
+        Document critere = ClusterMembershipService.filtreCompartiment("ficheId", 0).getCriteriaObject();
+
+        assertThat(critere).containsKey("$or");
+        List<?> alternatives = (List<?>) critere.get("$or");
+        assertThat(alternatives).hasSize(2);
+        assertThat(motif(((Document) alternatives.get(0)).get("ficheId"))).isEqualTo("0$");
+        assertThat(((Document) alternatives.get(1)).get("ficheId")).isInstanceOf(Document.class);
+        assertThat(((Document) ((Document) alternatives.get(1)).get("ficheId"))).containsKey("$not");
+    }
+
+    @Test
+    void lesAutresCompartimentsCiblentUnSeulCaractere() {
+        Document critere = ClusterMembershipService.filtreCompartiment("ficheId", 11).getCriteriaObject();
+
+        assertThat(critere).doesNotContainKey("$or");
+        Pattern motif = (Pattern) critere.get("ficheId");
+        assertThat(motif.pattern()).isEqualTo("b$");
+        assertThat(motif.matcher("65f0c0ffee0000000000000B").find()).isTrue();
+        assertThat(motif.matcher("65f0c0ffee0000000000000a").find()).isFalse();
+    }
+
+    private static String motif(Object valeur) {
+        return ((Pattern) valeur).pattern();
+    }
+}
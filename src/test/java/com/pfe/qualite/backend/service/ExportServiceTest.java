@@ -0,0 +1,118 @@
+package com.pfe.qualite.backend.service;
+
+import org.apache.poi.ss.usermodel.Workbook;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class ExportServiceTest {
+
+    private static final List<String> ENTETES = List.of("Titre", "Nombre");
+
+    private final ExportService service = new ExportService();
+
+    @BeforeEach
+    void preparer() {
+        // Une seule place de génération, attente courte
+        ReflectionTestUtils.setField(service, "concurrence", 1);
+        ReflectionTestUtils.setField(service, "attenteMs", 100L);
+        service.initialiser();
+    }
+
+    @Test
+    void genereUnClasseurLisible() throws IOException {
+        byte[] contenu = service.exportToExcel("Fiches", ENTETES, List.of(List.of("Audit", 3), List.of("Contrôle", 5)));
+
+        try (Workbook classeur = new XSSFWorkbook(new ByteArrayInputStream(contenu))) {
+            assertThat(classeur.getSheet("Fiches").getLastRowNum()).isEqualTo(2);
+            assertThat(classeur.getSheet("Fiches").getRow(2).getCell(1).getNumericCellValue()).isEqualTo(5.0);
+        }
+    }
+
+    @Test
+    void unEchecDeGenerationRendLaPlace() throws IOException {
+        Iterator<List<Object>> lignesEnEchec = new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                return true;
+            }
+
+            @Override
+            public List<Object> next() {
+                throw new IllegalStateException("curseur fermé");
+            }
+        };
+
+        assertThatThrownBy(() -> service.exportToExcel("Fiches", ENTETES, lignesEnEchec, new ByteArrayOutputStream()))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(service.exportToExcel("Fiches", ENTETES, List.of(List.of("Audit", 1)))).isNotEmpty();
+    }
+
+    @Test
+    void laPlaceEstRendueAvantLEnvoiAuClient() throws IOException {
+        // Client lent : pendant qu'il reçoit le fichier, un autre export doit pouvoir être généré
+        ByteArrayOutputStream recu = new ByteArrayOutputStream();
+        OutputStream clientLent = new OutputStream() {
+            private boolean autreExportFait;
+
+            @Override
+            public void write(int b) throws IOException {
+                write(new byte[]{(byte) b}, 0, 1);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                if (!autreExportFait) {
+                    autreExportFait = true;
+                    service.exportToExcel("Autre", ENTETES, List.of(List.of("Audit", 1)));
+                }
+                recu.write(b, off, len);
+            }
+        };
+
+        service.exportRapportKpiToExcel(Map.of(), clientLent);
+        assertThat(recu.size()).isPositive();
+    }
+
+    @Test
+    void refuseQuandToutesLesPlacesSontPrises() throws IOException {
+        AtomicReference<Throwable> refus = new AtomicReference<>();
+        Iterator<List<Object>> lignes = new Iterator<>() {
+            private boolean fait;
+
+            @Override
+            public boolean hasNext() {
+                return !fait;
+            }
+
+            @Override
+            public List<Object> next() {
+                fait = true;
+                // La seule place est prise par l'export en cours de génération
+                try {
+                    service.exportToExcel("Autre", ENTETES, List.of());
+                } catch (Throwable e) {
+                    refus.set(e);
+                }
+                return List.of("Audit", 1);
+            }
+        };
+
+        service.exportToExcel("Fiches", ENTETES, lignes, new ByteArrayOutputStream());
+        assertThat(refus.get()).isInstanceOf(RejectedExecutionException.class);
+    }
+}
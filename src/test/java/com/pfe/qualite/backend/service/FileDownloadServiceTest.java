@@ -0,0 +1,154 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.service.storage.BlobStore;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.Optional;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class FileDownloadServiceTest {
+
+    private static final byte[] CONTENU = "0123456789".getBytes(StandardCharsets.US_ASCII);
+    private static final String CLE = "ab/cd/abcdef";
+    private static final String ETAG = "abcdef";
+
+    private final FileDownloadService service = new FileDownloadService();
+    private BlobStore store;
+
+    @BeforeEach
+    void preparer() throws IOException {
+        // Support distant (sans chemin local) : le contenu est relu en flux à chaque envoi
+        store = mock(BlobStore.class);
+        when(store.size(CLE)).thenReturn((long) CONTENU.length);
+        when(store.open(CLE)).thenAnswer(invocation -> new ByteArrayInputStream(CONTENU));
+        when(store.localPath(anyString())).thenReturn(Optional.empty());
+        when(store.size("absent")).thenReturn(-1L);
+    }
+
+    @Test
+    void envoieLeFichierCompletAvecEtag() throws IOException {
+        MockHttpServletResponse response = envoyer(new MockHttpServletRequest("GET", "/f"));
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.ETAG)).isEqualTo("\"" + ETAG + "\"");
+        assertThat(response.getHeader(HttpHeaders.ACCEPT_RANGES)).isEqualTo("bytes");
+        assertThat(response.getContentLengthLong()).isEqualTo(CONTENU.length);
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENU);
+    }
+
+    @Test
+    void cleAbsenteRenvoie404() throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.send(store, "absent", "text/plain", "attachment", ETAG, null,
+                new MockHttpServletRequest("GET", "/f"), response);
+
+        assertThat(response.getStatus()).isEqualTo(404);
+    }
+
+    @Test
+    void ifNoneMatchCorrespondantRenvoie304SansCorps() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.IF_NONE_MATCH, "W/\"autre\", \"" + ETAG + "\"");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(304);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        verify(store, never()).open(anyString());
+    }
+
+    @Test
+    void plageSatisfaisableRenvoie206() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 2-5/10");
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    void plageSuffixeRenvoieLaFinDuFichier() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=-3");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes 7-9/10");
+        assertThat(response.getContentAsString()).isEqualTo("789");
+    }
+
+    @Test
+    void plageInsatisfaisableRenvoie416() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=20-30");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(416);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isEqualTo("bytes */10");
+        assertThat(response.getContentAsByteArray()).isEmpty();
+    }
+
+    @Test
+    void ifRangeObsoleteRenvoieLeFichierComplet() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"ancienne-version\"");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(200);
+        assertThat(response.getHeader(HttpHeaders.CONTENT_RANGE)).isNull();
+        assertThat(response.getContentAsByteArray()).isEqualTo(CONTENU);
+    }
+
+    @Test
+    void ifRangeCorrespondantAppliqueLaPlage() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+        request.addHeader(HttpHeaders.IF_RANGE, "\"" + ETAG + "\"");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentAsString()).isEqualTo("2345");
+    }
+
+    @Test
+    void headEnvoieLesEnTetesSansLeCorps() throws IOException {
+        MockHttpServletRequest request = new MockHttpServletRequest("HEAD", "/f");
+        request.addHeader(HttpHeaders.RANGE, "bytes=2-5");
+
+        MockHttpServletResponse response = envoyer(request);
+
+        assertThat(response.getStatus()).isEqualTo(206);
+        assertThat(response.getContentLengthLong()).isEqualTo(4);
+        assertThat(response.getContentAsByteArray()).isEmpty();
+        verify(store, never()).open(anyString());
+    }
+
+    private MockHttpServletResponse envoyer(MockHttpServletRequest request) throws IOException {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        service.send(store, CLE, "text/plain", "attachment; filename=\"f.txt\"", ETAG, new Date(0), request, response);
+        return response;
+    }
+}
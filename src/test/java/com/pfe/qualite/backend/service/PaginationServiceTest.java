@@ -0,0 +1,173 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.PageCurseur;
+import com.pfe.qualite.backend.model.Tache;
+import com.pfe.qualite.backend.model.Utilisateur;
+import org.bson.Document;
+import org.bson.types.ObjectId;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentCaptor;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.convert.MappingMongoConverter;
+import org.springframework.data.mongodb.core.convert.MongoCustomConversions;
+import org.springframework.data.mongodb.core.convert.NoOpDbRefResolver;
+import org.springframework.data.mongodb.core.mapping.MongoMappingContext;
+import org.springframework.data.mongodb.core.query.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class PaginationServiceTest {
+
+    private MongoTemplate mongoTemplate;
+    private PaginationService service;
+    private final List<Document> resultats = new ArrayList<>();
+
+    @BeforeEach
+    void preparer() {
+        // Convertisseur réel (sans base) configuré comme par Spring Boot : types java.time traités comme simples
+        MongoCustomConversions conversions = new MongoCustomConversions(List.of());
+        MongoMappingContext mappingContext = new MongoMappingContext();
+        mappingContext.setSimpleTypeHolder(conversions.getSimpleTypeHolder());
+        MappingMongoConverter converter = new MappingMongoConverter(NoOpDbRefResolver.INSTANCE, mappingContext);
+        converter.setCustomConversions(conversions);
+        converter.afterPropertiesSet();
+        mongoTemplate = mock(MongoTemplate.class);
+        when(mongoTemplate.getConverter()).thenReturn(converter);
+        when(mongoTemplate.getCollectionName(Tache.class)).thenReturn("taches");
+        when(mongoTemplate.getCollectionName(Utilisateur.class)).thenReturn("utilisateurs");
+        when(mongoTemplate.find(any(Query.class), eq(Document.class), any(String.class))).thenAnswer(invocation -> {
+            int limite = invocation.getArgument(0, Query.class).getLimit();
+            return new ArrayList<>(resultats.subList(0, Math.min(limite, resultats.size())));
+        });
+        service = new PaginationService(mongoTemplate);
+    }
+
+    @Test
+    void laTailleDePageEstPlafonnee() {
+        assertThat(requete(null).getLimit()).isEqualTo(PaginationService.TAILLE_DEFAUT + 1);
+        assertThat(requete(10_000).getLimit()).isEqualTo(PaginationService.TAILLE_MAX + 1);
+        assertThat(requete(0).getLimit()).isEqualTo(2);
+    }
+
+    @Test
+    void leTriEstStableSurLaDatePuisLId() {
+        Query query = requete(10);
+
+        assertThat(query.getSortObject()).isEqualTo(new Document("dateCreation", -1).append("_id", -1));
+    }
+
+    @Test
+    void unCurseurEstRenduQuandIlResteDesElements() {
+        ObjectId dernierId = new ObjectId();
+        Date derniereDate = new Date(1_700_000_000_000L);
+        resultats.add(tache(new ObjectId(), new Date(1_700_000_100_000L)));
+        resultats.add(tache(dernierId, derniereDate));
+        resultats.add(tache(new ObjectId(), new Date(1_699_000_000_000L)));
+
+        PageCurseur<Tache> page = service.paginer(Tache.class, null, "dateCreation", null, 2, null);
+
+        assertThat(page.getElements()).hasSize(2);
+        assertThat(page.getTaille()).isEqualTo(2);
+        assertThat(page.getCurseurSuivant()).isNotNull();
+
+        // La page suivante reprend strictement après (date, id) du dernier élément
+        resultats.clear();
+        service.paginer(Tache.class, null, "dateCreation", page.getCurseurSuivant(), 2, null);
+        Document critere = derniereRequete().getQueryObject();
+        Document apres = critere.getList("$and", Document.class).get(0);
+        List<Document> conditions = apres.getList("$or", Document.class);
+        assertThat(conditions).containsExactly(
+                new Document("dateCreation", new Document("$lt", derniereDate)),
+                new Document("$and", List.of(new Document("dateCreation", derniereDate),
+                        new Document("_id", new Document("$lt", dernierId)))),
+                new Document("dateCreation", null));
+    }
+
+    @Test
+    void laDernierePageNARienApres() {
+        resultats.add(tache(new ObjectId(), new Date()));
+
+        PageCurseur<Tache> page = service.paginer(Tache.class, null, "dateCreation", null, 2, null);
+
+        assertThat(page.getElements()).hasSize(1);
+        assertThat(page.getCurseurSuivant()).isNull();
+    }
+
+    @Test
+    void unTriSurLIdSeulUtiliseLIdCommeCurseur() {
+        ObjectId dernierId = new ObjectId();
+        resultats.add(tache(new ObjectId(), null));
+        resultats.add(tache(dernierId, null));
+
+        PageCurseur<Tache> page = service.paginer(Tache.class, null, null, null, 1, null);
+        service.paginer(Tache.class, null, null, page.getCurseurSuivant(), 1, null);
+
+        Document critere = derniereRequete().getQueryObject();
+        assertThat(critere.toJson()).contains(new ObjectId(page.getElements().get(0).getId()).toHexString());
+        assertThat(critere.toJson()).contains("$lt");
+    }
+
+    @Test
+    void unCurseurAltereEstRefuse() {
+        assertThatThrownBy(() -> service.paginer(Tache.class, null, "dateCreation", "pas-un-curseur!", 10, null))
+                .isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.paginer(Tache.class, null, "dateCreation", "WDox", 10, null))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void unChampDeProjectionInvalideEstRefuse() {
+        assertThatThrownBy(() -> service.paginer(Tache.class, null, "dateCreation", null, 10, "titre,$where"))
+                .isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void laProjectionNeRenvoiePasDeValeursParDefaut() {
+        resultats.add(new Document("_id", new ObjectId()).append("titre", "Audit").append("dateCreation", new Date()));
+
+        PageCurseur<Tache> page = service.paginer(Tache.class, null, "dateCreation", null, 10, "titre");
+
+        assertThat(derniereRequete().getFieldsObject()).isEqualTo(new Document("titre", 1).append("dateCreation", 1));
+        Tache tache = page.getElements().get(0);
+        assertThat(tache.getTitre()).isEqualTo("Audit");
+        assertThat(tache.getStatut()).isNull();
+        assertThat(tache.getPriorite()).isNull();
+    }
+
+    @Test
+    void lesChampsExclusNeSontJamaisRenvoyes() {
+        service.paginer(Utilisateur.class, null, "dateCreation", null, 10, null, Set.of("password"));
+        assertThat(derniereRequete().getFieldsObject()).isEqualTo(new Document("password", 0));
+
+        service.paginer(Utilisateur.class, null, "dateCreation", null, 10, "email,password", Set.of("password"));
+        assertThat(derniereRequete().getFieldsObject()).isEqualTo(new Document("email", 1).append("dateCreation", 1));
+    }
+
+    private Query requete(Integer taille) {
+        service.paginer(Tache.class, null, "dateCreation", null, taille, null);
+        return derniereRequete();
+    }
+
+    private Query derniereRequete() {
+        ArgumentCaptor<Query> captor = ArgumentCaptor.forClass(Query.class);
+        verify(mongoTemplate, atLeastOnce()).find(captor.capture(), eq(Document.class), any(String.class));
+        return captor.getValue();
+    }
+
+    private static Document tache(ObjectId id, Date dateCreation) {
+        return new Document("_id", id).append("titre", "Tâche").append("statut", "A_FAIRE").append("dateCreation", dateCreation);
+    }
+}
@@ -0,0 +1,90 @@
+package com.pfe.qualite.backend.service;
+
+import com.pfe.qualite.backend.model.PageCurseur;
+import com.pfe.qualite.backend.model.StatutTache;
+import com.pfe.qualite.backend.model.Tache;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.extension.ExtendWith;
+import org.mockito.InjectMocks;
+import org.mockito.Mock;
+import org.mockito.junit.jupiter.MockitoExtension;
+import org.springframework.data.mongodb.core.MongoTemplate;
+import org.springframework.data.mongodb.core.query.Query;
+import org.springframework.data.mongodb.core.query.Update;
+
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+@ExtendWith(MockitoExtension.class)
+class TacheServiceTest {
+
+    @Mock
+    private PaginationService paginationService;
+
+    @Mock
+    private MongoTemplate mongoTemplate;
+
+    @InjectMocks
+    private TacheService tacheService;
+
+    @Test
+    void uneTacheTermineeEchueNEstPasMarqueeEnRetardAvecUneProjection() {
+        Tache terminee = tache("t1", StatutTache.TERMINEE, LocalDate.now().minusDays(3));
+        when(paginationService.paginer(eq(Tache.class), isNull(), eq("dateCreation"), isNull(), eq(20),
+                eq("titre,dateEcheance,statut,dateEcheance"))).thenReturn(page(terminee));
+
+        PageCurseur<Tache> page = tacheService.getTachesPage(null, 20, "titre,dateEcheance");
+
+        verify(mongoTemplate, never()).updateMulti(any(Query.class), any(Update.class), eq(Tache.class));
+        assertThat(page.getElements().get(0).getStatut()).isNull();
+        assertThat(page.getElements().get(0).getDateEcheance()).isEqualTo(terminee.getDateEcheance());
+    }
+
+    @Test
+    void lesChampsDeControleNonDemandesSontRetiresDeLaReponse() {
+        Tache echue = tache("t2", StatutTache.A_FAIRE, LocalDate.now().minusDays(1));
+        when(paginationService.paginer(eq(Tache.class), isNull(), eq("dateCreation"), isNull(), isNull(),
+                eq("titre,statut,dateEcheance"))).thenReturn(page(echue));
+
+        PageCurseur<Tache> page = tacheService.getTachesPage(null, null, "titre");
+
+        verify(mongoTemplate).updateMulti(any(Query.class), any(Update.class), eq(Tache.class));
+        assertThat(page.getElements().get(0).getStatut()).isNull();
+        assertThat(page.getElements().get(0).getDateEcheance()).isNull();
+    }
+
+    @Test
+    void sansProjectionLeRetardEstVisible() {
+        Tache echue = tache("t3", StatutTache.EN_COURS, LocalDate.now().minusDays(1));
+        Tache aJour = tache("t4", StatutTache.EN_COURS, LocalDate.now().plusDays(1));
+        when(paginationService.paginer(eq(Tache.class), isNull(), eq("dateCreation"), isNull(), isNull(), isNull()))
+                .thenReturn(page(echue, aJour));
+
+        PageCurseur<Tache> page = tacheService.getTachesPage(null, null, null);
+
+        assertThat(page.getElements()).extracting(Tache::getStatut)
+                .containsExactly(StatutTache.EN_RETARD, StatutTache.EN_COURS);
+    }
+
+    private static Tache tache(String id, StatutTache statut, LocalDate echeance) {
+        Tache tache = new Tache();
+        tache.setId(id);
+        tache.setTitre("Tâche " + id);
+        tache.setStatut(statut);
+        tache.setDateEcheance(echeance);
+        return tache;
+    }
+
+    private static PageCurseur<Tache> page(Tache... taches) {
+        return new PageCurseur<>(new ArrayList<>(List.of(taches)), null, 50);
+    }
+}
@@ -0,0 +1,124 @@
+package com.pfe.qualite.backend.service.storage;
+
+import com.pfe.qualite.backend.service.FileStorageService;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class StorageMigrationServiceTest {
+
+    private final StorageMigrationService service = new StorageMigrationService();
+    private final BlobStore source = mock(BlobStore.class);
+    private final BlobStore cible = mock(BlobStore.class);
+    private ThreadPoolTaskExecutor executor;
+
+    @BeforeEach
+    void preparer() throws IOException {
+        FileStorageService fileStorageService = mock(FileStorageService.class);
+        when(fileStorageService.getBlobStore("local")).thenReturn(source);
+        when(fileStorageService.getBlobStore("gridfs")).thenReturn(cible);
+
+        // Même forme que le bean migrationExecutor d'AsyncConfig, avec 4 copies au plus
+        executor = new ThreadPoolTaskExecutor();
+        executor.setThreadNamePrefix("migration-test-");
+        executor.setCorePoolSize(5);
+        executor.setMaxPoolSize(5);
+        executor.setQueueCapacity(4);
+        executor.initialize();
+
+        ReflectionTestUtils.setField(service, "fileStorageService", fileStorageService);
+        ReflectionTestUtils.setField(service, "migrationExecutor", executor);
+        when(cible.size(anyString())).thenReturn(3L);
+    }
+
+    @AfterEach
+    void arreter() {
+        executor.shutdown();
+    }
+
+    @Test
+    void copieEnArrierePlanEtIgnoreLesClesDejaMigrees() throws Exception {
+        when(source.keys()).thenAnswer(invocation -> Stream.of("a", "b", "c", "deja"));
+        when(source.open(anyString())).thenAnswer(invocation -> new ByteArrayInputStream(new byte[]{1, 2, 3}));
+        when(cible.exists(anyString())).thenAnswer(invocation -> "deja".equals(invocation.getArgument(0)));
+
+        Map<String, Object> initial = service.lancer("local", "gridfs", 2);
+        Map<String, Object> rapport = attendreFin((String) initial.get("id"));
+
+        assertThat(rapport.get("statut")).isEqualTo("TERMINEE");
+        assertThat(rapport.get("copies")).isEqualTo(3);
+        assertThat(rapport.get("dejaPresents")).isEqualTo(1);
+        assertThat(rapport.get("echecs")).isEqualTo(0);
+        assertThat(rapport.get("octetsCopies")).isEqualTo(9L);
+        verify(cible, never()).put(eq("deja"), any(InputStream.class));
+    }
+
+    @Test
+    void uneSeuleMigrationALaFois() throws Exception {
+        CountDownLatch bloque = new CountDownLatch(1);
+        when(source.keys()).thenAnswer(invocation -> Stream.of("a"));
+        when(source.open("a")).thenAnswer(invocation -> {
+            bloque.await(5, TimeUnit.SECONDS);
+            return new ByteArrayInputStream(new byte[]{1});
+        });
+
+        String id = (String) service.lancer("local", "gridfs", 1).get("id");
+        assertThatThrownBy(() -> service.lancer("local", "gridfs", 1)).isInstanceOf(RejectedExecutionException.class);
+        assertThat(service.getRapport(id).orElseThrow().get("statut")).isEqualTo("EN_COURS");
+
+        bloque.countDown();
+        assertThat(attendreFin(id).get("statut")).isEqualTo("TERMINEE");
+        // La place est libérée : une nouvelle migration peut démarrer
+        assertThat(attendreFin((String) service.lancer("local", "gridfs", 1).get("id")).get("statut")).isEqualTo("TERMINEE");
+    }
+
+    @Test
+    void unEchecDeListageTermineLaMigrationEnEchec() throws Exception {
+        when(source.keys()).thenThrow(new IOException("disque absent"));
+
+        Map<String, Object> rapport = attendreFin((String) service.lancer("local", "gridfs", 1).get("id"));
+
+        assertThat(rapport.get("statut")).isEqualTo("ECHEC");
+        assertThat(rapport.get("erreur")).isEqualTo("disque absent");
+    }
+
+    @Test
+    void refuseUnParallelismeHorsBornesOuUneCibleIdentique() {
+        assertThatThrownBy(() -> service.lancer("local", "gridfs", 0)).isInstanceOf(IllegalArgumentException.class);
+        // Le pool compte un thread de parcours en plus des copies
+        assertThatThrownBy(() -> service.lancer("local", "gridfs", 5)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> service.lancer("local", "local", 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThat(service.getRapport("inconnu")).isEmpty();
+    }
+
+    private Map<String, Object> attendreFin(String id) throws InterruptedException {
+        long limite = System.currentTimeMillis() + 5_000;
+        Map<String, Object> rapport = service.getRapport(id).orElseThrow();
+        while ("EN_COURS".equals(rapport.get("statut")) && System.currentTimeMillis() < limite) {
+            Thread.sleep(10);
+            rapport = service.getRapport(id).orElseThrow();
+        }
+        return rapport;
+    }
+}
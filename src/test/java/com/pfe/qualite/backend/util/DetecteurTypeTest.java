@@ -0,0 +1,50 @@
+package com.pfe.qualite.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class DetecteurTypeTest {
+
+    private static final byte[] OLE2 = {(byte) 0xD0, (byte) 0xCF, 0x11, (byte) 0xE0, (byte) 0xA1, (byte) 0xB1, 0x1A, (byte) 0xE1, 0};
+
+    @Test
+    void reconnaitLesImagesEtLePdf() {
+        assertThat(DetecteurType.detecter(new byte[]{(byte) 0xFF, (byte) 0xD8, (byte) 0xFF, (byte) 0xE0}, "photo.png"))
+                .isEqualTo("image/jpeg");
+        assertThat(DetecteurType.detecter(new byte[]{(byte) 0x89, 'P', 'N', 'G', 0x0D, 0x0A, 0x1A, 0x0A, 0}, "x"))
+                .isEqualTo("image/png");
+        assertThat(DetecteurType.detecter("GIF89a".getBytes(StandardCharsets.ISO_8859_1), null))
+                .isEqualTo("image/gif");
+        assertThat(DetecteurType.detecter("%PDF-1.7\n".getBytes(StandardCharsets.ISO_8859_1), "rapport.doc"))
+                .isEqualTo("application/pdf");
+    }
+
+    @Test
+    void departageLesFormatsOle2ParExtension() {
+        assertThat(DetecteurType.detecter(OLE2, "fiche.DOC")).isEqualTo("application/msword");
+        assertThat(DetecteurType.detecter(OLE2, "suivi.xls")).isEqualTo("application/vnd.ms-excel");
+        assertThat(DetecteurType.detecter(OLE2, "presentation.ppt")).isNull();
+    }
+
+    @Test
+    void departageLesFormatsOoxmlParExtension() {
+        byte[] ooxml = "PK\u0003\u0004....[Content_Types].xml".getBytes(StandardCharsets.ISO_8859_1);
+        assertThat(DetecteurType.detecter(ooxml, "fiche.docx"))
+                .isEqualTo("application/vnd.openxmlformats-officedocument.wordprocessingml.document");
+        assertThat(DetecteurType.detecter(ooxml, "suivi.xlsx"))
+                .isEqualTo("application/vnd.openxmlformats-officedocument.spreadsheetml.sheet");
+        // Archive ZIP ordinaire renommée en .docx : refusée
+        byte[] zip = "PK\u0003\u0004....script.js".getBytes(StandardCharsets.ISO_8859_1);
+        assertThat(DetecteurType.detecter(zip, "fiche.docx")).isNull();
+    }
+
+    @Test
+    void contenuInconnuOuVide() {
+        assertThat(DetecteurType.detecter("<html>".getBytes(StandardCharsets.ISO_8859_1), "page.pdf")).isNull();
+        assertThat(DetecteurType.detecter(new byte[0], "image.png")).isNull();
+        assertThat(DetecteurType.detecter(new byte[]{(byte) 0xFF, (byte) 0xD8}, "image.jpg")).isNull();
+    }
+}
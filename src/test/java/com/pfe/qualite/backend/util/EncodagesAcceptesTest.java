@@ -0,0 +1,39 @@
+package com.pfe.qualite.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class EncodagesAcceptesTest {
+
+    @Test
+    void codageCiteSansPoidsOuAvecUnPoidsPositif() {
+        assertThat(EncodagesAcceptes.accepte("gzip", "gzip")).isTrue();
+        assertThat(EncodagesAcceptes.accepte("br, GZIP;q=0.5", "gzip")).isTrue();
+        assertThat(EncodagesAcceptes.accepte("deflate, x-gzip", "gzip")).isTrue();
+        assertThat(EncodagesAcceptes.accepte("gzip; Q=0.001", "gzip")).isTrue();
+    }
+
+    @Test
+    void unPoidsNulRefuseLeCodage() {
+        assertThat(EncodagesAcceptes.accepte("gzip;q=0", "gzip")).isFalse();
+        assertThat(EncodagesAcceptes.accepte("gzip; q=0.0, identity", "gzip")).isFalse();
+        assertThat(EncodagesAcceptes.accepte("*, gzip;q=0", "gzip")).isFalse();
+    }
+
+    @Test
+    void leJokerCouvreLesCodagesNonCites() {
+        assertThat(EncodagesAcceptes.accepte("*", "gzip")).isTrue();
+        assertThat(EncodagesAcceptes.accepte("br, *;q=0", "gzip")).isFalse();
+    }
+
+    @Test
+    void enTeteAbsentOuSansLeCodage() {
+        assertThat(EncodagesAcceptes.accepte(null, "gzip")).isFalse();
+        assertThat(EncodagesAcceptes.accepte("", "gzip")).isFalse();
+        assertThat(EncodagesAcceptes.accepte("identity, br", "gzip")).isFalse();
+        // « gzipx » n'est pas gzip
+        assertThat(EncodagesAcceptes.accepte("gzipx", "gzip")).isFalse();
+        assertThat(EncodagesAcceptes.accepte("gzip;q=abc", "gzip")).isFalse();
+    }
+}
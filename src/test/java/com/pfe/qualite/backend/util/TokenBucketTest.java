@@ -0,0 +1,37 @@
+package com.pfe.qualite.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TokenBucketTest {
+
+    @Test
+    void refuseUnDebitOuUneRafaleNonPositifs() {
+        assertThatThrownBy(() -> new TokenBucket(0, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucket(-1, 1)).isInstanceOf(IllegalArgumentException.class);
+        assertThatThrownBy(() -> new TokenBucket(1, 0)).isInstanceOf(IllegalArgumentException.class);
+    }
+
+    @Test
+    void laRafaleEstServieSansAttente() throws InterruptedException {
+        TokenBucket seau = new TokenBucket(1, 5);
+        long debut = System.nanoTime();
+        for (int i = 0; i < 5; i++) {
+            seau.acquerir();
+        }
+        assertThat((System.nanoTime() - debut) / 1_000_000).isLessThan(500);
+    }
+
+    @Test
+    void auDelaDeLaRafaleLeDebitEstRespecte() throws InterruptedException {
+        // 10 jetons par seconde : le jeton suivant arrive environ 100 ms après l'épuisement de la rafale
+        TokenBucket seau = new TokenBucket(10, 1);
+        seau.acquerir();
+        long debut = System.nanoTime();
+        seau.acquerir();
+        long attenteMs = (System.nanoTime() - debut) / 1_000_000;
+        assertThat(attenteMs).isBetween(80L, 1_000L);
+    }
+}
@@ -0,0 +1,87 @@
+package com.pfe.qualite.backend.util;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class TtlCacheTest {
+
+    @Test
+    void servieDepuisLeCachePendantLeTtl() {
+        TtlCache<String, Integer> cache = new TtlCache<>(60_000, 10);
+        AtomicInteger appels = new AtomicInteger();
+
+        assertThat(cache.get("a", appels::incrementAndGet)).isEqualTo(1);
+        assertThat(cache.get("a", appels::incrementAndGet)).isEqualTo(1);
+        assertThat(appels.get()).isEqualTo(1);
+    }
+
+    @Test
+    void rechargeeApresExpiration() throws InterruptedException {
+        TtlCache<String, Integer> cache = new TtlCache<>(20, 10);
+        AtomicInteger appels = new AtomicInteger();
+
+        cache.get("a", appels::incrementAndGet);
+        Thread.sleep(50);
+        assertThat(cache.get("a", appels::incrementAndGet)).isEqualTo(2);
+    }
+
+    @Test
+    void rechargeeApresInvalidation() {
+        TtlCache<String, Integer> cache = new TtlCache<>(60_000, 10);
+        AtomicInteger appels = new AtomicInteger();
+
+        cache.get("a", appels::incrementAndGet);
+        cache.get("b", appels::incrementAndGet);
+        cache.invalider("a");
+        assertThat(cache.get("a", appels::incrementAndGet)).isEqualTo(3);
+        assertThat(cache.get("b", appels::incrementAndGet)).isEqualTo(2);
+
+        cache.vider();
+        assertThat(cache.get("b", appels::incrementAndGet)).isEqualTo(4);
+    }
+
+    @Test
+    void uneInvalidationPendantLeChargementEmpecheLaMiseEnCache() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 10);
+
+        // L'utilisateur est modifié (et invalidé) pendant que l'ancienne version est lue
+        String lue = cache.get("a", () -> {
+            cache.invalider("a");
+            return "perimee";
+        });
+
+        assertThat(lue).isEqualTo("perimee");
+        assertThat(cache.get("a", () -> "fraiche")).isEqualTo("fraiche");
+        assertThat(cache.get("a", () -> "rechargee")).isEqualTo("fraiche");
+    }
+
+    @Test
+    void unChargementEnEchecNeBloquePasLesSuivants() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 10);
+
+        assertThatThrownBy(() -> cache.get("a", () -> {
+            throw new IllegalStateException("base injoignable");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(cache.get("a", () -> "b")).isEqualTo("b");
+        assertThat(cache.get("a", () -> "c")).isEqualTo("b");
+    }
+
+    @Test
+    void evinceLaCleLaMoinsRecemmentUtilisee() {
+        TtlCache<String, String> cache = new TtlCache<>(60_000, 2);
+        AtomicInteger appels = new AtomicInteger();
+
+        cache.get("a", () -> "a" + appels.incrementAndGet());
+        cache.get("b", () -> "b" + appels.incrementAndGet());
+        // « a » devient la plus récente : c'est « b » qui sort à l'ajout de « c »
+        cache.get("a", () -> "a" + appels.incrementAndGet());
+        cache.get("c", () -> "c" + appels.incrementAndGet());
+
+        assertThat(cache.get("a", () -> "a" + appels.incrementAndGet())).isEqualTo("a1");
+        assertThat(cache.get("b", () -> "b" + appels.incrementAndGet())).isEqualTo("b4");
+    }
+}